@@ -0,0 +1,87 @@
+package scheduler.bench;
+
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.CaregiverLoad;
+import scheduler.service.ReservationService;
+import scheduler.service.assignment.CaregiverAssignmentStrategy;
+import scheduler.store.Booking;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the caregiver assignment strategies under concurrent reservations for the same dates.
+ *
+ * Usage: AssignmentBench [threads]
+ * The seeded dates are split evenly between the strategies. Each strategy books half of the caregivers on each of
+ * its dates, one date after the other, with all threads booking the same date at once. Reported per strategy:
+ * bookings per second, candidate slots that were already taken when claimed (the contention the strategy causes),
+ * deadlock retries, and the fewest and most appointments any one caregiver holds afterwards. Strategies run one after
+ * the other on the same caregivers, so least-loaded also evens out what the strategies before it left behind.
+ */
+public class AssignmentBench {
+
+    private static final String[] STRATEGIES = {"first-free", "least-loaded", "round-robin", "random"};
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        BenchData data = new BenchData();
+        data.seed();
+        AvailabilityIndex.getInstance().load();
+        CaregiverLoad.getInstance().load();
+        int datesPerStrategy = data.dates / STRATEGIES.length;
+        int perDate = Math.max(1, data.caregivers / 2);
+        try {
+            for (int s = 0; s < STRATEGIES.length; s++) {
+                ReservationService service = new ReservationService(5, 20,
+                        CaregiverAssignmentStrategy.named(STRATEGIES[s]));
+                run(service, threads, data, s * datesPerStrategy, datesPerStrategy, perDate);
+            }
+        } finally {
+            data.clean();
+        }
+        System.exit(0);
+    }
+
+    private static void run(ReservationService service, int threads, BenchData data, int firstDate, int dates,
+                            int perDate) throws InterruptedException {
+        int total = dates * perDate;
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger booked = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    for (int i = next.getAndIncrement(); i < total; i = next.getAndIncrement()) {
+                        Booking booking = service.reserve(BenchData.patient(i % data.patients),
+                                BenchData.date(firstDate + i / perDate), BenchData.VACCINE);
+                        if (booking.getOutcome() == Booking.Outcome.BOOKED) {
+                            booked.incrementAndGet();
+                        }
+                    }
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - start;
+
+        int fewest = Integer.MAX_VALUE;
+        int most = 0;
+        for (int c = 0; c < data.caregivers; c++) {
+            int load = CaregiverLoad.getInstance().get(BenchData.caregiver(c));
+            fewest = Math.min(fewest, load);
+            most = Math.max(most, load);
+        }
+        System.out.printf("%-13s booked=%d/%d %.1f bookings/s misses/booking=%.3f retries=%d load=%d..%d%n",
+                service.getStrategy().name(), booked.get(), total, booked.get() / (nanos / 1e9),
+                service.getSlotMisses() / (double) Math.max(1, booked.get()), service.getRetries(), fewest, most);
+    }
+}
@@ -0,0 +1,146 @@
+package scheduler.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A small single-threaded measurement harness in the spirit of JMH: warmup iterations, measured iterations,
+ * and per-operation latency, allocation and GC figures (the JMH "gc" profiler equivalent).
+ */
+public class Bench {
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final List<Result> results = new ArrayList<>();
+
+    public Bench(int warmupIterations, int measuredIterations) {
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+    }
+
+    public static Bench fromProperties() {
+        return new Bench(Integer.getInteger("bench.warmupIterations", 3),
+                Integer.getInteger("bench.iterations", 5));
+    }
+
+    // Runs op opsPerIteration times per iteration; op receives a running operation index
+    public Result run(String name, int opsPerIteration, Op op) throws Exception {
+        long index = 0;
+        for (int i = 0; i < warmupIterations; i++) {
+            for (int j = 0; j < opsPerIteration; j++) {
+                op.run(index++);
+            }
+        }
+
+        double[] nanosPerOp = new double[measuredIterations];
+        long allocatedBefore = allocatedBytes();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTimeMillis();
+        for (int i = 0; i < measuredIterations; i++) {
+            long start = System.nanoTime();
+            for (int j = 0; j < opsPerIteration; j++) {
+                op.run(index++);
+            }
+            nanosPerOp[i] = (System.nanoTime() - start) / (double) opsPerIteration;
+        }
+        long totalOps = (long) measuredIterations * opsPerIteration;
+        Result result = new Result(name, opsPerIteration, nanosPerOp,
+                (allocatedBytes() - allocatedBefore) / (double) totalOps,
+                gcCount() - gcCountBefore, gcTimeMillis() - gcTimeBefore);
+        results.add(result);
+        System.err.println(result);
+        return result;
+    }
+
+    // Number of times run() calls op per iteration count, warmup included
+    public int totalIterations() {
+        return warmupIterations + measuredIterations;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    public interface Op {
+        void run(long index) throws Exception;
+    }
+
+    public static class Result {
+        private final String name;
+        private final int opsPerIteration;
+        private final double[] nanosPerOp;
+        private final double allocatedBytesPerOp;
+        private final long gcCount;
+        private final long gcTimeMillis;
+
+        private Result(String name, int opsPerIteration, double[] nanosPerOp, double allocatedBytesPerOp,
+                       long gcCount, long gcTimeMillis) {
+            this.name = name;
+            this.opsPerIteration = opsPerIteration;
+            this.nanosPerOp = nanosPerOp;
+            this.allocatedBytesPerOp = allocatedBytesPerOp;
+            this.gcCount = gcCount;
+            this.gcTimeMillis = gcTimeMillis;
+        }
+
+        public double meanNanosPerOp() {
+            return Arrays.stream(nanosPerOp).average().orElse(0);
+        }
+
+        public double minNanosPerOp() {
+            return Arrays.stream(nanosPerOp).min().orElse(0);
+        }
+
+        public double maxNanosPerOp() {
+            return Arrays.stream(nanosPerOp).max().orElse(0);
+        }
+
+        String toJson() {
+            StringBuilder iterations = new StringBuilder();
+            for (double value : nanosPerOp) {
+                if (iterations.length() > 0) {
+                    iterations.append(", ");
+                }
+                iterations.append(String.format("%.1f", value));
+            }
+            return String.format("{\"benchmark\": \"%s\", \"opsPerIteration\": %d, \"meanNsPerOp\": %.1f, " +
+                            "\"minNsPerOp\": %.1f, \"maxNsPerOp\": %.1f, \"iterationsNsPerOp\": [%s], " +
+                            "\"allocBytesPerOp\": %.1f, \"gcCount\": %d, \"gcTimeMs\": %d}",
+                    name, opsPerIteration, meanNanosPerOp(), minNanosPerOp(), maxNanosPerOp(), iterations,
+                    allocatedBytesPerOp, gcCount, gcTimeMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s %12.1f ns/op (min %.1f, max %.1f) %10.1f B/op gc=%d (%d ms)", name,
+                    meanNanosPerOp(), minNanosPerOp(), maxNanosPerOp(), allocatedBytesPerOp, gcCount, gcTimeMillis);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package scheduler.bench;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Reservation;
+import scheduler.store.Credentials;
+import scheduler.store.Storage;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Seeds the configured storage backend with benchmark users, availability and reservations, all prefixed with "bench_"
+ * so they can be removed again afterwards.
+ *
+ * Sizes come from -Dbench.caregivers, -Dbench.patients, -Dbench.dates and -Dbench.reservations. With
+ * -Dbench.createSchema=true the tables from create.sql are created first, which is what an empty embedded
+ * database (scheduler.db.url) needs; with -Dscheduler.storage=memory no database is involved at all.
+ */
+public class BenchData {
+
+    public static final String PASSWORD = "password";
+    public static final String VACCINE = "bench_vaccine";
+    public static final LocalDate FIRST_DATE = LocalDate.of(2030, 1, 1);
+
+    private static final int BATCH_SIZE = 1000;
+
+    public final int caregivers = Integer.getInteger("bench.caregivers", 50);
+    public final int patients = Integer.getInteger("bench.patients", 100);
+    public final int dates = Integer.getInteger("bench.dates", 30);
+    public final int reservations = Integer.getInteger("bench.reservations", 1000);
+
+    public static String caregiver(long i) {
+        return "bench_cg_" + i;
+    }
+
+    public static String patient(long i) {
+        return "bench_pt_" + i;
+    }
+
+    public static Date date(long i) {
+        return Date.valueOf(FIRST_DATE.plusDays(i));
+    }
+
+    public Map<String, Object> parameters() {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("caregivers", caregivers);
+        parameters.put("patients", patients);
+        parameters.put("dates", dates);
+        parameters.put("reservations", reservations);
+        return parameters;
+    }
+
+    public void seed() throws SQLException, IOException {
+        Storage storage = Storage.getInstance();
+        if (Boolean.getBoolean("bench.createSchema") && storage.isJdbc()) {
+            createSchema();
+        }
+        clean();
+
+        storage.vaccines().insert(VACCINE, Integer.MAX_VALUE / 2);
+
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        List<Credentials> users = new ArrayList<>();
+        for (int i = 0; i < caregivers; i++) {
+            users.add(new Credentials(caregiver(i), salt, hash, 1));
+        }
+        storage.caregivers().insertAll(users);
+        users.clear();
+        for (int i = 0; i < patients; i++) {
+            users.add(new Credentials(patient(i), salt, hash, 1));
+        }
+        storage.patients().insertAll(users);
+
+        List<String> usernames = new ArrayList<>();
+        List<LocalDate> days = new ArrayList<>();
+        for (int d = 0; d < dates; d++) {
+            for (int c = 0; c < caregivers; c++) {
+                usernames.add(caregiver(c));
+                days.add(date(d).toLocalDate());
+            }
+        }
+        storage.availabilities().addAll(usernames, days);
+
+        // seeded reservations are spread over dates after the availability window so reserve has free slots
+        List<Reservation> seeded = new ArrayList<>();
+        for (int r = 0; r < reservations; r++) {
+            seeded.add(new Reservation.ReservationBuilder(caregiver(r % caregivers), patient(r % patients), VACCINE,
+                    0, date(dates + r / caregivers)).build());
+            if (seeded.size() == BATCH_SIZE) {
+                storage.reservations().insertAll(seeded);
+                seeded.clear();
+            }
+        }
+        storage.reservations().insertAll(seeded);
+    }
+
+    // a memory backend without a write-ahead log starts empty, so only the database needs cleaning
+    public void clean() throws SQLException {
+        if (!Storage.getInstance().isJdbc()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            Statement statement = con.createStatement();
+            statement.executeUpdate("DELETE FROM Reservations WHERE patient_name LIKE 'bench\\_%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Availabilities WHERE Username LIKE 'bench\\_%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Patients WHERE Username LIKE 'bench\\_%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Caregivers WHERE Username LIKE 'bench\\_%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM DoseTakes WHERE vaccines_name LIKE 'bench\\_%' ESCAPE '\\'");
+            statement.executeUpdate("DELETE FROM Vaccines WHERE Name LIKE 'bench\\_%' ESCAPE '\\'");
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void createSchema() throws SQLException, IOException {
+        String script = new String(Files.readAllBytes(Paths.get(
+                System.getProperty("bench.schema", "src/main/resources/create.sql"))), StandardCharsets.UTF_8);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            Statement statement = con.createStatement();
+            for (String sql : script.split(";")) {
+                if (!sql.isBlank()) {
+                    statement.executeUpdate(sql);
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package scheduler.bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes benchmark results as one JSON document so that runs from different builds can be diffed.
+ */
+public class BenchResults {
+
+    public static void write(String suite, Map<String, Object> parameters, List<Bench.Result> results)
+            throws IOException {
+        Path path = Paths.get(System.getProperty("bench.output", "bench-" + suite + ".json"));
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            out.println("{");
+            out.println("  \"suite\": \"" + suite + "\",");
+            out.println("  \"timestamp\": \"" + Instant.now() + "\",");
+            out.println("  \"jvm\": \"" + System.getProperty("java.vm.name") + " " +
+                    System.getProperty("java.version") + "\",");
+            out.print("  \"parameters\": {");
+            boolean first = true;
+            for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                out.print((first ? "" : ", ") + "\"" + parameter.getKey() + "\": " + parameter.getValue());
+                first = false;
+            }
+            out.println("},");
+            out.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                out.println("    " + results.get(i).toJson() + (i + 1 < results.size() ? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+        System.err.println("Results written to " + path.toAbsolutePath());
+    }
+}
@@ -0,0 +1,173 @@
+package scheduler.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Checks that what one scheduler process writes becomes visible to another one running in cluster mode on the same
+ * data: an uploaded availability, a booking (which takes the slot and a dose) and a cancel (which gives both back).
+ *
+ * Usage: ClusterVisibilityCheck [wait seconds]
+ * Starts two scheduler JVMs on a new shared write-ahead log (-Dscheduler.storage=memory,
+ * -Dscheduler.storage.wal.shared=true, -Dscheduler.cluster=true) and drives their consoles: each write is made in the
+ * first process, and the second one's search_caregiver_schedule has to show it within the wait, which covers its
+ * cached schedule as well as its availability index. Exits with status 1 if any check fails.
+ */
+public class ClusterVisibilityCheck {
+
+    private static final String DATE = "2031-03-04";
+    private static final String CAREGIVER = "cluster_caregiver";
+    private static final String PATIENT = "cluster_patient";
+    private static final String VACCINE = "cluster_vaccine";
+
+    public static void main(String[] args) throws Exception {
+        long waitMillis = TimeUnit.SECONDS.toMillis(args.length > 0 ? Long.parseLong(args[0]) : 10);
+        Path wal = Files.createTempFile("cluster-check", ".wal");
+        List<String> failures = new ArrayList<>();
+        try (Console writer = Console.start(wal); Console reader = Console.start(wal)) {
+            writer.run("create_caregiver " + CAREGIVER + " pw");
+            writer.run("create_patient " + PATIENT + " pw");
+            writer.run("login_caregiver " + CAREGIVER + " pw");
+            writer.run("add_doses " + VACCINE + " 5");
+            expect(failures, "user created in the other process",
+                    reader.run("login_patient " + PATIENT + " pw").contains("Logged in as: " + PATIENT));
+            expect(failures, "date free before the upload",
+                    !reader.run("search_caregiver_schedule " + DATE).contains(CAREGIVER));
+
+            writer.run("upload_availability " + DATE);
+            expect(failures, "upload", reader.await("search_caregiver_schedule " + DATE, waitMillis,
+                    lines -> lines.contains(CAREGIVER) && lines.contains(VACCINE + " 5")));
+
+            writer.run("logout");
+            writer.run("login_patient " + PATIENT + " pw");
+            String booked = writer.run("reserve " + DATE + " " + VACCINE);
+            expect(failures, "reserve in the writing process", booked.contains("Appointment ID"));
+            expect(failures, "booking", reader.await("search_caregiver_schedule " + DATE, waitMillis,
+                    lines -> !lines.contains(CAREGIVER) && lines.contains(VACCINE + " 4")));
+
+            String id = booked.replaceAll("(?s).*Appointment ID (\\d+).*", "$1");
+            expect(failures, "cancel in the writing process",
+                    writer.run("cancel " + id).contains("Reservation canceled"));
+            expect(failures, "cancel", reader.await("search_caregiver_schedule " + DATE, waitMillis,
+                    lines -> lines.contains(CAREGIVER) && lines.contains(VACCINE + " 5")));
+        } finally {
+            Files.deleteIfExists(wal);
+        }
+        if (failures.isEmpty()) {
+            System.out.println("OK");
+            System.exit(0);
+        }
+        failures.forEach(System.out::println);
+        System.exit(1);
+    }
+
+    private static void expect(List<String> failures, String what, boolean held) {
+        if (!held) {
+            failures.add("not visible to the other process: " + what);
+        }
+    }
+
+    // A scheduler JVM whose console is driven one command at a time
+    private static class Console implements AutoCloseable {
+        private static final String PROMPT = "> ";
+
+        private final Process process;
+        private final Writer in;
+        private final StringBuffer out = new StringBuffer();
+
+        private Console(Process process) {
+            this.process = process;
+            this.in = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            Thread pump = new Thread(() -> pump(process.getInputStream()), "console-output");
+            pump.setDaemon(true);
+            pump.start();
+        }
+
+        static Console start(Path wal) throws IOException, InterruptedException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "-Dscheduler.storage=memory", "-Dscheduler.storage.wal=" + wal,
+                    "-Dscheduler.storage.wal.shared=true", "-Dscheduler.cluster=true",
+                    "-Dscheduler.cluster.pollMillis=50", "scheduler.Scheduler")
+                    .redirectErrorStream(true).start();
+            Console console = new Console(process);
+            console.awaitPrompt(0);
+            return console;
+        }
+
+        private void pump(InputStream stream) {
+            byte[] buffer = new byte[4096];
+            try {
+                for (int n; (n = stream.read(buffer)) >= 0; ) {
+                    out.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                // the process is gone
+            }
+        }
+
+        // Runs the command and returns what it printed
+        String run(String command) throws IOException, InterruptedException {
+            int mark = out.length();
+            in.write(command + "\n");
+            in.flush();
+            return awaitPrompt(mark);
+        }
+
+        // Runs the command until its output lines pass the test or the wait is over; true if they passed
+        boolean await(String command, long waitMillis, Predicate<List<String>> test)
+                throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + waitMillis;
+            while (true) {
+                if (test.test(Arrays.asList(run(command).split("\\R")))) {
+                    return true;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    return false;
+                }
+                Thread.sleep(50);
+            }
+        }
+
+        // Waits for the prompt after mark and returns what was printed before it
+        private String awaitPrompt(int mark) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (out.length() <= mark || !out.toString().endsWith(PROMPT)) {
+                if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("The scheduler stopped answering:\n" + out.substring(mark));
+                }
+                Thread.sleep(5);
+            }
+            return out.substring(mark, out.length() - PROMPT.length());
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.write("quit\n");
+                in.flush();
+            } catch (IOException e) {
+                // already gone
+            }
+            try {
+                if (process.waitFor(10, TimeUnit.SECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            process.destroyForcibly();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package scheduler.bench;
+
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.DoseInventory;
+import scheduler.service.ReservationService;
+import scheduler.store.Booking;
+import scheduler.store.Storage;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares bookings that take their dose with a conditional UPDATE of the vaccine's row, one per booking, with
+ * bookings that take it from the {@link DoseInventory} with a compare-and-set and leave the row to its batched flush,
+ * and checks that neither oversells.
+ *
+ * Usage: DoseInventoryBench [threads]
+ * Seeds {@link BenchData} and books its slots through {@link ReservationService}: the first half of the dates for a
+ * vaccine booked the per-call way (the inventory is not loaded yet), the second half for one booked through the
+ * inventory. Each vaccine has doses for three quarters of its slots, and every slot is requested once, all for the
+ * same vaccine, so the bookings contend for its row or counter and it runs out. Runs against the configured backend;
+ * the flush is set with -Dscheduler.doses.flushMillis and -Dscheduler.doses.flushThreshold. Exits with status 1 if
+ * either way oversold or left a dose count that doesn't match the bookings.
+ */
+public class DoseInventoryBench {
+
+    private static final String PER_CALL_VACCINE = "bench_per_call";
+    private static final String INVENTORY_VACCINE = "bench_inventory";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        BenchData data = new BenchData();
+        data.seed();
+        int half = data.dates / 2;
+        int slots = data.caregivers * half;
+        int doses = slots * 3 / 4;
+        Storage.getInstance().vaccines().insert(PER_CALL_VACCINE, doses);
+        Storage.getInstance().vaccines().insert(INVENTORY_VACCINE, doses);
+        AvailabilityIndex.getInstance().load();
+
+        List<String> failures = new ArrayList<>();
+        try {
+            ReservationService service = new ReservationService();
+            run("per-call UPDATE", service, threads, data, 0, half, PER_CALL_VACCINE, doses, failures);
+
+            DoseInventory inventory = DoseInventory.getInstance();
+            inventory.load();
+            run("CAS + write-behind", service, threads, data, half, half, INVENTORY_VACCINE, doses, failures);
+            inventory.flush();
+            if (Storage.getInstance().vaccines().flushTakes() != 0) {
+                failures.add("The inventory's flush left recorded takes behind");
+            }
+            check("CAS + write-behind after the flush", INVENTORY_VACCINE, 0, failures);
+        } finally {
+            data.clean();
+        }
+        if (failures.isEmpty()) {
+            System.out.println("OK");
+            System.exit(0);
+        }
+        failures.forEach(System.out::println);
+        System.exit(1);
+    }
+
+    // Books every slot of dates [firstDate, firstDate + dates) once for the vaccine, from all threads at once
+    private static void run(String name, ReservationService service, int threads, BenchData data, int firstDate,
+                            int dates, String vaccine, int doses, List<String> failures)
+            throws InterruptedException, SQLException {
+        int attempts = data.caregivers * dates;
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger booked = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = next.getAndIncrement(); i < attempts; i = next.getAndIncrement()) {
+                        Booking booking = service.reserve(BenchData.patient(i % data.patients),
+                                BenchData.date(firstDate + i % dates), vaccine);
+                        if (booking.getOutcome() == Booking.Outcome.BOOKED) {
+                            booked.incrementAndGet();
+                        }
+                    }
+                } catch (SQLException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - begin;
+        System.out.printf("%-20s booked=%d of %d doses, %d attempts, %.1f bookings/s%n", name, booked.get(), doses,
+                attempts, booked.get() / (nanos / 1e9));
+        if (booked.get() != doses) {
+            failures.add(name + ": booked " + booked.get() + " with " + doses + " doses and more slots than that");
+        }
+        check(name, vaccine, doses - booked.get(), failures);
+    }
+
+    private static void check(String name, String vaccine, int expected, List<String> failures) throws SQLException {
+        Integer left = Storage.getInstance().vaccines().findDoses(vaccine);
+        if (left == null || left != expected || left < 0) {
+            failures.add(name + ": " + left + " doses left, expected " + expected);
+        }
+    }
+}
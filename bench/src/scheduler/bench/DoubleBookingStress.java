@@ -0,0 +1,145 @@
+package scheduler.bench;
+
+import scheduler.model.Reservation;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.CaregiverLoad;
+import scheduler.service.DoseInventory;
+import scheduler.service.ReservationService;
+import scheduler.store.Booking;
+import scheduler.store.Storage;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that concurrent reservations never book a caregiver slot twice, never share an appointment ID and never
+ * hand out more doses than there are.
+ *
+ * Usage: DoubleBookingStress [threads] [attempts per slot]
+ * Seeds {@link BenchData} (caregivers * dates free slots) and a second vaccine with doses for only half of them,
+ * then lets all threads reserve on the same dates at once, half of them for the scarce vaccine, with more attempts
+ * than there are slots. Runs against the configured backend, e.g. -Dscheduler.storage=memory, and exits with status
+ * 1 if any check fails.
+ */
+public class DoubleBookingStress {
+
+    private static final String SCARCE_VACCINE = "bench_scarce";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int attemptsPerSlot = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        BenchData data = new BenchData();
+        data.seed();
+        int slots = data.caregivers * data.dates;
+        int scarceDoses = slots / 2;
+        Storage.getInstance().vaccines().insert(SCARCE_VACCINE, scarceDoses);
+        AvailabilityIndex.getInstance().load();
+        DoseInventory.getInstance().load();
+        CaregiverLoad.getInstance().load();
+
+        List<String> failures = new ArrayList<>();
+        try {
+            int[] booked = run(new ReservationService(), threads, data, slots * attemptsPerSlot);
+            check(data, booked, scarceDoses, failures);
+        } finally {
+            data.clean();
+        }
+        if (failures.isEmpty()) {
+            System.out.println("OK");
+            System.exit(0);
+        }
+        failures.forEach(System.out::println);
+        System.exit(1);
+    }
+
+    // Returns the bookings made for the plentiful and for the scarce vaccine
+    private static int[] run(ReservationService service, int threads, BenchData data, int attempts)
+            throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger plentiful = new AtomicInteger();
+        AtomicInteger scarce = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = next.getAndIncrement(); i < attempts; i = next.getAndIncrement()) {
+                        boolean wantsScarce = i % 2 == 1;
+                        Booking booking = service.reserve(BenchData.patient(i % data.patients),
+                                BenchData.date(i % data.dates), wantsScarce ? SCARCE_VACCINE : BenchData.VACCINE);
+                        if (booking.getOutcome() == Booking.Outcome.BOOKED) {
+                            (wantsScarce ? scarce : plentiful).incrementAndGet();
+                        }
+                    }
+                } catch (SQLException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new int[]{plentiful.get(), scarce.get()};
+    }
+
+    private static void check(BenchData data, int[] booked, int scarceDoses, List<String> failures)
+            throws SQLException {
+        Storage storage = Storage.getInstance();
+        LocalDate last = BenchData.date(data.dates - 1).toLocalDate();
+        Set<String> slots = new HashSet<>();
+        Set<Integer> appointmentIds = new HashSet<>();
+        int reservations = 0;
+        int scarceReservations = 0;
+        for (int c = 0; c < data.caregivers; c++) {
+            List<Reservation> mine = new ArrayList<>();
+            storage.reservations().list(true, BenchData.caregiver(c), 0, Integer.MAX_VALUE, null, null, mine::add);
+            for (Reservation reservation : mine) {
+                LocalDate day = reservation.getTime().toLocalDate();
+                if (day.isAfter(last)) {
+                    // one of the reservations BenchData seeded after the window
+                    continue;
+                }
+                reservations++;
+                if (reservation.getVaccinename().equals(SCARCE_VACCINE)) {
+                    scarceReservations++;
+                }
+                if (!slots.add(reservation.getCaregivername() + " " + day)) {
+                    failures.add("Double booking: " + reservation.getCaregivername() + " on " + day);
+                }
+                if (!appointmentIds.add(reservation.getAppointment_id())) {
+                    failures.add("Appointment ID used twice: " + reservation.getAppointment_id());
+                }
+                if (storage.availabilities().caregiversOn(day).contains(reservation.getCaregivername())) {
+                    failures.add("Booked slot still free: " + reservation.getCaregivername() + " on " + day);
+                }
+            }
+        }
+        int total = data.caregivers * data.dates;
+        if (reservations != booked[0] + booked[1]) {
+            failures.add("Reported " + (booked[0] + booked[1]) + " bookings but found " + reservations);
+        }
+        if (reservations != total) {
+            failures.add("Booked " + reservations + " of " + total + " slots although every slot was requested");
+        }
+        if (scarceReservations > scarceDoses) {
+            failures.add("Oversold " + SCARCE_VACCINE + ": " + scarceReservations + " bookings for " + scarceDoses
+                    + " doses");
+        }
+        Integer left = storage.vaccines().findDoses(SCARCE_VACCINE);
+        if (left == null || left != scarceDoses - scarceReservations) {
+            failures.add(SCARCE_VACCINE + " has " + left + " doses left after " + scarceReservations + " of "
+                    + scarceDoses + " were booked");
+        }
+        System.out.printf("booked=%d (scarce %d of %d doses) slots=%d%n", reservations, scarceReservations,
+                scarceDoses, total);
+    }
+}
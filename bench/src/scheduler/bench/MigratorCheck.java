@@ -0,0 +1,544 @@
+package scheduler.bench;
+
+import scheduler.db.Migrator;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Checks the {@link Migrator}'s version detection, ordering and idempotence without a database: the migrations run
+ * against a {@link FakeSchema} behind a JDBC proxy, which keeps tables, columns, identity columns, indexes and triggers
+ * and answers the metadata calls the Migrator's probes make. It understands only the DDL the migrations and create.sql
+ * use, and fails on anything else, so a new kind of statement shows up here first.
+ *
+ * Usage: MigratorCheck [migrations directory] [create.sql]
+ * Migrates a fresh schema (every migration in version order, then none on a second run), baselines a schema made by
+ * create.sql (everything recorded, nothing run), and a schema that stopped halfway (only the rest run), and expects a
+ * migration changed after it was applied to stop the run. Exits with status 1 if any check fails.
+ */
+public class MigratorCheck {
+
+    public static void main(String[] args) throws Exception {
+        Path migrations = Paths.get(args.length > 0 ? args[0] : "src/main/resources/migrations");
+        Path createScript = Paths.get(args.length > 1 ? args[1] : "src/main/resources/create.sql");
+        List<Integer> versions = versions(migrations);
+        int latest = versions.get(versions.size() - 1);
+        Migrator migrator = new Migrator(migrations, 0);
+        List<String> failures = new ArrayList<>();
+
+        // a fresh schema gets every migration, in version order, and a second run applies nothing
+        FakeSchema fresh = new FakeSchema();
+        List<String> applied = migrator.migrate(fresh.connection());
+        expect(failures, "fresh schema runs every migration in order",
+                versionsOf(applied).equals(versions), applied);
+        expect(failures, "fresh schema records every migration", fresh.history().equals(versions), fresh.history());
+        applied = migrator.migrate(fresh.connection());
+        expect(failures, "second run on a migrated schema", applied.isEmpty(), applied);
+
+        // create.sql has every migration's changes, so the probes detect the latest version and nothing runs
+        FakeSchema created = new FakeSchema();
+        created.run(script(createScript));
+        applied = migrator.migrate(created.connection());
+        expect(failures, "create.sql schema is baselined without running anything", applied.isEmpty(), applied);
+        expect(failures, "create.sql schema is detected at V" + latest, created.history().equals(versions),
+                created.history());
+        expect(failures, "create.sql and the migrations make the same tables",
+                created.describe().equals(fresh.describe()),
+                "create.sql " + created.describe() + "\nmigrations " + fresh.describe());
+
+        // a schema made by the scripts up to V5 without a history is detected at V5 and gets the rest
+        FakeSchema halfway = new FakeSchema();
+        for (int version : versions) {
+            if (version <= 5) {
+                halfway.run(script(migrationFile(migrations, version)));
+            }
+        }
+        applied = migrator.migrate(halfway.connection());
+        List<Integer> rest = versions.stream().filter(v -> v > 5).collect(Collectors.toList());
+        expect(failures, "schema at V5 gets only the later migrations", versionsOf(applied).equals(rest), applied);
+        expect(failures, "schema at V5 ends up like a fresh one", halfway.describe().equals(fresh.describe()),
+                halfway.describe());
+
+        // a migration whose file changed after it was applied stops the run
+        Path changed = Files.createTempDirectory("migrations");
+        try {
+            for (int version : versions) {
+                Path file = migrationFile(migrations, version);
+                Files.copy(file, changed.resolve(file.getFileName()));
+            }
+            Path first = changed.resolve(migrationFile(migrations, versions.get(0)).getFileName());
+            Files.write(first, "\n-- edited\n".getBytes(StandardCharsets.UTF_8), java.nio.file.StandardOpenOption.APPEND);
+            try {
+                new Migrator(changed, 0).migrate(fresh.connection());
+                failures.add("A migration changed after it was applied did not stop the run");
+            } catch (SQLException e) {
+                expect(failures, "changed migration is reported", e.getMessage().contains("was changed"),
+                        e.getMessage());
+            }
+        } finally {
+            try (var files = Files.list(changed)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(changed);
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("OK");
+            System.exit(0);
+        }
+        failures.forEach(System.out::println);
+        System.exit(1);
+    }
+
+    private static void expect(List<String> failures, String what, boolean held, Object actual) {
+        if (!held) {
+            failures.add(what + ": " + actual);
+        }
+    }
+
+    private static List<Integer> versions(Path migrations) throws IOException {
+        try (var files = Files.list(migrations)) {
+            return files.map(f -> f.getFileName().toString()).filter(n -> n.matches("V\\d+__.+\\.sql"))
+                    .map(n -> Integer.parseInt(n.substring(1, n.indexOf("__")))).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Path migrationFile(Path migrations, int version) throws IOException {
+        try (var files = Files.list(migrations)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("V" + version + "__")).findFirst()
+                    .orElseThrow(() -> new IOException("No migration V" + version));
+        }
+    }
+
+    // "V3 password hash version" -> 3
+    private static List<Integer> versionsOf(List<String> applied) {
+        return applied.stream().map(a -> Integer.parseInt(a.substring(1, a.indexOf(' '))))
+                .collect(Collectors.toList());
+    }
+
+    // The statements of a script, split the way the Migrator splits them
+    private static List<String> script(Path file) throws IOException {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("--") || trimmed.isEmpty()) {
+                continue;
+            }
+            if (trimmed.endsWith(";")) {
+                current.append(trimmed, 0, trimmed.length() - 1);
+                statements.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(line).append('\n');
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * The schema of a database, as far as the migrations and the Migrator's probes go, with the history table's rows.
+     * A transaction works on a copy that commit keeps and rollback drops.
+     */
+    private static class FakeSchema {
+        private static final Pattern CREATE_TABLE = Pattern.compile("CREATE TABLE (\\w+) ?\\((.*)\\)",
+                Pattern.CASE_INSENSITIVE);
+        private static final Pattern CREATE_INDEX = Pattern.compile(
+                "CREATE (UNIQUE )?INDEX (\\w+) ON (\\w+) ?\\(([^)]*)\\).*", Pattern.CASE_INSENSITIVE);
+        private static final Pattern ADD_UNIQUE = Pattern.compile(
+                "ALTER TABLE (\\w+) ADD CONSTRAINT (\\w+) UNIQUE ?\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+        private static final Pattern ADD_CHECK = Pattern.compile("ALTER TABLE (\\w+) ADD CONSTRAINT \\w+ CHECK .*",
+                Pattern.CASE_INSENSITIVE);
+        private static final Pattern ADD_COLUMN = Pattern.compile("ALTER TABLE (\\w+) ADD (\\w+) .*",
+                Pattern.CASE_INSENSITIVE);
+        private static final Pattern DROP_TABLE = Pattern.compile("DROP TABLE (\\w+)", Pattern.CASE_INSENSITIVE);
+        private static final Pattern RENAME = Pattern.compile("EXEC sp_rename '(\\w+)', '(\\w+)'",
+                Pattern.CASE_INSENSITIVE);
+        private static final Pattern CREATE_TRIGGER = Pattern.compile(
+                "CREATE (?:OR ALTER )?TRIGGER (\\w+) ON (\\w+) .*", Pattern.CASE_INSENSITIVE);
+        private static final Pattern DROP_TRIGGER = Pattern.compile("DROP TRIGGER (IF EXISTS )?(\\w+)",
+                Pattern.CASE_INSENSITIVE);
+        // data statements, which change no schema
+        private static final Pattern DATA = Pattern.compile("(SET IDENTITY_INSERT|INSERT INTO) .*",
+                Pattern.CASE_INSENSITIVE);
+
+        private State state = new State();
+        private State committed = null;
+
+        void run(List<String> statements) throws SQLException {
+            for (String sql : statements) {
+                execute(sql);
+            }
+        }
+
+        List<Integer> history() {
+            return new ArrayList<>(state.history.keySet());
+        }
+
+        // Every table with its columns (identity ones marked with +), unique column lists and index names, and the
+        // triggers with their tables
+        String describe() {
+            Map<String, String> tables = new TreeMap<>();
+            state.tables.forEach((name, table) -> {
+                if (!name.equalsIgnoreCase("schema_history")) {
+                    tables.put(name.toLowerCase(), table.describe());
+                }
+            });
+            Map<String, String> triggers = new TreeMap<>();
+            state.triggers.forEach((name, table) -> triggers.put(name.toLowerCase(), table.toLowerCase()));
+            return tables + " triggers " + triggers;
+        }
+
+        void execute(String sql) throws SQLException {
+            String s = sql.trim().replaceAll("\\s+", " ");
+            Matcher m;
+            if ((m = CREATE_TABLE.matcher(s)).matches()) {
+                if (state.tables.containsKey(m.group(1))) {
+                    throw new SQLException("There is already an object named '" + m.group(1) + "'");
+                }
+                state.tables.put(m.group(1), Table.parse(m.group(1), m.group(2)));
+            } else if ((m = CREATE_INDEX.matcher(s)).matches()) {
+                table(m.group(3)).index(m.group(2), m.group(1) != null, m.group(4));
+            } else if ((m = ADD_UNIQUE.matcher(s)).matches()) {
+                table(m.group(1)).index(m.group(2), true, m.group(3));
+            } else if ((m = ADD_CHECK.matcher(s)).matches()) {
+                table(m.group(1));
+            } else if ((m = ADD_COLUMN.matcher(s)).matches()) {
+                table(m.group(1)).column(m.group(2), s.toUpperCase().contains(" IDENTITY"));
+            } else if ((m = DROP_TABLE.matcher(s)).matches()) {
+                String dropped = m.group(1);
+                table(dropped);
+                state.tables.remove(dropped);
+                state.triggers.values().removeIf(on -> on.equalsIgnoreCase(dropped));
+            } else if ((m = RENAME.matcher(s)).matches()) {
+                Table table = table(m.group(1));
+                state.tables.remove(m.group(1));
+                state.tables.put(m.group(2), table);
+            } else if ((m = CREATE_TRIGGER.matcher(s)).matches()) {
+                table(m.group(2));
+                if (!s.toUpperCase().startsWith("CREATE OR ALTER") && state.triggers.containsKey(m.group(1))) {
+                    throw new SQLException("There is already an object named '" + m.group(1) + "'");
+                }
+                state.triggers.put(m.group(1), m.group(2));
+            } else if ((m = DROP_TRIGGER.matcher(s)).matches()) {
+                if (state.triggers.remove(m.group(2)) == null && m.group(1) == null) {
+                    throw new SQLException("Cannot drop the trigger '" + m.group(2) + "'");
+                }
+            } else if (!DATA.matcher(s).matches()) {
+                throw new SQLException("Not understood by the fake schema: " + s);
+            }
+        }
+
+        private Table table(String name) throws SQLException {
+            Table table = state.tables.get(name);
+            if (table == null) {
+                throw new SQLException("Invalid object name '" + name + "'");
+            }
+            return table;
+        }
+
+        Connection connection() {
+            return proxy(Connection.class, (method, args) -> {
+                switch (method) {
+                    case "getMetaData":
+                        return metaData();
+                    case "createStatement":
+                        return statement(null);
+                    case "prepareStatement":
+                        return statement((String) args[0]);
+                    case "setAutoCommit":
+                        if ((Boolean) args[0]) {
+                            committed = null;
+                        } else {
+                            committed = state;
+                            state = state.copy();
+                        }
+                        return null;
+                    case "commit":
+                        committed = state;
+                        state = state.copy();
+                        return null;
+                    case "rollback":
+                        state = committed.copy();
+                        return null;
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException("Connection." + method);
+                }
+            });
+        }
+
+        // A Statement for sql null, otherwise a PreparedStatement for the history table's statements
+        private PreparedStatement statement(String sql) {
+            Map<Integer, Object> parameters = new HashMap<>();
+            return proxy(PreparedStatement.class, (method, args) -> {
+                switch (method) {
+                    case "setInt":
+                    case "setString":
+                    case "setTimestamp":
+                        parameters.put((Integer) args[0], args[1]);
+                        return null;
+                    case "executeUpdate":
+                        if (sql == null) {
+                            execute((String) args[0]);
+                        } else if (sql.startsWith("INSERT INTO schema_history")) {
+                            state.history.put((Integer) parameters.get(1), (String) parameters.get(3));
+                        } else {
+                            throw new SQLException("Unexpected statement " + sql);
+                        }
+                        return 0;
+                    case "executeQuery":
+                        if (!sql.startsWith("SELECT version, checksum FROM schema_history")) {
+                            throw new SQLException("Unexpected query " + sql);
+                        }
+                        List<Map<String, Object>> rows = new ArrayList<>();
+                        state.history.forEach((version, checksum) -> rows.add(row("version", version,
+                                "checksum", checksum)));
+                        return resultSet(rows);
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException("Statement." + method);
+                }
+            });
+        }
+
+        private DatabaseMetaData metaData() {
+            return proxy(DatabaseMetaData.class, (method, args) -> {
+                List<Map<String, Object>> rows = new ArrayList<>();
+                switch (method) {
+                    case "getDatabaseProductName":
+                        return "Fake";
+                    case "getTables":
+                        // stored names are matched exactly, as a case-sensitive catalog would
+                        if (exact((String) args[2]) != null) {
+                            rows.add(row("TABLE_NAME", args[2]));
+                        }
+                        return resultSet(rows);
+                    case "getColumns":
+                        Table table = exact((String) args[2]);
+                        Column column = table == null ? null : table.columns.get(((String) args[3]).toLowerCase());
+                        if (column != null && column.name.equals(args[3])) {
+                            rows.add(row("COLUMN_NAME", column.name, "IS_AUTOINCREMENT",
+                                    column.identity ? "YES" : "NO"));
+                        }
+                        return resultSet(rows);
+                    case "getIndexInfo":
+                        Table indexed = exact((String) args[2]);
+                        if (indexed != null) {
+                            for (Index index : indexed.indexes) {
+                                if (index.unique || !(Boolean) args[3]) {
+                                    for (int i = 0; i < index.columns.size(); i++) {
+                                        rows.add(row("INDEX_NAME", index.name, "ORDINAL_POSITION", (short) (i + 1),
+                                                "COLUMN_NAME", index.columns.get(i)));
+                                    }
+                                }
+                            }
+                        }
+                        return resultSet(rows);
+                    default:
+                        throw new UnsupportedOperationException("DatabaseMetaData." + method);
+                }
+            });
+        }
+
+        // The table whose stored name is exactly name
+        private Table exact(String name) {
+            for (Map.Entry<String, Table> table : state.tables.entrySet()) {
+                if (table.getKey().equals(name)) {
+                    return table.getValue();
+                }
+            }
+            return null;
+        }
+
+        private static Map<String, Object> row(Object... fields) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 0; i < fields.length; i += 2) {
+                row.put((String) fields[i], fields[i + 1]);
+            }
+            return row;
+        }
+
+        private static ResultSet resultSet(List<Map<String, Object>> rows) {
+            int[] at = {-1};
+            return proxy(ResultSet.class, (method, args) -> {
+                switch (method) {
+                    case "next":
+                        return ++at[0] < rows.size();
+                    case "getString":
+                        Object value = rows.get(at[0]).get((String) args[0]);
+                        return value == null ? null : value.toString();
+                    case "getInt":
+                        return ((Number) rows.get(at[0]).get((String) args[0])).intValue();
+                    case "getShort":
+                        return ((Number) rows.get(at[0]).get((String) args[0])).shortValue();
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException("ResultSet." + method);
+                }
+            });
+        }
+
+        private interface Call {
+            Object invoke(String method, Object[] args) throws Exception;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, Call call) {
+            InvocationHandler handler = (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "toString":
+                        return "Fake" + type.getSimpleName();
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return call.invoke(method.getName(), args);
+                }
+            };
+            return (T) Proxy.newProxyInstance(MigratorCheck.class.getClassLoader(), new Class<?>[]{type}, handler);
+        }
+    }
+
+    // the schema at one point in time; table names are case-insensitive, as in SQL Server's default collation
+    private static class State {
+        private final TreeMap<String, Table> tables = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final TreeMap<String, String> triggers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final TreeMap<Integer, String> history = new TreeMap<>();
+
+        State copy() {
+            State copy = new State();
+            tables.forEach((name, table) -> copy.tables.put(name, table.copy()));
+            copy.triggers.putAll(triggers);
+            copy.history.putAll(history);
+            return copy;
+        }
+    }
+
+    private static class Table {
+        private final Map<String, Column> columns = new LinkedHashMap<>();
+        private final List<Index> indexes = new ArrayList<>();
+
+        // The body of a CREATE TABLE: columns, PRIMARY KEY (...) and UNIQUE (...), separated by top-level commas
+        static Table parse(String name, String body) throws SQLException {
+            Table table = new Table();
+            for (String item : splitTopLevel(body)) {
+                String upper = item.toUpperCase();
+                if (upper.startsWith("PRIMARY KEY")) {
+                    table.index("PK_" + name, true, item.substring(item.indexOf('(') + 1, item.lastIndexOf(')')));
+                } else if (upper.startsWith("UNIQUE")) {
+                    table.index("UQ_" + name, true, item.substring(item.indexOf('(') + 1, item.lastIndexOf(')')));
+                } else if (!upper.startsWith("CONSTRAINT") && !upper.startsWith("CHECK")) {
+                    table.column(item.split(" ")[0], upper.contains(" IDENTITY"));
+                }
+            }
+            return table;
+        }
+
+        private static List<String> splitTopLevel(String body) {
+            List<String> items = new ArrayList<>();
+            int depth = 0;
+            StringBuilder current = new StringBuilder();
+            for (char c : body.toCharArray()) {
+                if (c == ',' && depth == 0) {
+                    items.add(current.toString().trim());
+                    current.setLength(0);
+                    continue;
+                }
+                depth += c == '(' ? 1 : c == ')' ? -1 : 0;
+                current.append(c);
+            }
+            if (current.toString().trim().length() > 0) {
+                items.add(current.toString().trim());
+            }
+            return items;
+        }
+
+        void column(String name, boolean identity) throws SQLException {
+            if (columns.putIfAbsent(name.toLowerCase(), new Column(name, identity)) != null) {
+                throw new SQLException("Column name '" + name + "' is specified more than once");
+            }
+        }
+
+        void index(String name, boolean unique, String columnList) throws SQLException {
+            List<String> names = new ArrayList<>();
+            for (String column : columnList.split(",")) {
+                String trimmed = column.trim();
+                if (!columns.containsKey(trimmed.toLowerCase())) {
+                    throw new SQLException("Column name '" + trimmed + "' does not exist");
+                }
+                names.add(trimmed);
+            }
+            indexes.add(new Index(name, unique, names));
+        }
+
+        Table copy() {
+            Table copy = new Table();
+            copy.columns.putAll(columns);
+            copy.indexes.addAll(indexes);
+            return copy;
+        }
+
+        // unique indexes by their columns only, since create.sql leaves constraint names to the database
+        String describe() {
+            TreeSet<String> parts = new TreeSet<>();
+            columns.values().forEach(c -> parts.add(c.name.toLowerCase() + (c.identity ? "+" : "")));
+            for (Index index : indexes) {
+                parts.add(index.unique ? "unique" + index.columns.toString().toLowerCase()
+                        : "index " + index.name.toLowerCase());
+            }
+            return Arrays.toString(parts.toArray());
+        }
+    }
+
+    private static class Column {
+        private final String name;
+        private final boolean identity;
+
+        Column(String name, boolean identity) {
+            this.name = name;
+            this.identity = identity;
+        }
+    }
+
+    private static class Index {
+        private final String name;
+        private final boolean unique;
+        private final List<String> columns;
+
+        Index(String name, boolean unique, List<String> columns) {
+            this.name = name;
+            this.unique = unique;
+            this.columns = columns;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Benchmarks the scheduler's hot paths against the configured database (see {@link BenchData} for the seeded data
+ * and scheduler.db.url for pointing it at an embedded database).
+ *
+ * Usage: java -Dbench.output=results.json scheduler.bench.SchedulerBench
+ */
+public class SchedulerBench {
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = Bench.fromProperties();
+        int ops = Integer.getInteger("bench.ops", 100);
+
+        // pure CPU paths
+        byte[] salt = Util.generateSalt();
+        byte[] padded = new byte[32];
+        System.arraycopy(Util.generateHash(BenchData.PASSWORD, salt), 0, padded, 0, 2);
+        bench.run("util.generateHash", ops * 10, i -> Util.generateHash(BenchData.PASSWORD, salt));
+        bench.run("util.trim", ops * 1000, i -> Util.trim(padded));
+
+        BenchData data = new BenchData();
+        data.seed();
+        Scheduler.start();
+        try {
+            bench.run("login.patient", ops, i ->
+                    new Patient.PatientGetter(BenchData.patient(i % data.patients), BenchData.PASSWORD).get());
+            bench.run("login.caregiver", ops, i ->
+                    new Caregiver.CaregiverGetter(BenchData.caregiver(i % data.caregivers), BenchData.PASSWORD).get());
+
+            Session session = new Session(new PrintStream(OutputStream.nullOutputStream()));
+            Scheduler.execute(session, "login_patient " + BenchData.patient(0) + " " + BenchData.PASSWORD);
+            bench.run("command.search_caregiver_schedule", ops, i ->
+                    Scheduler.execute(session, "search_caregiver_schedule " + BenchData.date(i % data.dates)));
+            bench.run("command.show_appointments", ops, i -> Scheduler.execute(session, "show_appointments"));
+            // every reservation consumes one seeded slot, so stay within caregivers * dates reservations
+            int reserveOps = Math.max(1, Math.min(ops, data.caregivers * data.dates / bench.totalIterations()));
+            bench.run("command.reserve", reserveOps, i ->
+                    Scheduler.execute(session, "reserve " + BenchData.date(i % data.dates) + " " + BenchData.VACCINE));
+            Scheduler.execute(session, "logout");
+        } finally {
+            data.clean();
+        }
+
+        BenchResults.write("scheduler", data.parameters(), bench.getResults());
+        System.exit(0);
+    }
+}
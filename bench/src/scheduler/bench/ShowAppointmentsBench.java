@@ -0,0 +1,42 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Measures show_appointments against a large Reservations table (1M rows unless -Dbench.reservations says
+ * otherwise): the first page, a page deep into a caregiver's history and a date-range page.
+ */
+public class ShowAppointmentsBench {
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("bench.reservations") == null) {
+            System.setProperty("bench.reservations", "1000000");
+        }
+        Bench bench = Bench.fromProperties();
+        int ops = Integer.getInteger("bench.ops", 100);
+        BenchData data = new BenchData();
+        data.seed();
+        try {
+            Session session = new Session(new PrintStream(OutputStream.nullOutputStream()));
+            Scheduler.execute(session, "login_caregiver " + BenchData.caregiver(0) + " " + BenchData.PASSWORD);
+
+            bench.run("show_appointments.first_page", ops, i -> Scheduler.execute(session, "show_appointments"));
+            // caregiver 0 holds every caregivers-th reservation, so this skips about half of its history
+            int middleId = data.reservations / 2;
+            bench.run("show_appointments.deep_page", ops, i ->
+                    Scheduler.execute(session, "show_appointments " + middleId + " 100"));
+            String from = BenchData.date(data.dates).toString();
+            String to = BenchData.date(data.dates + 7).toString();
+            bench.run("show_appointments.date_range", ops, i ->
+                    Scheduler.execute(session, "show_appointments 0 100 " + from + " " + to));
+        } finally {
+            data.clean();
+        }
+        BenchResults.write("show-appointments", data.parameters(), bench.getResults());
+        System.exit(0);
+    }
+}
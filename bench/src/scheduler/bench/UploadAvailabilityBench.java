@@ -0,0 +1,44 @@
+package scheduler.bench;
+
+import scheduler.model.Caregiver;
+
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.EnumSet;
+
+/**
+ * Compares uploading N days of availability with N single-date inserts against one batched range upload.
+ *
+ * Usage: UploadAvailabilityBench [days]
+ */
+public class UploadAvailabilityBench {
+
+    public static void main(String[] args) throws Exception {
+        int days = args.length > 0 ? Integer.parseInt(args[0]) : 90;
+        Bench bench = Bench.fromProperties();
+        BenchData data = new BenchData();
+        data.seed();
+        try {
+            // each op uses its own caregiver and date window, so no insert is ever a duplicate
+            LocalDate base = BenchData.FIRST_DATE.plusYears(5);
+            bench.run("availability.single_inserts", 1, i -> {
+                String caregiver = BenchData.caregiver(i % data.caregivers);
+                LocalDate start = base.plusDays(i / data.caregivers * days);
+                for (int d = 0; d < days; d++) {
+                    Caregiver.uploadAvailability(caregiver, Date.valueOf(start.plusDays(d)));
+                }
+            });
+            LocalDate rangeBase = base.plusYears(5);
+            bench.run("availability.range_upload", 1, i -> {
+                LocalDate start = rangeBase.plusDays(i / data.caregivers * days);
+                Caregiver.uploadAvailabilityRange(BenchData.caregiver(i % data.caregivers), start,
+                        start.plusDays(days - 1), EnumSet.allOf(DayOfWeek.class));
+            });
+        } finally {
+            data.clean();
+        }
+        BenchResults.write("upload-availability", data.parameters(), bench.getResults());
+        System.exit(0);
+    }
+}
@@ -1,7 +1,12 @@
+-- Creates the current schema from scratch, i.e. the state after every migration in migrations/.
+-- The first run of java scheduler.Scheduler --migrate against it finds that these migrations are in place and
+-- records them as applied, so that only later migrations run on top of it.
+
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
     Hash BINARY(16),
+    HashVersion int NOT NULL DEFAULT 1,
     PRIMARY KEY (Username)
 );
 
@@ -13,7 +18,7 @@ CREATE TABLE Availabilities (
 
 CREATE TABLE Vaccines (
     Name varchar(255),
-    Doses int,
+    Doses int CHECK (Doses >= 0),
     PRIMARY KEY (Name)
 );
 
@@ -21,15 +26,67 @@ CREATE TABLE Patients(
 Username varchar(255),
  Salt BINARY(16),
  Hash BINARY(16),
+ HashVersion int NOT NULL DEFAULT 1,
  PRIMARY KEY (Username)
 );
 
+-- appointment_id is an IDENTITY column since migration V4. A database created from an older copy of this script
+-- has to be migrated (--migrate) before reservations can be booked, since bookings leave the ID to the database.
 CREATE TABLE Reservations(
-appointment_id int ,
+appointment_id int IDENTITY(1, 1),
 vaccines_name varchar(255) REFERENCES Vaccines(Name),
 patient_name varchar(255) REFERENCES Patients(Username),
 caregiver_name varchar(255) REFERENCES Caregivers(Username),
 Time date,
-PRIMARY KEY (appointment_id)
+PRIMARY KEY (appointment_id),
+UNIQUE (caregiver_name, Time)
+);
+
+CREATE INDEX IX_Reservations_caregiver_time ON Reservations (caregiver_name, Time) INCLUDE (vaccines_name, patient_name);
+CREATE INDEX IX_Reservations_patient_time ON Reservations (patient_name, Time) INCLUDE (vaccines_name, caregiver_name);
 
-);
\ No newline at end of file
+-- a hold has claimed its caregiver's Availabilities row and taken a dose until it is confirmed, released or runs out
+-- at ExpiresAt; the scheduler gives back the expired ones on start.
+CREATE TABLE Holds (
+    hold_id int IDENTITY(1, 1),
+    patient_name varchar(255) REFERENCES Patients(Username),
+    caregiver_name varchar(255) REFERENCES Caregivers(Username),
+    vaccines_name varchar(255) REFERENCES Vaccines(Name),
+    Time date,
+    ExpiresAt datetime2 NOT NULL,
+    PRIMARY KEY (hold_id)
+);
+
+-- append-only: a row for every write to a date of Availabilities or a vaccine, added by the triggers below in the
+-- writer's transaction, so that processes running against the same database can see what others changed and drop it
+-- from their caches. Every scheduler process deletes the rows after a while (see migration V8).
+CREATE TABLE ChangeLog (
+    Changed rowversion NOT NULL,
+    Kind varchar(16) NOT NULL,
+    Name varchar(255) NOT NULL,
+    ChangedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (Changed)
+);
+CREATE INDEX IX_ChangeLog_changed_at ON ChangeLog (ChangedAt);
+CREATE TRIGGER TR_Availabilities_changes ON Availabilities AFTER INSERT, DELETE AS
+BEGIN
+    SET NOCOUNT ON
+    INSERT INTO ChangeLog (Kind, Name)
+    SELECT 'availability', CONVERT(char(10), Time, 23) FROM inserted
+    UNION SELECT 'availability', CONVERT(char(10), Time, 23) FROM deleted
+END;
+CREATE TRIGGER TR_Vaccines_changes ON Vaccines AFTER INSERT, UPDATE, DELETE AS
+BEGIN
+    SET NOCOUNT ON
+    INSERT INTO ChangeLog (Kind, Name)
+    SELECT 'vaccine', Name FROM inserted UNION SELECT 'vaccine', Name FROM deleted
+END;
+
+-- doses that bookings took from the in-memory dose counters, not subtracted from Vaccines.Doses yet (see migration V9)
+CREATE TABLE DoseTakes (
+    take_id bigint IDENTITY(1, 1),
+    vaccines_name varchar(255) NOT NULL REFERENCES Vaccines(Name),
+    Doses int NOT NULL CHECK (Doses > 0),
+    PRIMARY KEY (take_id)
+);
+CREATE INDEX IX_DoseTakes_vaccine ON DoseTakes (vaccines_name) INCLUDE (Doses);
@@ -0,0 +1,4 @@
+-- show_appointments looks reservations up by caregiver or by patient, optionally within a date range.
+-- appointment_id is the clustered key, so it is carried in both indexes as well.
+CREATE INDEX IX_Reservations_caregiver_time ON Reservations (caregiver_name, Time) INCLUDE (vaccines_name, patient_name);
+CREATE INDEX IX_Reservations_patient_time ON Reservations (patient_name, Time) INCLUDE (vaccines_name, caregiver_name);
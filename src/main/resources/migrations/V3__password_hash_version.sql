@@ -0,0 +1,3 @@
+-- cost version of each stored password hash, see PasswordHasher; existing hashes were all made with version 1
+ALTER TABLE Patients ADD HashVersion int NOT NULL DEFAULT 1;
+ALTER TABLE Caregivers ADD HashVersion int NOT NULL DEFAULT 1;
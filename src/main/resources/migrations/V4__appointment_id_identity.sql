@@ -0,0 +1,20 @@
+-- appointment IDs come from an IDENTITY column instead of MAX(appointment_id) + 1.
+-- SQL Server cannot add IDENTITY to an existing column, so the table is rebuilt with the existing IDs kept;
+-- the identity seed continues after the highest copied ID.
+CREATE TABLE Reservations_new (
+    appointment_id int IDENTITY(1, 1),
+    vaccines_name varchar(255) REFERENCES Vaccines(Name),
+    patient_name varchar(255) REFERENCES Patients(Username),
+    caregiver_name varchar(255) REFERENCES Caregivers(Username),
+    Time date,
+    PRIMARY KEY (appointment_id)
+);
+SET IDENTITY_INSERT Reservations_new ON;
+INSERT INTO Reservations_new (appointment_id, vaccines_name, patient_name, caregiver_name, Time)
+    SELECT appointment_id, vaccines_name, patient_name, caregiver_name, Time FROM Reservations;
+SET IDENTITY_INSERT Reservations_new OFF;
+DROP TABLE Reservations;
+EXEC sp_rename 'Reservations_new', 'Reservations';
+-- the lookup indexes from V2 went away with the old table
+CREATE INDEX IX_Reservations_caregiver_time ON Reservations (caregiver_name, Time) INCLUDE (vaccines_name, patient_name);
+CREATE INDEX IX_Reservations_patient_time ON Reservations (patient_name, Time) INCLUDE (vaccines_name, caregiver_name);
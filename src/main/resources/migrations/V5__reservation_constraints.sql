@@ -0,0 +1,6 @@
+-- a caregiver can only be booked once per date, and a vaccine can never have a negative dose count.
+-- Databases that already hold double bookings from before the reservation transaction have to be cleaned up
+-- before this migration can apply.
+-- Availabilities needs no extra index: its primary key (Time, Username) already serves the lookups by date.
+ALTER TABLE Reservations ADD CONSTRAINT UQ_Reservations_caregiver_time UNIQUE (caregiver_name, Time);
+ALTER TABLE Vaccines ADD CONSTRAINT CK_Vaccines_doses CHECK (Doses >= 0);
@@ -0,0 +1,32 @@
+-- one row per date of Availabilities and per vaccine that was ever written, whose rowversion moves with every
+-- write, so that processes running against the same database can see what others changed and drop it from their
+-- caches. The triggers touch the rows in the writer's own transaction, so no writer can leave them out.
+-- The trigger bodies have no ';' inside, which the migration runner would split them at.
+CREATE TABLE ChangeLog (
+    Kind varchar(16) NOT NULL,
+    Name varchar(255) NOT NULL,
+    Changed rowversion NOT NULL,
+    PRIMARY KEY (Kind, Name)
+);
+CREATE INDEX IX_ChangeLog_changed ON ChangeLog (Changed);
+CREATE TRIGGER TR_Availabilities_changes ON Availabilities AFTER INSERT, DELETE AS
+BEGIN
+    SET NOCOUNT ON
+    UPDATE ChangeLog SET Name = Name WHERE Kind = 'availability' AND Name IN (
+        SELECT CONVERT(char(10), Time, 23) FROM inserted UNION SELECT CONVERT(char(10), Time, 23) FROM deleted)
+    INSERT INTO ChangeLog (Kind, Name) SELECT 'availability', changed.Name FROM (
+        SELECT CONVERT(char(10), Time, 23) AS Name FROM inserted
+        UNION SELECT CONVERT(char(10), Time, 23) FROM deleted) changed
+    WHERE NOT EXISTS (SELECT 1 FROM ChangeLog WITH (UPDLOCK, HOLDLOCK)
+        WHERE Kind = 'availability' AND Name = changed.Name)
+END;
+CREATE TRIGGER TR_Vaccines_changes ON Vaccines AFTER INSERT, UPDATE, DELETE AS
+BEGIN
+    SET NOCOUNT ON
+    UPDATE ChangeLog SET Name = Name WHERE Kind = 'vaccine' AND Name IN (
+        SELECT Name FROM inserted UNION SELECT Name FROM deleted)
+    INSERT INTO ChangeLog (Kind, Name) SELECT 'vaccine', changed.Name FROM (
+        SELECT Name FROM inserted UNION SELECT Name FROM deleted) changed
+    WHERE NOT EXISTS (SELECT 1 FROM ChangeLog WITH (UPDLOCK, HOLDLOCK)
+        WHERE Kind = 'vaccine' AND Name = changed.Name)
+END;
@@ -0,0 +1,11 @@
+-- holds placed with the hold command: each has claimed its caregiver's Availabilities row and taken a dose, and gives
+-- them back when it is released or runs out at ExpiresAt, also after a restart.
+CREATE TABLE Holds (
+    hold_id int IDENTITY(1, 1),
+    patient_name varchar(255) REFERENCES Patients(Username),
+    caregiver_name varchar(255) REFERENCES Caregivers(Username),
+    vaccines_name varchar(255) REFERENCES Vaccines(Name),
+    Time date,
+    ExpiresAt datetime2 NOT NULL,
+    PRIMARY KEY (hold_id)
+);
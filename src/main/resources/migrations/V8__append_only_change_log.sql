@@ -0,0 +1,30 @@
+-- V6 kept one ChangeLog row per date and vaccine, which triggers updated in the writer's transaction, so every
+-- booking of a vaccine waited for the one before it to commit. ChangeLog is append-only now: a write adds rows with
+-- rowversions of their own that no other writer touches, and old rows are deleted after a while.
+-- The triggers only append, so each write pays for one insert into ChangeLog and waits for no other writer. Rows older
+-- than scheduler.cluster.changeRetentionSeconds are deleted by every scheduler process, clustered or not.
+-- The trigger bodies have no ';' inside, which the migration runner would split them at.
+DROP TRIGGER TR_Availabilities_changes;
+DROP TRIGGER TR_Vaccines_changes;
+DROP TABLE ChangeLog;
+CREATE TABLE ChangeLog (
+    Changed rowversion NOT NULL,
+    Kind varchar(16) NOT NULL,
+    Name varchar(255) NOT NULL,
+    ChangedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (Changed)
+);
+CREATE INDEX IX_ChangeLog_changed_at ON ChangeLog (ChangedAt);
+CREATE TRIGGER TR_Availabilities_changes ON Availabilities AFTER INSERT, DELETE AS
+BEGIN
+    SET NOCOUNT ON
+    INSERT INTO ChangeLog (Kind, Name)
+    SELECT 'availability', CONVERT(char(10), Time, 23) FROM inserted
+    UNION SELECT 'availability', CONVERT(char(10), Time, 23) FROM deleted
+END;
+CREATE TRIGGER TR_Vaccines_changes ON Vaccines AFTER INSERT, UPDATE, DELETE AS
+BEGIN
+    SET NOCOUNT ON
+    INSERT INTO ChangeLog (Kind, Name)
+    SELECT 'vaccine', Name FROM inserted UNION SELECT 'vaccine', Name FROM deleted
+END;
@@ -0,0 +1,10 @@
+-- doses that bookings took from the in-memory dose counters, recorded with the reservation in its transaction and
+-- subtracted from Vaccines.Doses in batches later, so that bookings of the same vaccine don't all wait on its row.
+-- Until a row is flushed its doses count as taken: the dose count of a vaccine is Doses minus its rows here.
+CREATE TABLE DoseTakes (
+    take_id bigint IDENTITY(1, 1),
+    vaccines_name varchar(255) NOT NULL REFERENCES Vaccines(Name),
+    Doses int NOT NULL CHECK (Doses > 0),
+    PRIMARY KEY (take_id)
+);
+CREATE INDEX IX_DoseTakes_vaccine ON DoseTakes (vaccines_name) INCLUDE (Doses);
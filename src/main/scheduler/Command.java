@@ -0,0 +1,145 @@
+package scheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One line of input, parsed: which command it is and its arguments (tokens[0] is the command name as typed).
+ *
+ * A command may also own the lines that follow it, its body: reserve_batch &lt;count&gt; is followed by count lines,
+ * one request each. {@link #read} takes them from the input together with the command, so that they travel over the
+ * same connection and are never run as commands of their own. At most scheduler.reserveBatch.maxRequests lines are
+ * taken; a reserve_batch with a larger or invalid count gets no body and is turned down.
+ *
+ * Each type also says what it may touch, which is what lets {@link Pipeline} run commands side by side: a READ
+ * leaves the session and the stored data alone, a WRITE may change either, and a BARRIER waits for every command
+ * before it, in every session.
+ */
+final class Command {
+
+    enum Access {
+        READ,
+        WRITE,
+        BARRIER
+    }
+
+    enum Type {
+        CREATE_PATIENT("create_patient", Access.WRITE),
+        CREATE_CAREGIVER("create_caregiver", Access.WRITE),
+        LOGIN_PATIENT("login_patient", Access.WRITE),
+        LOGIN_CAREGIVER("login_caregiver", Access.WRITE),
+        RESUME("resume", Access.WRITE),
+        CHANGE_PASSWORD("change_password", Access.WRITE),
+        SEARCH_CAREGIVER_SCHEDULE("search_caregiver_schedule", Access.READ),
+        RESERVE("reserve", Access.WRITE),
+        RESERVE_BATCH("reserve_batch", Access.WRITE),
+        HOLD("hold", Access.WRITE),
+        CONFIRM("confirm", Access.WRITE),
+        RELEASE("release", Access.WRITE),
+        UPLOAD_AVAILABILITY("upload_availability", Access.WRITE),
+        UPLOAD_AVAILABILITY_RANGE("upload_availability_range", Access.WRITE),
+        CANCEL("cancel", Access.WRITE),
+        ADD_DOSES("add_doses", Access.WRITE),
+        SHOW_APPOINTMENTS("show_appointments", Access.READ),
+        LOGOUT("logout", Access.WRITE),
+        STATS("stats", Access.READ),
+        QUIT("quit", Access.BARRIER),
+        // anything that isn't a command; timed under one name so that typos can't create metrics
+        INVALID("invalid", Access.READ);
+
+        private static final Map<String, Type> byName = new HashMap<>();
+
+        static {
+            for (Type type : values()) {
+                if (type != INVALID) {
+                    byName.put(type.commandName, type);
+                }
+            }
+        }
+
+        private final String commandName;
+        private final Access access;
+
+        Type(String commandName, Access access) {
+            this.commandName = commandName;
+            this.access = access;
+        }
+
+        String getCommandName() {
+            return commandName;
+        }
+
+        Access getAccess() {
+            return access;
+        }
+    }
+
+    interface LineSource {
+        // the next line, or null at the end of the input
+        String readLine() throws IOException;
+    }
+
+    static final int MAX_BATCH_REQUESTS = Math.max(1, Integer.getInteger("scheduler.reserveBatch.maxRequests", 10000));
+
+    private final Type type;
+    private final String[] tokens;
+    private final List<String> body;
+
+    private Command(Type type, String[] tokens, List<String> body) {
+        this.type = type;
+        this.tokens = tokens;
+        this.body = body;
+    }
+
+    static Command parse(String line) {
+        // split the user input by spaces
+        String[] tokens = line.split(" ");
+        Type type = tokens.length == 0 ? Type.INVALID : Type.byName.getOrDefault(tokens[0], Type.INVALID);
+        return new Command(type, tokens, Collections.emptyList());
+    }
+
+    // Parses the line and reads the command's body from the input after it; the body comes up short if the input
+    // ends first
+    static Command read(String line, LineSource in) throws IOException {
+        Command command = parse(line);
+        int lines = command.bodyLength();
+        if (lines == 0) {
+            return command;
+        }
+        List<String> body = new ArrayList<>(lines);
+        String bodyLine;
+        while (body.size() < lines && (bodyLine = in.readLine()) != null) {
+            body.add(bodyLine.strip());
+        }
+        return new Command(command.type, command.tokens, body);
+    }
+
+    // The number of lines the command announced for its body, 0 if none or not a valid number
+    private int bodyLength() {
+        if (type != Type.RESERVE_BATCH || tokens.length != 2) {
+            return 0;
+        }
+        try {
+            int count = Integer.parseInt(tokens[1]);
+            return count > 0 && count <= MAX_BATCH_REQUESTS ? count : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String[] getTokens() {
+        return tokens;
+    }
+
+    List<String> getBody() {
+        return body;
+    }
+}
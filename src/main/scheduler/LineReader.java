@@ -0,0 +1,56 @@
+package scheduler;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads lines like {@link java.io.BufferedReader#readLine()}, but keeps at most maxLength characters of each. The rest
+ * of a longer line is read and dropped, so a client that never sends a line break can't make the server hold an
+ * unbounded line in memory.
+ */
+class LineReader {
+
+    private final Reader in;
+    private final int maxLength;
+    private boolean truncated = false;
+
+    // in should be buffered, it is read one character at a time
+    LineReader(Reader in, int maxLength) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("maxLength must be positive");
+        }
+        this.in = in;
+        this.maxLength = maxLength;
+    }
+
+    // The next line without its line break, or null at the end of the input
+    String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        truncated = false;
+        int c = in.read();
+        if (c == -1) {
+            return null;
+        }
+        for (; c != -1 && c != '\n'; c = in.read()) {
+            if (line.length() < maxLength) {
+                line.append((char) c);
+            } else {
+                truncated = true;
+            }
+        }
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            line.setLength(end - 1);
+        }
+        return line.toString();
+    }
+
+    // Whether the last line read was longer than maxLength and cut short
+    boolean wasTruncated() {
+        return truncated;
+    }
+
+    int getMaxLength() {
+        return maxLength;
+    }
+}
@@ -0,0 +1,149 @@
+package scheduler;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a script of commands, one per line as on the console, with the commands' database round trips overlapping,
+ * and prints each command's output in input order, as if the script had been typed in.
+ *
+ * A line may start with @&lt;name&gt; to run it in the session of that name; other lines share one default session.
+ * The body lines of a reserve_batch follow it as they are, without a session name.
+ * Within a session a READ command waits for the WRITE before it and a WRITE waits for everything before it, so every
+ * session sees its own commands take effect in order, while reads in a row and commands of different sessions run
+ * side by side. Commands of different sessions are not ordered against each other; a BARRIER (quit) waits
+ * for every earlier command and every later command waits for it. A line that only says wait does the same without
+ * running anything, for scripts whose sessions depend on each other. At most depth commands are in flight at once.
+ */
+class Pipeline {
+
+    private static final String DEFAULT_SESSION = "";
+    private static final String WAIT = "wait";
+
+    private final PrintStream out;
+    private final int depth;
+    private final ExecutorService executor;
+    private final Map<String, SessionQueue> sessions = new HashMap<>();
+    // submitted commands whose output hasn't been printed yet, in input order
+    private final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+    private CompletableFuture<?> barrier = CompletableFuture.completedFuture(null);
+
+    Pipeline(PrintStream out, int threads, int depth) {
+        this.out = out;
+        this.depth = Math.max(1, depth);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "scheduler-pipeline");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Runs the script up to its first quit; the end of the input behaves like quit
+    void run(BufferedReader in) throws IOException {
+        try {
+            String line;
+            boolean more = true;
+            while (more && (line = in.readLine()) != null) {
+                more = submit(line.strip(), in);
+            }
+            if (more) {
+                submit("quit", in);
+            }
+            while (!pending.isEmpty()) {
+                print();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Schedules one line, with the body lines that follow it in the input; false once it was quit
+    private boolean submit(String line, BufferedReader in) throws IOException {
+        if (line.equals(WAIT)) {
+            List<CompletableFuture<?>> inFlight = new ArrayList<>(pending);
+            inFlight.add(barrier);
+            barrier = CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]));
+            return true;
+        }
+        String name = DEFAULT_SESSION;
+        if (line.startsWith("@")) {
+            int end = line.indexOf(' ');
+            name = end < 0 ? line.substring(1) : line.substring(1, end);
+            line = end < 0 ? "" : line.substring(end + 1);
+        }
+        Command command = Command.read(line, in::readLine);
+        SessionQueue queue = sessions.computeIfAbsent(name, n -> new SessionQueue(new Session(out)));
+        Command.Access access = command.getType().getAccess();
+
+        List<CompletableFuture<?>> before = new ArrayList<>();
+        before.add(barrier);
+        before.add(queue.lastWrite);
+        if (access == Command.Access.WRITE) {
+            before.addAll(queue.readsSinceWrite);
+        } else if (access == Command.Access.BARRIER) {
+            before.addAll(pending);
+        }
+        CompletableFuture<String> result = CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(ignored -> run(queue.session, command), executor);
+
+        if (access == Command.Access.READ) {
+            queue.readsSinceWrite.removeIf(CompletableFuture::isDone);
+            queue.readsSinceWrite.add(result);
+        } else {
+            queue.lastWrite = result;
+            queue.readsSinceWrite.clear();
+            if (access == Command.Access.BARRIER) {
+                barrier = result;
+            }
+        }
+        pending.addLast(result);
+        while (pending.size() >= depth || (!pending.isEmpty() && pending.peekFirst().isDone())) {
+            print();
+        }
+        return command.getType() != Command.Type.QUIT;
+    }
+
+    // Runs on the executor, once every command the command depends on has finished
+    private static String run(Session session, Command command) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream commandOut = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+        Session copy = new Session(session, commandOut);
+        try {
+            Scheduler.execute(copy, command);
+        } catch (RuntimeException e) {
+            // the command fails on its own instead of stopping the script; the trace goes to the log, not the user
+            commandOut.println("Please try again!");
+            Scheduler.failed(copy, e);
+        }
+        if (command.getType().getAccess() != Command.Access.READ) {
+            session.adopt(copy);
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    private void print() {
+        out.print("> " + pending.removeFirst().join());
+        out.flush();
+    }
+
+    private static class SessionQueue {
+        private final Session session;
+        private CompletableFuture<?> lastWrite = CompletableFuture.completedFuture(null);
+        private final List<CompletableFuture<?>> readsSinceWrite = new ArrayList<>();
+
+        private SessionQueue(Session session) {
+            this.session = session;
+        }
+    }
+}
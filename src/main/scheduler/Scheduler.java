@@ -1,204 +1,589 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.Migrator;
+import scheduler.importer.BulkImporter;
+import scheduler.importer.ImportKind;
+import scheduler.journal.EventJournal;
+import scheduler.journal.JournalReplay;
+import scheduler.journal.SchedulingState;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.MetricsMBean;
+import scheduler.metrics.PrometheusWriter;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
-import scheduler.model.Vaccine;
 import scheduler.model.Reservation;
-import scheduler.util.Util;
+import scheduler.model.Vaccine;
+import scheduler.service.AuthTokenStore;
+import scheduler.service.AvailabilityBitmap;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.CaregiverLoad;
+import scheduler.service.ClusterSync;
+import scheduler.service.DoseInventory;
+import scheduler.service.Hold;
+import scheduler.service.HoldService;
+import scheduler.service.ReservationService;
+import scheduler.service.ScheduleView;
+import scheduler.store.Booking;
+import scheduler.store.BookingRequest;
+import scheduler.store.ScheduleSnapshot;
+import scheduler.store.Storage;
+import scheduler.util.PasswordHasher;
 
+import javax.management.JMException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private static final ReservationService reservationService = new ReservationService();
+    private static final AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+    private static final DoseInventory doseInventory = DoseInventory.getInstance();
+    private static final ScheduleView scheduleView = ScheduleView.getInstance();
+    private static final PasswordHasher passwordHasher = PasswordHasher.getInstance();
+    private static final AuthTokenStore authTokens = AuthTokenStore.getInstance();
+    private static final Metrics metrics = Metrics.getInstance();
+
+    // appointments per show_appointments page unless a limit is given
+    private static final int APPOINTMENTS_PAGE_SIZE = Integer.getInteger("scheduler.appointments.pageSize", 100);
+
+    // upper bound for one upload_availability_range or search_caregiver_schedule range
+    private static final int MAX_RANGE_DAYS = 366;
 
     public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        // java scheduler.Scheduler --server [port] serves the same commands over TCP instead of stdin
+        if (args.length > 0 && args[0].equals("--server")) {
+            start();
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : SchedulerServer.DEFAULT_PORT;
+            try {
+                new SchedulerServer(port, Integer.getInteger("scheduler.server.maxSessions", 1000)).serve();
+            } catch (IOException e) {
+                System.out.println("Server stopped: " + e.getMessage());
+            }
+            return;
+        }
+
+        // java scheduler.Scheduler --migrate applies pending schema migrations and exits
+        if (args.length > 0 && args[0].equals("--migrate")) {
+            runMigrations(System.out);
+            return;
+        }
+
+        // java -Dscheduler.journal.dir=<dir> scheduler.Scheduler --replay <dump|capacity> [from_date to_date]
+        if (args.length > 0 && args[0].equals("--replay")) {
+            replayJournal(args);
+            return;
+        }
+
+        // java scheduler.Scheduler --import <patients|caregivers|vaccines|availabilities> <file.csv|file.ndjson>
+        if (args.length > 0 && args[0].equals("--import")) {
+            if (args.length != 3) {
+                System.out.println("Usage: --import <patients|caregivers|vaccines|availabilities> <file>");
+                return;
+            }
+            try {
+                BulkImporter.fromProperties(ImportKind.parse(args[1]), Paths.get(args[2])).run();
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown import kind " + args[1]);
+            } catch (IOException | SQLException e) {
+                System.out.println("Import stopped, run it again to resume: " + e.getMessage());
+            }
+            return;
+        }
+
+        // java scheduler.Scheduler --pipeline [file] runs a script of commands (stdin by default) with their database
+        // work overlapping, scheduler.pipeline.threads at a time and at most scheduler.pipeline.depth in flight
+        if (args.length > 0 && args[0].equals("--pipeline")) {
+            printWelcome(System.out);
+            start();
+            try (BufferedReader script = args.length > 1
+                    ? Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8)
+                    : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+                new Pipeline(System.out, Integer.getInteger("scheduler.pipeline.threads", 16),
+                        Integer.getInteger("scheduler.pipeline.depth", 1024)).run(script);
+            } catch (IOException e) {
+                System.out.println("Could not read the script: " + e.getMessage());
+            }
+            return;
+        }
+
+        printWelcome(System.out);
+        start();
 
         // read input from user
+        Session session = new Session(System.out);
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             System.out.print("> ");
-            String response = "";
+            Command command = Command.parse("");
             try {
-                response = r.readLine();
+                String response = r.readLine();
+                // end of input behaves like quit
+                command = response == null ? Command.parse("quit") : Command.read(response, r::readLine);
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            if (!execute(session, command)) {
                 return;
+            }
+        }
+    }
+
+    static void printWelcome(PrintStream out) {
+        // printing greetings text
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
+        out.println("> login_caregiver <username> <password>");
+        out.println("> resume <token>");
+        out.println("> change_password <old_password> <new_password>");
+        out.println("> search_caregiver_schedule <date> [to_date]");  // TODO: implement search_caregiver_schedule (Part 2)
+        out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        out.println("> reserve_batch <count>, then <count> lines of <patient> <date> <vaccine>");
+        out.println("> hold <date> <vaccine>");
+        out.println("> confirm <hold_id>");
+        out.println("> release <hold_id>");
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability_range <start> <end> [weekdays]");
+        out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> show_appointments [after_id] [limit] [from_date to_date]");  // TODO: implement show_appointments (Part 2)
+        out.println("> stats");
+        out.println("> logout");  // TODO: implement logout (Part 2)
+        out.println("> quit");
+        out.println();
+    }
+
+    // Loads the in-memory state the commands rely on; called once before the first command
+    public static void start() {
+        // -Dscheduler.migrate=true brings the schema up to date before anything reads from it
+        if (Boolean.getBoolean("scheduler.migrate")) {
+            runMigrations(System.out);
+        }
+        SchedulingState journaled = openJournal();
+        boolean clustered = Boolean.getBoolean("scheduler.cluster");
+        if (clustered) {
+            prepareCluster();
+            // other processes write without this journal
+            journaled = null;
+        }
+        loadAvailabilityIndex(journaled);
+        if (!clustered) {
+            loadDoseInventory(journaled);
+        }
+        loadCaregiverLoad();
+        startHolds();
+        if (clustered) {
+            ClusterSync.getInstance().start(Math.max(1, Long.getLong("scheduler.cluster.pollMillis", 500L)));
+        }
+        // the change log is written whether or not this process is clustered
+        ClusterSync.getInstance().startPruning(Math.max(1, Long.getLong("scheduler.cluster.pruneMillis", 60000L)));
+        startMetrics();
+    }
+
+    // -Dscheduler.cluster=true runs this process next to others against the same database or shared write-ahead log.
+    // Doses are then only counted in the store, where taking one is a single conditional update, without a
+    // DoseInventory per process whose count the other processes' bookings would leave behind; the caches follow the
+    // other processes' writes through the store's change feed (for the database, the change log of migration V8),
+    // polled every scheduler.cluster.pollMillis.
+    private static void prepareCluster() {
+        // without the inventory, doses are taken from the vaccine rows alone, so takes an earlier run recorded
+        // have to be on the rows first
+        try {
+            Storage.getInstance().vaccines().flushTakes();
+        } catch (SQLException e) {
+            System.out.println("Could not flush the recorded dose takes (is migration V9 applied?)");
+        }
+        try {
+            ClusterSync.getInstance().prepare();
+        } catch (IllegalStateException e) {
+            System.out.println("Cluster mode needs the jdbc storage backend or a shared write-ahead log " +
+                    "(-Dscheduler.storage.wal.shared=true)");
+        } catch (SQLException e) {
+            System.out.println("Could not read the change log (is migration V8 applied?), caches will only see other " +
+                    "processes' writes when they expire");
+        }
+    }
+
+    // Runs one command line for the given session; returns false once the user has quit
+    public static boolean execute(Session session, String response) {
+        return execute(session, Command.parse(response));
+    }
+
+    static boolean execute(Session session, Command command) {
+        long start = System.nanoTime();
+        String[] tokens = command.getTokens();
+        // check if input exists
+        if (tokens.length == 0) {
+            session.out.println("Please try again!");
+            return true;
+        }
+        session.command = command.getType().getCommandName();
+        try {
+            return dispatch(session, command);
+        } finally {
+            metrics.timer("command", session.command).recordSince(start);
+        }
+    }
+
+    private static boolean dispatch(Session session, Command command) {
+        String[] tokens = command.getTokens();
+        // determine which operation to perform
+        switch (command.getType()) {
+            case CREATE_PATIENT:
+                createPatient(session, tokens);
+                break;
+            case CREATE_CAREGIVER:
+                createCaregiver(session, tokens);
+                break;
+            case LOGIN_PATIENT:
+                loginPatient(session, tokens);
+                break;
+            case LOGIN_CAREGIVER:
+                loginCaregiver(session, tokens);
+                break;
+            case RESUME:
+                resume(session, tokens);
+                break;
+            case CHANGE_PASSWORD:
+                changePassword(session, tokens);
+                break;
+            case SEARCH_CAREGIVER_SCHEDULE:
+                searchCaregiverSchedule(session, tokens);
+                break;
+            case RESERVE:
+                reserve(session, tokens);
+                break;
+            case RESERVE_BATCH:
+                reserveBatch(session, tokens, command.getBody());
+                break;
+            case HOLD:
+                hold(session, tokens);
+                break;
+            case CONFIRM:
+                confirm(session, tokens);
+                break;
+            case RELEASE:
+                release(session, tokens);
+                break;
+            case UPLOAD_AVAILABILITY:
+                uploadAvailability(session, tokens);
+                break;
+            case UPLOAD_AVAILABILITY_RANGE:
+                uploadAvailabilityRange(session, tokens);
+                break;
+            case CANCEL:
+                cancel(session, tokens);
+                break;
+            case ADD_DOSES:
+                addDoses(session, tokens);
+                break;
+            case SHOW_APPOINTMENTS:
+                showAppointments(session, tokens);
+                break;
+            case LOGOUT:
+                logout(session, tokens);
+                break;
+            case STATS:
+                stats(session, tokens);
+                break;
+            case QUIT:
+                session.out.println("Bye!");
+                return false;
+            default:
+                session.out.println("Invalid operation name!");
+        }
+        return true;
+    }
+
+    // -Dscheduler.journal.dir=<dir> records every scheduling change in an event journal there, and returns the state
+    // it rebuilt from its snapshot and the events after it (null without a journal), which the caches then start from.
+    // The stores stay the source of truth: the journal starts from what they hold, and a start after a stop that
+    // didn't close the journal records what changed in them meanwhile, e.g. events lost with a torn segment. Writes
+    // made without the journal aren't noticed after a clean stop; -Dscheduler.journal.reconcile=true checks anyway.
+    private static SchedulingState openJournal() {
+        Path directory = EventJournal.configuredDirectory();
+        if (directory == null) {
+            return null;
+        }
+        EventJournal journal = EventJournal.getInstance();
+        try {
+            journal.open(directory, Long.getLong("scheduler.journal.segmentBytes", 64L << 20),
+                    Long.getLong("scheduler.journal.snapshotEvents", 100000L),
+                    Boolean.getBoolean("scheduler.journal.sync"));
+            Runtime.getRuntime().addShutdownHook(new Thread(Scheduler::closeJournal, "journal-shutdown"));
+            Storage storage = Storage.getInstance();
+            if (!journal.hasHistory()) {
+                journal.baseline(new SchedulingState(storage.availabilities().all(), storage.vaccines().all()));
+            } else if (!journal.wasClosedCleanly() || Boolean.getBoolean("scheduler.journal.reconcile")) {
+                int missed = journal.reconcile(storage.availabilities().all(), storage.vaccines().all());
+                if (missed > 0) {
+                    System.out.println("The event journal was " + missed + " changes behind the tables, " +
+                            "recorded them");
+                }
+            }
+            return journal.getState();
+        } catch (IOException | SQLException e) {
+            System.out.println("Could not open the event journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void closeJournal() {
+        try {
+            EventJournal.getInstance().close();
+        } catch (IOException e) {
+            System.out.println("Error occurred when writing the journal snapshot");
+        }
+    }
+
+    private static void replayJournal(String[] args) {
+        Path directory = EventJournal.configuredDirectory();
+        if (directory == null || args.length != 2 && args.length != 4) {
+            System.out.println("Usage: -Dscheduler.journal.dir=<dir> --replay <dump|capacity> [from_date to_date]");
+            return;
+        }
+        try {
+            LocalDate from = args.length == 4 ? LocalDate.parse(args[2]) : null;
+            LocalDate to = args.length == 4 ? LocalDate.parse(args[3]) : null;
+            if (args[1].equals("capacity")) {
+                JournalReplay.capacity(directory, from, to, System.out);
             } else {
-                System.out.println("Invalid operation name!");
+                JournalReplay.dump(directory, from, to, System.out);
             }
+        } catch (DateTimeParseException e) {
+            System.out.println("Please enter valid dates!");
+        } catch (IOException e) {
+            System.out.println("Could not read the journal: " + e.getMessage());
         }
     }
 
-    private static void createPatient(String[] tokens) {
+    // Loads the availability index once, from the journal's state if there is one and from the table otherwise;
+    // schedule searches and reservations fall back to the database if this fails.
+    // -Dscheduler.availability.reconcileSeconds=N additionally reloads it every N seconds.
+    private static void loadAvailabilityIndex(SchedulingState journaled) {
+        try {
+            // a restored bitmap saves the writes to it, but availability may have changed since it was last written,
+            // so it is loaded all the same
+            if (openAvailabilityBitmap()) {
+                System.out.println("Caregiver availability restored from the availability bitmap, checking it " +
+                        "against the " + (journaled != null ? "event journal" : "table"));
+            }
+            if (journaled != null) {
+                availabilityIndex.load(journaled.getAvailability());
+            } else {
+                availabilityIndex.load();
+            }
+            availabilityIndex.startReconciliation(Long.getLong("scheduler.availability.reconcileSeconds", 0L));
+        } catch (SQLException e) {
+            System.out.println("Could not load caregiver availability, searches will go to the database");
+        }
+    }
+
+    // -Dscheduler.availability.bitmap=<file> keeps scheduler.availability.bitmap.days dates from
+    // scheduler.availability.bitmap.from (January 1 of this year by default) in a memory-mapped bitmap that the next
+    // start can begin from; true if it began from the one the last process left
+    private static boolean openAvailabilityBitmap() {
+        String file = System.getProperty("scheduler.availability.bitmap");
+        if (file == null) {
+            return false;
+        }
+        try {
+            String from = System.getProperty("scheduler.availability.bitmap.from");
+            AvailabilityBitmap bitmap = AvailabilityBitmap.open(Paths.get(file),
+                    from == null ? LocalDate.now().withDayOfYear(1) : LocalDate.parse(from),
+                    Integer.getInteger("scheduler.availability.bitmap.days", 731),
+                    Integer.getInteger("scheduler.availability.bitmap.caregivers", 1 << 17));
+            availabilityIndex.useBitmap(bitmap);
+            return bitmap.isRestored();
+        } catch (IOException | DateTimeParseException e) {
+            System.out.println("Could not open the availability bitmap, availability is kept on the heap");
+            return false;
+        }
+    }
+
+    // Loads the dose counters, which bookings take their doses from without waiting on the vaccine's row; the takes
+    // are carried to the rows every scheduler.doses.flushMillis or scheduler.doses.flushThreshold doses
+    private static void loadDoseInventory(SchedulingState journaled) {
+        try {
+            if (journaled != null) {
+                doseInventory.load(journaled.getDoses());
+            } else {
+                doseInventory.load();
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not load vaccine doses, doses will be checked in the database only");
+        }
+    }
+
+    // Publishes the metrics over JMX, and with -Dscheduler.metrics.prometheusFile=<file> also writes them there every
+    // scheduler.metrics.prometheusSeconds
+    private static void startMetrics() {
+        try {
+            MetricsMBean.register(metrics);
+        } catch (JMException e) {
+            System.out.println("Could not register the metrics with JMX: " + e.getMessage());
+        }
+        String prometheusFile = System.getProperty("scheduler.metrics.prometheusFile");
+        if (prometheusFile != null) {
+            new PrometheusWriter(metrics, Paths.get(prometheusFile))
+                    .start(Math.max(1, Long.getLong("scheduler.metrics.prometheusSeconds", 15L)));
+        }
+    }
+
+    // Counts the failure against the command being run and keeps the stack trace for diagnosis
+    static void failed(Session session, Exception e) {
+        metrics.counter("command_errors", session.command == null ? "invalid" : session.command).increment();
+        e.printStackTrace();
+    }
+
+    // Takes over the holds a previous run left open, giving back the ones that ran out meanwhile
+    private static void startHolds() {
+        try {
+            HoldService.getInstance().start();
+        } catch (SQLException e) {
+            System.out.println("Could not load the open holds, they will be given back on the next start");
+        }
+    }
+
+    // Counts each caregiver's reservations for the least-loaded assignment strategy (-Dscheduler.assignment)
+    private static void loadCaregiverLoad() {
+        try {
+            CaregiverLoad.getInstance().load();
+        } catch (SQLException e) {
+            System.out.println("Could not count caregiver reservations, caregivers will be ranked as equally busy");
+        }
+    }
+
+    private static void runMigrations(PrintStream out) {
+        if (!Storage.getInstance().isJdbc()) {
+            out.println("Schema migrations only apply to the jdbc storage backend");
+            return;
+        }
+        try {
+            List<String> applied = Migrator.fromEnvironment().migrate();
+            if (applied.isEmpty()) {
+                out.println("Schema is up to date");
+            }
+            for (String migration : applied) {
+                out.println("Applied migration " + migration);
+            }
+        } catch (IOException | SQLException e) {
+            out.println("Migration failed: " + e.getMessage());
+        }
+    }
+
+    private static void createPatient(Session session, String[] tokens) {
         // create_patient <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Create Patient Failed.");
+            session.out.println("Create Patient Failed.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
+        // start hashing on the hashing pool while the database checks the username
+        byte[] salt = passwordHasher.generateSalt();
+        CompletableFuture<byte[]> pendingHash = passwordHasher.hashAsync(password, salt);
         // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsPatient(session, username)) {
+            session.out.println("Username taken, try again!");
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash = pendingHash.join();
         // create the caregiver
         try {
-            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            Patient patient = new Patient.PatientBuilder(username, salt, hash, passwordHasher.getCurrentVersion()).build();
             // save to caregiver information to our database
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            session.out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Create Patient Failed.");
-            e.printStackTrace();
+            session.out.println("Create Patient Failed.");
+            failed(session, e);
         }
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            session.out.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
+        // start hashing on the hashing pool while the database checks the username
+        byte[] salt = passwordHasher.generateSalt();
+        CompletableFuture<byte[]> pendingHash = passwordHasher.hashAsync(password, salt);
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsCaregiver(session, username)) {
+            session.out.println("Username taken, try again!");
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash = pendingHash.join();
         // create the caregiver
         try {
-            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash, passwordHasher.getCurrentVersion()).build();
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            session.out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
+            session.out.println("Failed to create user.");
+            failed(session, e);
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Storage.getInstance().patients().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            session.out.println("Error occurred when checking username");
+            failed(session, e);
         }
         return true;
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Storage.getInstance().caregivers().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            session.out.println("Error occurred when checking username");
+            failed(session, e);
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private static void loginPatient(Session session, String[] tokens) {
         // login_patient <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if(currentPatient!=null||currentCaregiver!=null){
-            System.out.println("User already logged in, try again.");
+        if(session.currentPatient!=null||session.currentCaregiver!=null){
+            session.out.println("User already logged in, try again.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login patient failed.");
+            session.out.println("Login patient failed.");
 
             return;
         }
@@ -210,30 +595,32 @@ public class Scheduler {
             patient=new Patient.PatientGetter(username, password).get();
         }
         catch (SQLException e) {
-            System.out.println("Login patient failed.");
-            e.printStackTrace();
+            session.out.println("Login patient failed.");
+            failed(session, e);
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login patient failed.");
+            session.out.println("Login patient failed.");
         } else {
             // if login was successful, set the current patient to the patient that was just logged in
-            System.out.println("Logged in as: " + username);
-            currentPatient=patient;
+            session.out.println("Logged in as: " + username);
+            session.currentPatient=patient;
+            session.token = authTokens.issue(patient);
+            session.out.println("Session token: " + session.token);
         }
 
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.currentCaregiver != null || session.currentPatient != null) {
+            session.out.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            session.out.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -243,234 +630,479 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
-            e.printStackTrace();
+            session.out.println("Login failed.");
+            failed(session, e);
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            session.out.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.out.println("Logged in as: " + username);
+            session.currentCaregiver = caregiver;
+            session.token = authTokens.issue(caregiver);
+            session.out.println("Session token: " + session.token);
+        }
+    }
+
+    private static void resume(Session session, String[] tokens) {
+        // resume <token>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (session.isLoggedIn()) {
+            session.out.println("User already logged in.");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            session.out.println("Resume failed.");
+            return;
+        }
+        // a live token logs the user in without a database lookup or a password hash
+        AuthTokenStore.Entry entry = authTokens.resume(tokens[1]);
+        if (entry == null) {
+            session.out.println("Session expired, please login again.");
+            return;
+        }
+        session.currentPatient = entry.getPatient();
+        session.currentCaregiver = entry.getCaregiver();
+        session.token = tokens[1];
+        String username = entry.getPatient() != null
+                ? entry.getPatient().getUsername() : entry.getCaregiver().getUsername();
+        session.out.println("Logged in as: " + username);
+    }
+
+    private static void changePassword(Session session, String[] tokens) {
+        // change_password <old_password> <new_password>
+        // check 1: check if someone's already logged-in
+        if (!session.isLoggedIn()) {
+            session.out.println("Please login first");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            session.out.println("Please try again!");
+            return;
+        }
+        try {
+            // check 3: the old password has to be right
+            if (session.currentPatient != null) {
+                Patient patient = new Patient.PatientGetter(session.currentPatient.getUsername(), tokens[1]).get();
+                if (patient == null) {
+                    session.out.println("Wrong password, try again!");
+                    return;
+                }
+                patient.changePassword(tokens[2]);
+                session.token = authTokens.issue(patient);
+            } else {
+                Caregiver caregiver =
+                        new Caregiver.CaregiverGetter(session.currentCaregiver.getUsername(), tokens[1]).get();
+                if (caregiver == null) {
+                    session.out.println("Wrong password, try again!");
+                    return;
+                }
+                caregiver.changePassword(tokens[2]);
+                session.token = authTokens.issue(caregiver);
+            }
+            // every earlier token of this user is gone now, including this session's
+            session.out.println("Password changed");
+            session.out.println("Session token: " + session.token);
+        } catch (SQLException e) {
+            session.out.println("Error occurred when changing password");
+            failed(session, e);
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
-        String dateString = tokens[1]; // 输入的日期字符串
-        Date sqlDate = Date.valueOf(dateString); // 转换为 java.sql.Date
+    private static void endToken(Session session) {
+        if (session.token != null) {
+            authTokens.invalidate(session.token);
+            session.token = null;
+        }
+    }
+
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
+        // search_caregiver_schedule <date> [to_date]
         //check1: Check if someone's already logged-in
-        if(currentCaregiver==null&&currentPatient==null){
-          System.out.println("Please login first");
+        if(session.currentCaregiver==null&&session.currentPatient==null){
+          session.out.println("Please login first");
           return;
         }
-        else {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            try {
+        // check 2: the operation name and one date, or two for a range
+        if (tokens.length != 2 && tokens.length != 3) {
+            session.out.println("Please try again");
+            return;
+        }
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.parse(tokens[1]);
+            to = tokens.length == 3 ? LocalDate.parse(tokens[2]) : from;
+        } catch (DateTimeParseException e) {
+            session.out.println("Please enter a valid date!");
+            return;
+        }
+        if (to.isBefore(from) || ChronoUnit.DAYS.between(from, to) >= MAX_RANGE_DAYS) {
+            session.out.println("Please enter a range of at most " + MAX_RANGE_DAYS + " days!");
+            return;
+        }
 
-                String availableCaregiver = "SELECT Username FROM Availabilities WHERE Time=? ORDER BY Username";
-                String availableVaccine = "SELECT Name,Doses FROM Vaccines WHERE Doses>0";
-                PreparedStatement statement1 = con.prepareStatement(availableCaregiver);
-                statement1.setDate(1, sqlDate);
-                ResultSet resultSet1 = statement1.executeQuery();
-                while (resultSet1.next()) {
-                    String username = resultSet1.getString("Username");
-                    System.out.println(username);
+        try {
+            List<ScheduleSnapshot> schedule = scheduleView.range(from, to);
+            if (tokens.length == 2) {
+                schedule.get(0).getCaregivers().forEach(session.out::println);
+            } else {
+                // only the dates that have a free caregiver, one line each
+                for (ScheduleSnapshot snapshot : schedule) {
+                    if (!snapshot.getCaregivers().isEmpty()) {
+                        session.out.println(snapshot.getDate() + ": " + String.join(" ", snapshot.getCaregivers()));
+                    }
                 }
-                PreparedStatement statement2 = con.prepareStatement(availableVaccine);
+            }
+            // the doses are the same on every date
+            schedule.get(0).getVaccineDoses().forEach((name, doses) -> session.out.println(name + " " + doses));
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+            failed(session, e);
+        }
+    }
 
-                ResultSet resultSet2 = statement2.executeQuery();
-                while (resultSet2.next()) {
-                    String name = resultSet2.getString("Name");
-                    int doses = resultSet2.getInt("Doses");
-                    //Output
-                    System.out.print(name+" "+doses);
+    private static void reserve(Session session, String[] tokens) {
+        // reserve <date> <vaccine>
+        // check 1: check if someone's already logged-in
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("Please login first");
+            return;
+        }
+        // check 2: check if the current logged-in user is a caregiver
+        if (session.currentPatient == null) {
+            session.out.println("Please login as a patient");
+            return;
+        }
+        // check 3: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            session.out.println("Please try again");
+            return;
+        }
+        String vaccineName = tokens[2]; // The input vaccine name
+        try {
+            Date sqlDate = Date.valueOf(tokens[1]); // turn into java.sql.Date
+            // slot claim, dose decrement and reservation insert all happen in one transaction
+            Booking booking = reservationService.reserve(session.currentPatient.getUsername(), sqlDate, vaccineName);
+            switch (booking.getOutcome()) {
+                case NO_CAREGIVER:
+                    session.out.println("No caregiver is available");
+                    break;
+                case NO_DOSES:
+                    session.out.println("Not enough available doses");
+                    break;
+                default:
+                    session.out.println("Appointment ID " + booking.getAppointmentId() + ", " +
+                            "Caregiver username " + booking.getCaregiverName());
+            }
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+            failed(session, e);
+        }
+    }
 
-                }
+    private static void hold(Session session, String[] tokens) {
+        // hold <date> <vaccine>
+        // sets a caregiver slot and a dose aside for the patient until confirm, release or the hold runs out
+        if (session.currentPatient == null) {
+            session.out.println("Please login as a patient");
+            return;
+        }
+        if (tokens.length != 3) {
+            session.out.println("Please try again");
+            return;
+        }
+        try {
+            Hold hold = HoldService.getInstance().hold(session.currentPatient.getUsername(), Date.valueOf(tokens[1]),
+                    tokens[2]);
+            switch (hold.getOutcome()) {
+                case NO_CAREGIVER:
+                    session.out.println("No caregiver is available");
+                    break;
+                case NO_DOSES:
+                    session.out.println("Not enough available doses");
+                    break;
+                default:
+                    session.out.println("Hold ID " + hold.getHoldId() + ", Caregiver username "
+                            + hold.getCaregiverName() + ", expires in "
+                            + TimeUnit.MILLISECONDS.toSeconds(HoldService.getInstance().getTtlMillis()) + " seconds");
+            }
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+            failed(session, e);
+        }
+    }
 
+    private static void confirm(Session session, String[] tokens) {
+        // confirm <hold_id>
+        if (session.currentPatient == null) {
+            session.out.println("Please login as a patient");
+            return;
+        }
+        if (tokens.length != 2) {
+            session.out.println("Please try again");
+            return;
+        }
+        try {
+            Booking booking = HoldService.getInstance().confirm(Integer.parseInt(tokens[1]),
+                    session.currentPatient.getUsername());
+            if (booking == null) {
+                session.out.println("Hold not found, it may have expired");
+            } else {
+                session.out.println("Appointment ID " + booking.getAppointmentId() + ", " +
+                        "Caregiver username " + booking.getCaregiverName());
+            }
+        } catch (NumberFormatException e) {
+            session.out.println("Please try again");
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+            failed(session, e);
+        }
+    }
+
+    private static void release(Session session, String[] tokens) {
+        // release <hold_id>
+        if (session.currentPatient == null) {
+            session.out.println("Please login as a patient");
+            return;
+        }
+        if (tokens.length != 2) {
+            session.out.println("Please try again");
+            return;
+        }
+        try {
+            if (HoldService.getInstance().release(Integer.parseInt(tokens[1]), session.currentPatient.getUsername())) {
+                session.out.println("Hold released");
+            } else {
+                session.out.println("Hold not found, it may have expired");
+            }
+        } catch (NumberFormatException e) {
+            session.out.println("Please try again");
+        }
+    }
 
+    private static void reserveBatch(Session session, String[] tokens, List<String> body) {
+        // reserve_batch <count>, followed by <count> lines of <patient> <date> <vaccine>
+        // check 1: patients may book a batch for themselves; booking for others, e.g. a whole school for a
+        //          vaccination day, is left to the caregivers named in -Dscheduler.reserveBatch.caregivers
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("Please login first!");
+            return;
+        }
+        // check 2: the count has to announce a body of at most scheduler.reserveBatch.maxRequests lines
+        if (tokens.length != 2 || body.isEmpty()) {
+            session.out.println("Please try again with a count from 1 to " + Command.MAX_BATCH_REQUESTS);
+            return;
+        }
+        if (body.size() != Integer.parseInt(tokens[1])) {
+            session.out.println("Expected " + tokens[1] + " reservations but the input ended after " + body.size());
+            return;
+        }
+        List<BookingRequest> requests = new ArrayList<>();
+        for (int i = 0; i < body.size(); i++) {
+            String[] request = body.get(i).split(" ");
+            try {
+                if (request.length != 3) {
+                    throw new IllegalArgumentException("expected <patient> <date> <vaccine>");
+                }
+                requests.add(new BookingRequest(request[0], Date.valueOf(request[1]), request[2]));
+            } catch (IllegalArgumentException e) {
+                session.out.println("Line " + (i + 1) + " is not a valid reservation: " + e.getMessage());
+                return;
+            }
+        }
+        // check 3: the caller may book for every patient in the batch
+        if (session.currentPatient != null) {
+            for (BookingRequest request : requests) {
+                if (!request.getPatientName().equals(session.currentPatient.getUsername())) {
+                    session.out.println("You can only book reservations for yourself");
+                    return;
+                }
+            }
+        } else if (!batchCaregivers().contains(session.currentCaregiver.getUsername())) {
+            session.out.println("You are not authorized to book reservations for patients");
+            return;
+        }
+
+        // each chunk of -Dscheduler.reserveBatch.size requests is booked in its own transaction
+        int chunkSize = Math.max(1, Integer.getInteger("scheduler.reserveBatch.size", 1000));
+        int booked = 0;
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            List<BookingRequest> chunk = requests.subList(from, Math.min(requests.size(), from + chunkSize));
+            List<Booking> bookings;
+            try {
+                bookings = reservationService.reserveBatch(chunk);
             } catch (SQLException e) {
-                System.out.println("Please try again");
-            } finally {
-                cm.closeConnection();
-            }
-        }
-
-    }
-
-    private static void reserve(String[] tokens) {
-        String dateString = tokens[1]; // The input date
-        String vaccineName=tokens[2];// The input vaccine name
-        Date sqlDate = Date.valueOf(dateString); // turn into java.sql.Date
-        // check1: check if someone's already logged-in
-
-        if (currentCaregiver==null&&currentPatient==null){
-        System.out.println("Please login first");
-        return;
-
-        }
-
-        //check 2: check if the current logged-in user is a caregiver
-      else if(currentPatient==null&&currentCaregiver!=null){
-        System.out.println("Please login as a patient");
-        return;
-      }
-      else if(currentPatient!=null&&currentCaregiver==null){
-          ConnectionManager cm=new ConnectionManager();
-          Connection con=cm.createConnection();
-          String availableCaregiver="SELECT Username FROM Availabilities WHERE Time=? ORDER BY Username";
-          String availableVaccine="SELECT Name,Doses FROM Vaccines WHERE Name=?";
-          String lastReservation="SELECT MAX(appointment_id) AS max_id FROM Reservations ";
-
-         try {
-              PreparedStatement statement1 = con.prepareStatement(availableCaregiver);
-              statement1.setDate(1, sqlDate);
-              ResultSet resultset1= statement1.executeQuery();
-              PreparedStatement statement2 = con.prepareStatement(availableVaccine);
-              statement2.setString(1,vaccineName);
-              ResultSet resultset2= statement2.executeQuery();
-              PreparedStatement statement3 = con.prepareStatement(lastReservation);
-              ResultSet resultset3= statement3.executeQuery();
-              if(!resultset1.next()){
-                  System.out.println("No caregiver is available");
-                  return;
-              }
-              if(!resultset2.next()){
-                  System.out.println("Not enough available doses");
-                  return;
-              }
-
-              int newAppointmentId;
-              if(!resultset3.next()){
-                  newAppointmentId=1;
-              }
-              else{
-                  int lastAppointmentId=resultset3.getInt("max_id");
-                  newAppointmentId=lastAppointmentId+1;
-              }
-             String caregiverName=resultset1.getString("Username");
-              //create a new reservation and save it to the database
-              Reservation reservation = new Reservation.ReservationBuilder(caregiverName,currentPatient.getUsername(),vaccineName,newAppointmentId,sqlDate).build();
-              reservation.saveToDB();
-              Caregiver.deleteAvailability(caregiverName,sqlDate);
-
-                 int vaccineDoses=resultset2.getInt("Doses");
-
-             Vaccine vaccine=new Vaccine.VaccineBuilder(vaccineName,vaccineDoses).build();
-             vaccine.decreaseAvailableDoses(1);
-              System.out.println("Appointment ID "+newAppointmentId+", "+"Caregiver username "+caregiverName);
-        }
-          catch(SQLException e){
-              System.out.println("Please try again");
-          }
-          finally {
-              cm.closeConnection();
-          }
-      }
-    }
-
-    private static void uploadAvailability(String[] tokens) {
+                session.out.println("Please try again from request " + (from + 1) + ", " + booked + " of " +
+                        requests.size() + " reservations were booked");
+                failed(session, e);
+                return;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                BookingRequest request = chunk.get(i);
+                Booking booking = bookings.get(i);
+                String prefix = request.getPatientName() + " " + request.getDate() + " " +
+                        request.getVaccineName() + ": ";
+                switch (booking.getOutcome()) {
+                    case NO_CAREGIVER:
+                        session.out.println(prefix + "No caregiver is available");
+                        break;
+                    case NO_DOSES:
+                        session.out.println(prefix + "Not enough available doses");
+                        break;
+                    case UNKNOWN_PATIENT:
+                        session.out.println(prefix + "No such patient");
+                        break;
+                    default:
+                        booked++;
+                        session.out.println(prefix + "Appointment ID " + booking.getAppointmentId() + ", " +
+                                "Caregiver username " + booking.getCaregiverName());
+                }
+            }
+        }
+        session.out.println("Booked " + booked + " of " + requests.size() + " reservations");
+    }
+
+    // The caregivers allowed to book batches for any patient, from -Dscheduler.reserveBatch.caregivers=<a,b,...>
+    private static Set<String> batchCaregivers() {
+        Set<String> caregivers = new HashSet<>();
+        for (String name : System.getProperty("scheduler.reserveBatch.caregivers", "").split(",")) {
+            if (!name.isBlank()) {
+                caregivers.add(name.strip());
+            }
+        }
+        return caregivers;
+    }
+
+    private static void uploadAvailability(Session session, String[] tokens) {
         // upload_availability <date>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String date = tokens[1];
         try {
             Date d = Date.valueOf(date);
-            String caregiverName = currentCaregiver.getUsername(); // caregiver_name
-            currentCaregiver.uploadAvailability(caregiverName,d);
-            System.out.println("Availability uploaded!");
+            String caregiverName = session.currentCaregiver.getUsername(); // caregiver_name
+            session.currentCaregiver.uploadAvailability(caregiverName,d);
+            session.out.println("Availability uploaded!");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            session.out.println("Error occurred when uploading availability");
+            failed(session, e);
+        }
+    }
+
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        // upload_availability_range <start> <end> [weekdays], e.g. weekdays = MON,WED,FRI
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 3 or 4 to include all information (with the operation name)
+        if (tokens.length != 3 && tokens.length != 4) {
+            session.out.println("Please try again!");
+            return;
+        }
+        try {
+            LocalDate start = LocalDate.parse(tokens[1]);
+            LocalDate end = LocalDate.parse(tokens[2]);
+            Set<DayOfWeek> weekdays = tokens.length == 4 ? parseWeekdays(tokens[3]) : EnumSet.allOf(DayOfWeek.class);
+            if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_RANGE_DAYS) {
+                session.out.println("Please enter a range of at most " + MAX_RANGE_DAYS + " days!");
+                return;
+            }
+            Caregiver.RangeUpload upload = Caregiver.uploadAvailabilityRange(
+                    session.currentCaregiver.getUsername(), start, end, weekdays);
+            session.out.println("Availability uploaded! " + upload.getInserted() + " dates added, " +
+                    upload.getSkipped() + " already available");
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            session.out.println("Please enter valid dates and weekdays!");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
-            e.printStackTrace();
+            session.out.println("Error occurred when uploading availability");
+            failed(session, e);
         }
     }
 
-    private static void cancel(String[] tokens) {
+    // MON,TUE,... (case-insensitive, full names also accepted)
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String day : list.split(",")) {
+            String name = day.trim().toUpperCase();
+            DayOfWeek match = null;
+            for (DayOfWeek candidate : DayOfWeek.values()) {
+                if (candidate.name().equals(name) || candidate.name().startsWith(name) && name.length() == 3) {
+                    match = candidate;
+                }
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("Unknown weekday " + day);
+            }
+            weekdays.add(match);
+        }
+        return weekdays;
+    }
+
+    private static void cancel(Session session, String[] tokens) {
         // cancel <appointment_id>
         //check 1: check if someone's already logged-in
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("Please login first");
             return;
         }
 
         int appointment_id = Integer.parseInt(tokens[1]);
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String find = "SELECT caregiver_name, patient_name, Time, vaccines_name FROM Reservations WHERE appointment_id=?";
-        String delete = "DELETE FROM Reservations WHERE appointment_id=?";
-        String searchVaccine="SELECT Doses FROM Vaccines WHERE Name=?";
-
-        try {
-            PreparedStatement statement1 = con.prepareStatement(find);
-            statement1.setInt(1, appointment_id);
-            ResultSet resultset1 = statement1.executeQuery();
-            PreparedStatement statement2 = con.prepareStatement(delete);
-            statement2.setInt(1, appointment_id);
-
-            if (resultset1.next()) {
-                String patientName = resultset1.getString("patient_name");
-                String caregiverName = resultset1.getString("caregiver_name");
-                Date appointmentTime = resultset1.getDate("Time");
-                String vaccineName = resultset1.getString("vaccines_name");
-                PreparedStatement statement3 = con.prepareStatement(searchVaccine);
-                statement3.setString(1,vaccineName);
-                ResultSet resultset3 = statement3.executeQuery();
-                int vaccineDoses=0;
-                if (resultset3.next()) {
-                    vaccineDoses=resultset3.getInt("Doses");
-                }
-                if (currentPatient != null) {
-                    //check 2: check if the current logged-in user is the patient in reservation
-                    if (currentPatient.getUsername().equals(patientName)) {
-                        statement2.executeUpdate();
-                        Caregiver.uploadAvailability(caregiverName, appointmentTime);
-                         Vaccine vaccine=new Vaccine.VaccineBuilder(vaccineName,vaccineDoses).build();
-                         vaccine.increaseAvailableDoses(1);
-                        System.out.println("Reservation canceled");
-                    } else {
-                        System.out.println("You are not the patient of this reservation");
-                    }
-                } else if (currentCaregiver != null) {
-                    //check 3: check if the current logged-in user is the caregiver in reservation
-                    if (currentCaregiver.getUsername().equals(caregiverName)) {
-                        statement2.executeUpdate();
-                        Caregiver.uploadAvailability(caregiverName, appointmentTime);
-                        System.out.println("Reservation canceled");
-                    } else {
-                        System.out.println("You are not authorized to cancel this reservation");
-                    }
+        try {
+            Reservation reservation = new Reservation.ReservationGetter(appointment_id).get();
+            if (reservation == null) {
+                session.out.println("Reservation not found");
+            } else if (session.currentPatient != null) {
+                //check 2: check if the current logged-in user is the patient in reservation
+                if (session.currentPatient.getUsername().equals(reservation.getPatientname())) {
+                    reservationService.cancel(appointment_id, true);
+                    session.out.println("Reservation canceled");
+                } else {
+                    session.out.println("You are not the patient of this reservation");
                 }
             } else {
-                System.out.println("Reservation not found");
+                //check 3: check if the current logged-in user is the caregiver in reservation
+                if (session.currentCaregiver.getUsername().equals(reservation.getCaregivername())) {
+                    reservationService.cancel(appointment_id, false);
+                    session.out.println("Reservation canceled");
+                } else {
+                    session.out.println("You are not authorized to cancel this reservation");
+                }
             }
-
         } catch (SQLException e) {
-            System.out.println("Error occurred when canceling");
-        } finally {
-            cm.closeConnection();
+            session.out.println("Error occurred when canceling");
+            failed(session, e);
         }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
@@ -479,8 +1111,9 @@ public class Scheduler {
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
+            session.out.println("Error occurred when adding doses");
+            failed(session, e);
+            return;
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
@@ -489,103 +1122,103 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                session.out.println("Error occurred when adding doses");
+                failed(session, e);
+                return;
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                session.out.println("Error occurred when adding doses");
+                failed(session, e);
+                return;
             }
         }
-        System.out.println("Doses updated!");
+        session.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-       String searchForCaregiver="SELECT * FROM Reservations WHERE caregiver_name=?";
-       String searchForPatient="SELECT * FROM Reservations WHERE patient_name=?";
-       // check 1: check if someone's already logged-in
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+    private static void showAppointments(Session session, String[] tokens) {
+        // show_appointments [after_id] [limit] [from_date to_date]
+        // check 1: check if someone's already logged-in
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("Please login first");
             return;
         }
-        //If the current login user is a caregiver, output the specific information
-        else if (currentCaregiver != null && currentPatient == null) {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            try {
-                PreparedStatement statement1 = con.prepareStatement(searchForCaregiver);
-                statement1.setString(1, currentCaregiver.getUsername());
-                ResultSet resultset1= statement1.executeQuery();
-                while (resultset1.next()){
-                    String patientName=resultset1.getString("patient_name");
-                    Date date=resultset1.getDate("Time");
-                    int appointmentId=resultset1.getInt("appointment_id");
-                    String vaccinesName=resultset1.getString("vaccines_name");
-                    System.out.println(appointmentId+" "+vaccinesName+" "+date+" "+patientName);
-                }
-
-
-            }
-            catch (SQLException e) {
-                System.out.println("Please try again");
-                e.printStackTrace();
-                System.out.println("SQL Error Code: " + e.getErrorCode());
-                System.out.println("SQL State: " + e.getSQLState());
-                System.out.println("Error Message: " + e.getMessage());
-            }
-            finally {
-                cm.closeConnection();
+        // check 2: the optional arguments are a page position, a page size and a date range
+        if (tokens.length > 5 || tokens.length == 4) {
+            session.out.println("Please try again");
+            return;
+        }
+        Reservation.ReservationLister lister;
+        try {
+            //If the current login user is a caregiver, list by caregiver, otherwise by patient
+            lister = session.currentCaregiver != null
+                    ? Reservation.ReservationLister.forCaregiver(session.currentCaregiver.getUsername())
+                    : Reservation.ReservationLister.forPatient(session.currentPatient.getUsername());
+            lister.after(tokens.length > 1 ? Integer.parseInt(tokens[1]) : 0);
+            lister.limit(tokens.length > 2 ? Integer.parseInt(tokens[2]) : APPOINTMENTS_PAGE_SIZE);
+            if (tokens.length == 5) {
+                lister.between(Date.valueOf(tokens[3]), Date.valueOf(tokens[4]));
             }
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please try again");
+            return;
         }
 
-        //If the current login user is a patient, output the specific information
-        else if(currentPatient!=null && currentCaregiver==null) {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            try {
-                PreparedStatement statement2 = con.prepareStatement(searchForPatient);
-                statement2.setString(1, currentPatient.getUsername());
-                ResultSet resultset2= statement2.executeQuery();
-                while (resultset2.next()){
-                    String patientName=resultset2.getString("caregiver_name");
-                    Date date=resultset2.getDate("Time");
-                    int appointmentId=resultset2.getInt("appointment_id");
-                    String vaccinesName=resultset2.getString("vaccines_name");
-                    System.out.println(appointmentId+" "+vaccinesName+" "+date+" "+patientName);
-                }
-            }
-            catch (SQLException e) {
-                System.out.println("Please try again");
-            }
-            finally {
-                cm.closeConnection();
+        boolean caregiver = session.currentCaregiver != null;
+        int[] lastId = {0};
+        try {
+            boolean more = lister.forEach(reservation -> {
+                // a caregiver sees the patient, a patient sees the caregiver
+                String otherName = caregiver ? reservation.getPatientname() : reservation.getCaregivername();
+                session.out.println(reservation.getAppointment_id() + " " + reservation.getVaccinename() + " " +
+                        reservation.getTime() + " " + otherName);
+                lastId[0] = reservation.getAppointment_id();
+            });
+            if (more) {
+                session.out.println("More appointments: show_appointments " + lastId[0] + " " +
+                        (tokens.length > 2 ? tokens[2] : APPOINTMENTS_PAGE_SIZE) +
+                        (tokens.length == 5 ? " " + tokens[3] + " " + tokens[4] : ""));
             }
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+            failed(session, e);
+        }
+    }
+
+    private static void stats(Session session, String[] tokens) {
+        // stats
+        // the statement texts and error counts are for operators, so only caregivers may see them
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
+            return;
         }
+        metrics.print(session.out);
     }
 
-    private static void logout(String[] tokens) {
+    private static void logout(Session session, String[] tokens) {
         try {
             // check 1: check if someone's already logged-in
-            if (currentPatient == null && currentCaregiver == null) {
-                System.out.println("Please login first");
+            if (session.currentPatient == null && session.currentCaregiver == null) {
+                session.out.println("Please login first");
             }
             //if a patient logged in
-            else if (currentPatient != null && currentCaregiver == null) {
-                currentPatient = null;
-                System.out.println("Successfully Logged out");
+            else if (session.currentPatient != null && session.currentCaregiver == null) {
+                session.currentPatient = null;
+                endToken(session);
+                session.out.println("Successfully Logged out");
             }
             //if a caregiver logged in
-            else if (currentCaregiver != null && currentPatient == null) {
-                currentCaregiver = null;
-                System.out.println("Successfully Logged out");
+            else if (session.currentCaregiver != null && session.currentPatient == null) {
+                session.currentCaregiver = null;
+                endToken(session);
+                session.out.println("Successfully Logged out");
             }
         }
         catch(Exception e){
-            System.out.println("Please try again");
+            session.out.println("Please try again");
         }
 
 
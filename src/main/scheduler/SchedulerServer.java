@@ -0,0 +1,158 @@
+package scheduler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves the Scheduler command set over a line-based TCP protocol: each line a client sends is one command, and the
+ * command's output is written back followed by a "> " prompt, exactly as on the console.
+ *
+ * Every connection gets its own {@link Session}, so logins never leak between clients. At most maxSessions clients
+ * are served at once; a client connecting beyond that is told the server is busy and disconnected right away instead
+ * of queueing behind the others.
+ *
+ * A line longer than scheduler.server.maxLineLength characters, or a command with a body line that long, is answered
+ * with an error instead of being run, and a command that fails unexpectedly is answered with an error as well; neither
+ * ends the session.
+ */
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 7070;
+
+    private final int port;
+    private final Semaphore sessions;
+    private final int idleTimeoutMillis = Integer.getInteger("scheduler.server.idleTimeoutMillis", 600000);
+    private final int maxLineLength = Math.max(1, Integer.getInteger("scheduler.server.maxLineLength", 8192));
+    private final ExecutorService executor = newSessionExecutor();
+
+    public SchedulerServer(int port, int maxSessions) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions must be positive");
+        }
+        this.port = port;
+        this.sessions = new Semaphore(maxSessions);
+    }
+
+    // One virtual thread per session when the runtime has them (Java 21+), otherwise a growing pool of
+    // platform threads bounded by the session limit
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 1024)) {
+            System.out.println("Scheduler listening on port " + port);
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                if (!sessions.tryAcquire()) {
+                    rejectBusy(socket);
+                    continue;
+                }
+                try {
+                    executor.execute(() -> {
+                        try {
+                            handle(socket);
+                        } finally {
+                            sessions.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    sessions.release();
+                    rejectBusy(socket);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void rejectBusy(Socket socket) {
+        try (socket) {
+            socket.getOutputStream().write("Server busy, please try again later\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+            // the client is gone already
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(idleTimeoutMillis);
+            LineReader in = new LineReader(new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)), maxLineLength);
+            PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+            Session session = new Session(out);
+            Scheduler.printWelcome(out);
+            while (true) {
+                out.print("> ");
+                out.flush();
+                String line = in.readLine();
+                if (line == null) {
+                    return;
+                }
+                if (in.wasTruncated()) {
+                    out.println("Command too long, at most " + maxLineLength + " characters please");
+                    continue;
+                }
+                // the body is read in full either way, so that the next command starts after it
+                BodyLines body = new BodyLines(in);
+                Command command = Command.read(line.strip(), body);
+                if (body.truncated) {
+                    out.println("Command too long, at most " + maxLineLength + " characters per line please");
+                } else if (!run(session, command)) {
+                    out.flush();
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // idle for too long; closing the socket ends the session
+        } catch (IOException e) {
+            // the client disconnected
+        }
+    }
+
+    // Runs one command; a command that throws fails on its own and leaves the session open
+    private static boolean run(Session session, Command command) {
+        try {
+            return Scheduler.execute(session, command);
+        } catch (RuntimeException e) {
+            session.out.println("Please try again!");
+            Scheduler.failed(session, e);
+            return true;
+        }
+    }
+
+    // The lines of a command's body, through the same length cap as the command line; remembers whether any of them
+    // was cut short
+    private static class BodyLines implements Command.LineSource {
+        private final LineReader in;
+        private boolean truncated = false;
+
+        private BodyLines(LineReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            String line = in.readLine();
+            truncated |= in.wasTruncated();
+            return line;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+
+/**
+ * Per-user state for one console or network session: who is logged in and where command output goes.
+ */
+public class Session {
+
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time
+    Caregiver currentCaregiver = null;
+    Patient currentPatient = null;
+    // token issued at login, presented later with the resume command
+    String token = null;
+    // the command being run, for metrics
+    String command = null;
+
+    final PrintStream out;
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+
+    // The same login with its own output, for running one command of a pipelined script
+    Session(Session session, PrintStream out) {
+        this.out = out;
+        this.currentCaregiver = session.currentCaregiver;
+        this.currentPatient = session.currentPatient;
+        this.token = session.token;
+    }
+
+    // Takes over the login a command left behind in a copy made with the constructor above
+    void adopt(Session copy) {
+        this.currentCaregiver = copy.currentCaregiver;
+        this.currentPatient = copy.currentPatient;
+        this.token = copy.token;
+    }
+
+    public boolean isLoggedIn() {
+        return currentCaregiver != null || currentPatient != null;
+    }
+}
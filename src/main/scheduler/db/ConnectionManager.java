@@ -1,37 +1,69 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private static final String azureUrl = "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    // -Dscheduler.db.url (or DB_URL) points the scheduler at another database instead of Azure,
+    // e.g. jdbc:h2:mem:scheduler;MODE=MSSQLServer;DB_CLOSE_DELAY=-1 for local benchmarks
+    private static final String connectionUrl = setting("scheduler.db.url", "DB_URL", azureUrl);
+    private static final String userName = setting("scheduler.db.user", "UserID", null);
+    private static final String userPass = setting("scheduler.db.password", "Password", null);
 
     private Connection con = null;
 
-    public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
+    // all ConnectionManager instances borrow from one process-wide pool, created on first use
+    private static class PoolHolder {
+        private static final ConnectionPool POOL = createPool();
+
+        private static ConnectionPool createPool() {
+            if (connectionUrl.startsWith("jdbc:sqlserver:")) {
+                try {
+                    Class.forName(driverName);
+                } catch (ClassNotFoundException e) {
+                    System.out.println(e.toString());
+                }
+            }
+            ConnectionPool pool = ConnectionPool.fromEnvironment(connectionUrl, userName, userPass);
+            Metrics metrics = Metrics.getInstance();
+            metrics.gauge("pool_active", "", () -> pool.getStats().getActive());
+            metrics.gauge("pool_idle", "", () -> pool.getStats().getIdle());
+            metrics.gauge("pool_timeouts", "", () -> pool.getStats().getTimeouts());
+            metrics.gauge("statement_cache_hits", "", () -> pool.getStats().getStatementHits());
+            metrics.gauge("statement_cache_misses", "", () -> pool.getStats().getStatementMisses());
+            return pool;
         }
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    private static String setting(String property, String env, String defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            value = System.getenv(env);
         }
+        return value == null ? defaultValue : value;
+    }
+
+    public static ConnectionPool getPool() {
+        return PoolHolder.POOL;
+    }
+
+    // fails with the pool's exception, e.g. when no connection became free in time
+    public Connection createConnection() throws SQLException {
+        con = getPool().borrow();
         return con;
     }
 
+    // returns the connection to the pool rather than closing the underlying socket
     public void closeConnection() {
+        if (this.con == null) {
+            return;
+        }
         try {
             this.con.close();
         } catch (SQLException e) {
@@ -0,0 +1,435 @@
+package scheduler.db;
+
+import scheduler.metrics.LatencyHistogram;
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * Connections handed out by {@link #borrow()} are proxies: calling close() on them returns the physical
+ * connection to the pool instead of closing it, and any statements opened through the proxy are closed at
+ * that point so that nothing leaks between borrowers. Statements are proxies as well (see {@link PooledStatement}),
+ * which time every execute call; prepared statements are kept per physical connection in a {@link StatementCache}
+ * of statementCacheSize entries, so preparing the same SQL again on that connection reuses the server-side handle
+ * instead of parsing it again.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String userName;
+    private final String userPass;
+    private final int minIdle;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+
+    // most recently returned connections sit at the head, so hot connections get reused first
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    // metrics
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder destroyedCount = new LongAdder();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final LatencyHistogram acquireTimer = Metrics.getInstance().timer("pool_acquire", "");
+    private final LatencyHistogram commitTimer = Metrics.getInstance().timer("sql", "COMMIT");
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    public ConnectionPool(String url, String userName, String userPass, int minIdle, int maxSize,
+                          long acquireTimeoutMillis, long idleTimeoutMillis, long validationIntervalMillis,
+                          int statementCacheSize) {
+        if (maxSize <= 0 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minIdle + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.userName = userName;
+        this.userPass = userPass;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictAndRefill, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Reads the pool settings from system properties first and environment variables second, e.g.
+    // -Dscheduler.pool.maxSize=20 or POOL_MAX_SIZE=20
+    public static ConnectionPool fromEnvironment(String url, String userName, String userPass) {
+        return new ConnectionPool(url, userName, userPass,
+                setting("scheduler.pool.minIdle", "POOL_MIN_IDLE", 1),
+                setting("scheduler.pool.maxSize", "POOL_MAX_SIZE", 10),
+                setting("scheduler.pool.acquireTimeoutMillis", "POOL_ACQUIRE_TIMEOUT_MS", 5000),
+                setting("scheduler.pool.idleTimeoutMillis", "POOL_IDLE_TIMEOUT_MS", 300000),
+                setting("scheduler.pool.validationIntervalMillis", "POOL_VALIDATION_INTERVAL_MS", 1000),
+                setting("scheduler.pool.statementCacheSize", "POOL_STATEMENT_CACHE_SIZE", 64));
+    }
+
+    static int setting(String property, String env, int defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            value = System.getenv(env);
+        }
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new SQLException("Timed out after " + acquireTimeoutMillis + "ms waiting for a connection");
+        }
+        try {
+            IdleConnection entry = takeIdle();
+            if (entry == null) {
+                entry = new IdleConnection(open(), new StatementCache(statementCacheSize), 0);
+            }
+            recordWait(System.nanoTime() - start);
+            activeCount.incrementAndGet();
+            return wrap(entry.connection, entry.statements);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private IdleConnection takeIdle() {
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            long idleMillis = (System.nanoTime() - entry.returnedAt) / 1_000_000;
+            if (idleMillis < validationIntervalMillis || isValid(entry.connection)) {
+                return entry;
+            }
+            destroy(entry.connection);
+        }
+        return null;
+    }
+
+    private boolean isValid(Connection con) {
+        try {
+            return con.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection con = DriverManager.getConnection(url, userName, userPass);
+        createdCount.increment();
+        return con;
+    }
+
+    private void destroy(Connection con) {
+        destroyedCount.increment();
+        try {
+            con.close();
+        } catch (SQLException ignored) {
+            // the connection is being discarded anyway
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrowCount.increment();
+        borrowWaitNanos.add(nanos);
+        maxBorrowWaitNanos.accumulateAndGet(nanos, Math::max);
+        acquireTimer.record(nanos);
+    }
+
+    private void release(Connection physical, StatementCache cache, List<PooledStatement> statements) {
+        boolean reusable = !closed;
+        try {
+            // hand the connection back in the state a new borrower expects
+            if (reusable && !physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            reusable = reusable && !physical.isClosed();
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        // statements the borrower did not close go back to the cache as well
+        for (PooledStatement statement : statements) {
+            statement.close(reusable);
+        }
+        statements.clear();
+        if (reusable) {
+            idle.offerFirst(new IdleConnection(physical, cache, System.nanoTime()));
+        } else {
+            cache.closeAll();
+            destroy(physical);
+        }
+        activeCount.decrementAndGet();
+        permits.release();
+    }
+
+    private void evictAndRefill() {
+        long now = System.nanoTime();
+        Iterator<IdleConnection> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() > minIdle) {
+            IdleConnection entry = it.next();
+            if ((now - entry.returnedAt) / 1_000_000 >= idleTimeoutMillis && idle.remove(entry)) {
+                destroy(entry.connection);
+            }
+        }
+        try {
+            // a new connection takes a permit while it is opened, just like a borrower's, and every other permit
+            // holder may end up with a connection of its own, so idle and borrowed connections stay within maxSize
+            while (!closed && idle.size() < minIdle && permits.tryAcquire()) {
+                try {
+                    if (idle.size() > permits.availablePermits()) {
+                        break;
+                    }
+                    idle.offerLast(new IdleConnection(open(), new StatementCache(statementCacheSize),
+                            System.nanoTime()));
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (SQLException e) {
+            // the database is unreachable right now; borrowers will surface the error
+        }
+    }
+
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry.connection);
+        }
+    }
+
+    private Connection wrap(Connection physical, StatementCache cache) {
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PooledConnectionHandler(physical, cache));
+    }
+
+    public Stats getStats() {
+        return new Stats(borrowCount.sum(), borrowWaitNanos.sum(), maxBorrowWaitNanos.get(), timeoutCount.sum(),
+                createdCount.sum(), destroyedCount.sum(), activeCount.get(), idle.size(), maxSize,
+                statementHits.sum(), statementMisses.sum());
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        // the connection's prepared statements stay with it while it is idle
+        private final StatementCache statements;
+        private final long returnedAt;
+
+        private IdleConnection(Connection connection, StatementCache statements, long returnedAt) {
+            this.connection = connection;
+            this.statements = statements;
+            this.returnedAt = returnedAt;
+        }
+    }
+
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection physical;
+        private final StatementCache cache;
+        private final List<PooledStatement> statements = new ArrayList<>();
+        private boolean returned = false;
+
+        private PooledConnectionHandler(Connection physical, StatementCache cache) {
+            this.physical = physical;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(physical, cache, statements);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical;
+                default:
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+            }
+            // prepareStatement(sql) without options is what the stores use, and the only form that is cached
+            if (method.getName().equals("prepareStatement") && args != null && args.length == 1
+                    && cache.isEnabled()) {
+                return prepareCached((String) args[0]);
+            }
+            Object result;
+            long start = System.nanoTime();
+            try {
+                result = method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (method.getName().equals("commit")) {
+                commitTimer.recordSince(start);
+            }
+            if (result instanceof Statement) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                PooledStatement statement = new PooledStatement((Statement) result, sql, null);
+                statements.add(statement);
+                return statement.proxy(method.getReturnType());
+            }
+            return result;
+        }
+
+        private PreparedStatement prepareCached(String sql) throws SQLException {
+            PreparedStatement prepared = cache.take(sql);
+            if (prepared != null) {
+                statementHits.increment();
+            } else {
+                statementMisses.increment();
+                prepared = physical.prepareStatement(sql);
+            }
+            PooledStatement statement = new PooledStatement(prepared, sql, cache);
+            // statements closed by the borrower needn't wait for the connection's release
+            statements.removeIf(PooledStatement::isClosed);
+            statements.add(statement);
+            return (PreparedStatement) statement.proxy(PreparedStatement.class);
+        }
+    }
+
+    public static class Stats {
+        private final long borrowCount;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long timeouts;
+        private final long created;
+        private final long destroyed;
+        private final int active;
+        private final int idle;
+        private final int maxSize;
+        private final long statementHits;
+        private final long statementMisses;
+
+        private Stats(long borrowCount, long totalWaitNanos, long maxWaitNanos, long timeouts, long created,
+                      long destroyed, int active, int idle, int maxSize, long statementHits, long statementMisses) {
+            this.borrowCount = borrowCount;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.active = active;
+            this.idle = idle;
+            this.maxSize = maxSize;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        public long getBorrowCount() {
+            return borrowCount;
+        }
+
+        public double getAverageWaitMillis() {
+            return borrowCount == 0 ? 0 : totalWaitNanos / (double) borrowCount / 1_000_000;
+        }
+
+        public double getMaxWaitMillis() {
+            return maxWaitNanos / 1_000_000.0;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getDestroyed() {
+            return destroyed;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public long getStatementHits() {
+            return statementHits;
+        }
+
+        public long getStatementMisses() {
+            return statementMisses;
+        }
+
+        public double getStatementHitRate() {
+            long prepared = statementHits + statementMisses;
+            return prepared == 0 ? 0 : statementHits / (double) prepared;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("borrows=%d avgWait=%.3fms maxWait=%.3fms timeouts=%d active=%d idle=%d max=%d " +
+                            "created=%d destroyed=%d statementHits=%d statementMisses=%d hitRate=%.1f%%",
+                    borrowCount, getAverageWaitMillis(), getMaxWaitMillis(), timeouts, active, idle, maxSize,
+                    created, destroyed, statementHits, statementMisses, 100 * getStatementHitRate());
+        }
+    }
+}
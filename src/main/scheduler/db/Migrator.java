@@ -0,0 +1,374 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the versioned SQL scripts in the migrations directory (V&lt;version&gt;__&lt;description&gt;.sql) in version
+ * order and records each one in the schema_history table with a SHA-256 checksum of its contents.
+ *
+ * Every migration runs in its own transaction. A migration that was already applied is never run again, and if its
+ * file has changed since then the run stops with an error instead of leaving the schema in an unknown state.
+ *
+ * A database that already has the scheduler tables but no history (created with create.sql) is baselined: every
+ * migration up to the baseline version is recorded as applied without running it. The baseline version is
+ * scheduler.migrations.baselineVersion if set, otherwise the last migration whose changes the schema already has,
+ * checked through the JDBC metadata with the probes in {@link #PROBES}. A migration added later needs a probe as
+ * well, or a database created with a create.sql that includes it would be migrated again.
+ *
+ * On SQL Server the run holds an exclusive application lock (sp_getapplock), so that several processes starting
+ * against the same database apply each migration once, one after the other.
+ */
+public class Migrator {
+
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    private static final String HISTORY_TABLE = "schema_history";
+    private static final NamedSql APPLIED = StatementRegistry.define("migrations.applied",
+            "SELECT version, checksum FROM " + HISTORY_TABLE);
+    private static final NamedSql RECORD = StatementRegistry.define("migrations.record", "INSERT INTO " +
+            HISTORY_TABLE + " (version, description, checksum, applied_at, execution_ms) VALUES (?, ?, ?, ?, ?)");
+    private static final String LOCK_RESOURCE = "scheduler.migrations";
+    private static final NamedSql LOCK = StatementRegistry.define("migrations.lock",
+            "SET NOCOUNT ON; DECLARE @result int; EXEC @result = sp_getapplock @Resource = '" + LOCK_RESOURCE +
+            "', @LockMode = 'Exclusive', @LockOwner = 'Session', @LockTimeout = ?; SELECT @result");
+    private static final NamedSql UNLOCK = StatementRegistry.define("migrations.unlock",
+            "EXEC sp_releaseapplock @Resource = '" + LOCK_RESOURCE + "', @LockOwner = 'Session'");
+
+    // whether the schema already has each migration's changes, in version order; V1 is the tables themselves
+    private static final Map<Integer, Probe> PROBES = new TreeMap<>(Map.of(
+            2, con -> indexNames(con, "Reservations", false).contains("IX_RESERVATIONS_CAREGIVER_TIME"),
+            3, con -> hasColumn(con, "Patients", "HashVersion"),
+            4, con -> "YES".equals(columnInfo(con, "Reservations", "appointment_id", "IS_AUTOINCREMENT")),
+            5, con -> uniqueOn(con, "Reservations", "caregiver_name"),
+            6, con -> tableExists(con, "ChangeLog"),
+            7, con -> tableExists(con, "Holds"),
+            8, con -> hasColumn(con, "ChangeLog", "ChangedAt"),
+            9, con -> tableExists(con, "DoseTakes")));
+
+    private final Path directory;
+    // 0 to find it with the probes
+    private final int baselineVersion;
+
+    public Migrator(Path directory, int baselineVersion) {
+        this.directory = directory;
+        this.baselineVersion = baselineVersion;
+    }
+
+    // -Dscheduler.migrations.dir overrides where the scripts are read from; by default they are looked up in the
+    // source tree and then next to the compiled classes
+    public static Migrator fromEnvironment() throws IOException {
+        String configured = System.getProperty("scheduler.migrations.dir");
+        Path directory = configured != null ? Paths.get(configured) : defaultDirectory();
+        return new Migrator(directory, Integer.getInteger("scheduler.migrations.baselineVersion", 0));
+    }
+
+    private static Path defaultDirectory() throws IOException {
+        Path source = Paths.get("src", "main", "resources", "migrations");
+        if (Files.isDirectory(source)) {
+            return source;
+        }
+        URL compiled = Migrator.class.getResource("/resources/migrations");
+        if (compiled != null && compiled.getProtocol().equals("file")) {
+            try {
+                return Paths.get(compiled.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        throw new IOException("Migrations directory not found, set scheduler.migrations.dir");
+    }
+
+    // Returns the descriptions of the migrations applied by this run
+    public List<String> migrate() throws IOException, SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            return migrate(con);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Runs on the given connection, which stays open
+    public List<String> migrate(Connection con) throws IOException, SQLException {
+        TreeMap<Integer, Migration> migrations = load();
+        List<String> applied = new ArrayList<>();
+        boolean locked = false;
+        try {
+            locked = lock(con);
+            Map<Integer, String> history = history(con, migrations);
+            for (Migration migration : migrations.values()) {
+                String checksum = history.get(migration.version);
+                if (checksum != null) {
+                    if (!checksum.equals(migration.checksum)) {
+                        throw new SQLException("Migration V" + migration.version + " (" + migration.description +
+                                ") was changed after it was applied");
+                    }
+                    continue;
+                }
+                apply(con, migration);
+                applied.add("V" + migration.version + " " + migration.description);
+            }
+        } finally {
+            if (locked) {
+                try (PreparedStatement statement = UNLOCK.prepare(con)) {
+                    statement.execute();
+                }
+            }
+        }
+        return applied;
+    }
+
+    // Waits up to scheduler.migrations.lockTimeoutMillis for the migration lock; false where there is no such lock
+    private static boolean lock(Connection con) throws SQLException {
+        if (!con.getMetaData().getDatabaseProductName().startsWith("Microsoft SQL Server")) {
+            return false;
+        }
+        try (PreparedStatement statement = LOCK.prepare(con)) {
+            statement.setInt(1, Integer.getInteger("scheduler.migrations.lockTimeoutMillis", 60000));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                // 0 and 1 mean granted, right away or after waiting
+                if (!resultSet.next() || resultSet.getInt(1) < 0) {
+                    throw new SQLException("Another process is migrating the database, try again later");
+                }
+            }
+        }
+        return true;
+    }
+
+    private TreeMap<Integer, Migration> load() throws IOException {
+        TreeMap<Integer, Migration> migrations = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "V*__*.sql")) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                int version = Integer.parseInt(matcher.group(1));
+                // line endings are normalized so a checkout on another OS doesn't change the checksum
+                String script = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).replace("\r\n", "\n");
+                Migration previous = migrations.put(version,
+                        new Migration(version, matcher.group(2).replace('_', ' '), script));
+                if (previous != null) {
+                    throw new IOException("Two migrations with version " + version);
+                }
+            }
+        }
+        return migrations;
+    }
+
+    private Map<Integer, String> history(Connection con, TreeMap<Integer, Migration> migrations)
+            throws SQLException {
+        if (!tableExists(con, HISTORY_TABLE)) {
+            try (Statement statement = con.createStatement()) {
+                statement.executeUpdate("CREATE TABLE " + HISTORY_TABLE + " (" +
+                        "version int PRIMARY KEY, description varchar(255), checksum varchar(64), " +
+                        "applied_at datetime2, execution_ms int)");
+            }
+            if (tableExists(con, "Caregivers")) {
+                int baseline = baselineVersion > 0 ? baselineVersion : detectVersion(con);
+                for (Migration migration : migrations.headMap(baseline, true).values()) {
+                    record(con, migration, 0);
+                }
+            }
+        }
+
+        Map<Integer, String> history = new HashMap<>();
+        try (PreparedStatement statement = APPLIED.prepare(con);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                history.put(resultSet.getInt("version"), resultSet.getString("checksum"));
+            }
+        }
+        return history;
+    }
+
+    // The last version whose changes the schema has, together with those of every version before it
+    private static int detectVersion(Connection con) throws SQLException {
+        int version = 1;
+        for (Map.Entry<Integer, Probe> probe : PROBES.entrySet()) {
+            if (probe.getKey() != version + 1 || !probe.getValue().applied(con)) {
+                break;
+            }
+            version = probe.getKey();
+        }
+        return version;
+    }
+
+    // The metadata lookups try the name as given, in upper case and in lower case, since databases differ in how
+    // they store unquoted names
+    private static String[] spellings(String name) {
+        return new String[]{name, name.toUpperCase(), name.toLowerCase()};
+    }
+
+    private static boolean hasColumn(Connection con, String table, String column) throws SQLException {
+        return columnInfo(con, table, column, "COLUMN_NAME") != null;
+    }
+
+    // The given field of the column's metadata, or null if there is no such column
+    private static String columnInfo(Connection con, String table, String column, String field) throws SQLException {
+        DatabaseMetaData metaData = con.getMetaData();
+        for (String tableName : spellings(table)) {
+            for (String columnName : spellings(column)) {
+                try (ResultSet columns = metaData.getColumns(null, null, tableName, columnName)) {
+                    if (columns.next()) {
+                        return columns.getString(field);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // The table's index names in upper case, all of them or only the unique ones
+    private static List<String> indexNames(Connection con, String table, boolean unique) throws SQLException {
+        List<String> names = new ArrayList<>();
+        DatabaseMetaData metaData = con.getMetaData();
+        for (String tableName : spellings(table)) {
+            try (ResultSet indexes = metaData.getIndexInfo(null, null, tableName, unique, true)) {
+                while (indexes.next()) {
+                    String name = indexes.getString("INDEX_NAME");
+                    if (name != null) {
+                        names.add(name.toUpperCase());
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    // Whether a unique index of the table starts with the column
+    private static boolean uniqueOn(Connection con, String table, String column) throws SQLException {
+        DatabaseMetaData metaData = con.getMetaData();
+        for (String tableName : spellings(table)) {
+            try (ResultSet indexes = metaData.getIndexInfo(null, null, tableName, true, true)) {
+                while (indexes.next()) {
+                    if (indexes.getShort("ORDINAL_POSITION") == 1
+                            && column.equalsIgnoreCase(indexes.getString("COLUMN_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean tableExists(Connection con, String table) throws SQLException {
+        DatabaseMetaData metaData = con.getMetaData();
+        for (String name : spellings(table)) {
+            try (ResultSet tables = metaData.getTables(null, null, name, new String[]{"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void apply(Connection con, Migration migration) throws SQLException {
+        long start = System.currentTimeMillis();
+        con.setAutoCommit(false);
+        try {
+            try (Statement statement = con.createStatement()) {
+                for (String sql : migration.statements()) {
+                    statement.executeUpdate(sql);
+                }
+            }
+            record(con, migration, (int) (System.currentTimeMillis() - start));
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Migration V" + migration.version + " (" + migration.description + ") failed: " +
+                    e.getMessage(), e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    private static void record(Connection con, Migration migration, int executionMillis) throws SQLException {
+        try (PreparedStatement statement = RECORD.prepare(con)) {
+            statement.setInt(1, migration.version);
+            statement.setString(2, migration.description);
+            statement.setString(3, migration.checksum);
+            statement.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            statement.setInt(5, executionMillis);
+            statement.executeUpdate();
+        }
+    }
+
+    private interface Probe {
+        boolean applied(Connection con) throws SQLException;
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String script;
+        private final String checksum;
+
+        private Migration(int version, String description, String script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+            this.checksum = sha256(script);
+        }
+
+        // statements are separated by ';' at the end of a line; "--" comment lines are dropped
+        private List<String> statements() {
+            List<String> statements = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            for (String line : script.split("\n")) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("--") || trimmed.isEmpty()) {
+                    continue;
+                }
+                if (trimmed.endsWith(";")) {
+                    current.append(trimmed, 0, trimmed.length() - 1);
+                    statements.add(current.toString());
+                    current.setLength(0);
+                } else {
+                    current.append(line).append('\n');
+                }
+            }
+            if (current.toString().trim().length() > 0) {
+                statements.add(current.toString());
+            }
+            return statements;
+        }
+
+        private static String sha256(String script) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
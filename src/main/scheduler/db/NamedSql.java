@@ -0,0 +1,47 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+
+/**
+ * A SQL statement with the name it is known by in metrics and the statement cache; see {@link StatementRegistry}.
+ *
+ * SQL containing %s is a template for statements with a variable number of rows, e.g. a multi-row INSERT. Every
+ * expansion made with {@link #withRows} keeps the template's name.
+ */
+public final class NamedSql {
+
+    private final String name;
+    private final String sql;
+
+    NamedSql(String name, String sql) {
+        this.name = name;
+        this.sql = sql;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    // Fills %s with rows copies of row separated by commas, e.g. withRows("(?, ?)", 3)
+    public NamedSql withRows(String row, int rows) {
+        return StatementRegistry.expand(this, String.format(sql, String.join(", ", Collections.nCopies(rows, row))));
+    }
+
+    // Prepares the statement on a pooled connection, where it may come from the connection's statement cache;
+    // closing it hands it back
+    public PreparedStatement prepare(Connection con) throws SQLException {
+        return con.prepareStatement(sql);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,149 @@
+package scheduler.db;
+
+import scheduler.metrics.LatencyHistogram;
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statement proxy pooled connections hand out.
+ *
+ * Every execute call is timed in the "sql" timers under the statement's registered name (or its normalized SQL, see
+ * {@link SqlLabels}) and failures are counted in "sql_errors"; the time covers the round trip, not reading the
+ * result set afterwards. Closing the proxy closes the result sets it produced and, for a statement from the
+ * connection's {@link StatementCache}, clears its parameters and returns it to the cache instead of closing it.
+ */
+class PooledStatement implements InvocationHandler {
+
+    private final Statement statement;
+    // null for plain Statements, whose SQL comes with each execute call
+    private final String sql;
+    private final String label;
+    private final LatencyHistogram timer;
+    // where close() returns the statement; null closes it for real
+    private final StatementCache cache;
+    private final List<ResultSet> resultSets = new ArrayList<>();
+    private boolean closed = false;
+
+    PooledStatement(Statement statement, String sql, StatementCache cache) {
+        this.statement = statement;
+        this.sql = sql;
+        this.label = sql == null ? null : label(sql);
+        this.timer = label == null ? null : Metrics.getInstance().timer("sql", label);
+        this.cache = cache;
+    }
+
+    // type is the interface the statement was asked for: Statement, PreparedStatement or CallableStatement
+    Statement proxy(Class<?> type) {
+        return (Statement) Proxy.newProxyInstance(PooledStatement.class.getClassLoader(), new Class<?>[]{type}, this);
+    }
+
+    private static String label(String sql) {
+        String name = StatementRegistry.nameOf(sql);
+        return name != null ? name : SqlLabels.of(sql);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                close();
+                return null;
+            case "isClosed":
+                return closed;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Pooled" + statement;
+            default:
+                if (closed) {
+                    throw new SQLException("Statement is closed");
+                }
+        }
+        if (!method.getName().startsWith("execute")) {
+            return track(call(method, args));
+        }
+        String name = label;
+        LatencyHistogram histogram = timer;
+        if (name == null) {
+            name = args != null && args.length > 0 && args[0] instanceof String ? label((String) args[0]) : "batch";
+            histogram = Metrics.getInstance().timer("sql", name);
+        }
+        long start = System.nanoTime();
+        try {
+            return track(call(method, args));
+        } catch (SQLException e) {
+            Metrics.getInstance().counter("sql_errors", name).increment();
+            throw e;
+        } finally {
+            histogram.recordSince(start);
+        }
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Object track(Object result) {
+        if (result instanceof ResultSet) {
+            resultSets.add((ResultSet) result);
+        }
+        return result;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    // Closes the result sets and either returns the statement to the cache or closes it; reusable is false when
+    // the connection itself is going away
+    void close(boolean reusable) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (ResultSet resultSet : resultSets) {
+            try {
+                resultSet.close();
+            } catch (SQLException ignored) {
+                // closing the result set is best effort
+            }
+        }
+        resultSets.clear();
+        if (cache != null && reusable) {
+            try {
+                PreparedStatement prepared = (PreparedStatement) statement;
+                prepared.clearParameters();
+                prepared.clearBatch();
+                cache.put(sql, prepared);
+                return;
+            } catch (SQLException e) {
+                // not reusable after all
+            }
+        }
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // closing the statement is best effort
+        }
+    }
+
+    private void close() {
+        close(true);
+    }
+}
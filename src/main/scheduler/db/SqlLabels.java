@@ -0,0 +1,32 @@
+package scheduler.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Turns SQL text into the name its latency is recorded under: whitespace collapsed, and multi-row VALUES lists and
+// IN lists shortened, so that the same statement built for different batch sizes counts as one
+final class SqlLabels {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern ROWS = Pattern.compile("(\\(\\?(?:, \\?)*\\))(?:, \\(\\?(?:, \\?)*\\))+");
+    private static final Pattern IN_LIST = Pattern.compile("IN \\(\\?(?:, \\?)+\\)");
+    // statements are built from a fixed set of templates, so this only guards against runaway dynamic SQL
+    private static final int MAX_CACHED = 10000;
+    private static final ConcurrentHashMap<String, String> labels = new ConcurrentHashMap<>();
+
+    private SqlLabels() {
+    }
+
+    static String of(String sql) {
+        String label = labels.get(sql);
+        if (label == null) {
+            label = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+            label = ROWS.matcher(label).replaceAll("$1, ...");
+            label = IN_LIST.matcher(label).replaceAll("IN (...)");
+            if (labels.size() < MAX_CACHED) {
+                labels.put(sql, label);
+            }
+        }
+        return label;
+    }
+}
@@ -0,0 +1,57 @@
+package scheduler.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The prepared statements of one physical connection that are not in use, least recently used first. Only the
+// thread that has borrowed the connection touches it, so it needs no locking.
+class StatementCache {
+
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>();
+
+    StatementCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    // Removes and returns a cached statement for the SQL, or null; it comes back through put once it is closed
+    PreparedStatement take(String sql) {
+        return statements.remove(sql);
+    }
+
+    void put(String sql, PreparedStatement statement) {
+        PreparedStatement previous = statements.put(sql, statement);
+        if (previous != null && previous != statement) {
+            close(previous);
+        }
+        Iterator<Map.Entry<String, PreparedStatement>> eldest = statements.entrySet().iterator();
+        while (statements.size() > capacity && eldest.hasNext()) {
+            close(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    void closeAll() {
+        statements.values().forEach(StatementCache::close);
+        statements.clear();
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // the statement is being discarded anyway
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package scheduler.db;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every SQL statement the scheduler runs, by name. The stores define their statements here once (see
+ * scheduler.store.jdbc.Statements), and the connection pool looks names up by SQL text to label the statement
+ * metrics; SQL that was never defined is labelled with its normalized text instead.
+ */
+public final class StatementRegistry {
+
+    // expanded row templates are remembered too, but only up to this many
+    private static final int MAX_EXPANSIONS = 10000;
+
+    private static final ConcurrentHashMap<String, NamedSql> byName = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> namesBySql = new ConcurrentHashMap<>();
+
+    private StatementRegistry() {
+    }
+
+    public static NamedSql define(String name, String sql) {
+        NamedSql named = new NamedSql(name, sql);
+        NamedSql previous = byName.putIfAbsent(name, named);
+        if (previous != null && !previous.getSql().equals(sql)) {
+            throw new IllegalStateException("Statement " + name + " is already defined with other SQL");
+        }
+        namesBySql.put(sql, name);
+        return previous != null ? previous : named;
+    }
+
+    static NamedSql expand(NamedSql template, String sql) {
+        if (namesBySql.size() < MAX_EXPANSIONS) {
+            namesBySql.putIfAbsent(sql, template.getName());
+        }
+        return new NamedSql(template.getName(), sql);
+    }
+
+    // The name the SQL was defined under, or null
+    public static String nameOf(String sql) {
+        return namesBySql.get(sql);
+    }
+
+    public static Collection<NamedSql> all() {
+        Map<String, NamedSql> sorted = new TreeMap<>(byName);
+        return Collections.unmodifiableCollection(sorted.values());
+    }
+}
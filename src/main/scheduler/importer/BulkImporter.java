@@ -0,0 +1,344 @@
+package scheduler.importer;
+
+import scheduler.journal.Event;
+import scheduler.journal.EventJournal;
+import scheduler.service.DoseInventory;
+import scheduler.service.VaccineCatalog;
+import scheduler.store.AvailabilityStore;
+import scheduler.store.Credentials;
+import scheduler.store.Storage;
+import scheduler.store.UserStore;
+import scheduler.store.VaccineStore;
+import scheduler.util.PasswordHasher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams a CSV or NDJSON file into one store.
+ *
+ * A reader thread parses and validates the file in batches and hands each batch to a worker pool, which hashes
+ * passwords in parallel. The calling thread takes the prepared batches in file order and writes each one in its own
+ * transaction through the configured {@link Storage}. Only queueDepth batches are in flight at any time, so memory
+ * stays bounded however large the file is.
+ *
+ * After every committed batch the number of the last line it covered is written to a checkpoint file; running the
+ * same import again skips everything up to that line. Rejected records go to a reject file together with the reason.
+ */
+public class BulkImporter {
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final ImportKind kind;
+    private final Path input;
+    private final Path rejectFile;
+    private final Path checkpointFile;
+    private final int batchSize;
+    private final int workers;
+    private final int queueDepth;
+    private final long progressIntervalMillis;
+
+    private long linesRead = 0;
+    private long inserted = 0;
+    private long rejected = 0;
+
+    public BulkImporter(ImportKind kind, Path input, int batchSize, int workers, int queueDepth,
+                        long progressIntervalMillis) {
+        this.kind = kind;
+        this.input = input;
+        this.rejectFile = Paths.get(input + ".rejects");
+        this.checkpointFile = Paths.get(input + ".checkpoint");
+        this.batchSize = batchSize;
+        this.workers = workers;
+        this.queueDepth = queueDepth;
+        this.progressIntervalMillis = progressIntervalMillis;
+    }
+
+    public static BulkImporter fromProperties(ImportKind kind, Path input) {
+        return new BulkImporter(kind, input,
+                Integer.getInteger("scheduler.import.batchSize", DEFAULT_BATCH_SIZE),
+                Integer.getInteger("scheduler.import.workers", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("scheduler.import.queueDepth", 8),
+                Long.getLong("scheduler.import.progressMillis", 5000L));
+    }
+
+    public void run() throws IOException, SQLException {
+        long resumeAfter = readCheckpoint();
+        if (resumeAfter > 0) {
+            System.out.println("Resuming after line " + resumeAfter);
+        }
+
+        ExecutorService hashers = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "import-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        BlockingQueue<Future<Batch>> prepared = new ArrayBlockingQueue<>(queueDepth);
+        Thread reader = new Thread(() -> readBatches(resumeAfter, hashers, prepared), "import-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long started = System.currentTimeMillis();
+        long lastProgress = started;
+        try (BufferedWriter rejects = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (true) {
+                Batch batch = prepared.take().get();
+                if (batch.isEnd()) {
+                    break;
+                }
+                write(batch);
+                for (String reject : batch.rejects) {
+                    rejects.write(reject);
+                    rejects.newLine();
+                }
+                rejects.flush();
+                rejected += batch.rejects.size();
+                linesRead = batch.lastLine;
+                writeCheckpoint(batch.lastLine);
+
+                long now = System.currentTimeMillis();
+                if (now - lastProgress >= progressIntervalMillis) {
+                    lastProgress = now;
+                    printProgress(started, now);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed while reading " + input, e.getCause());
+        } finally {
+            hashers.shutdownNow();
+            reader.interrupt();
+        }
+        printProgress(started, System.currentTimeMillis());
+        Files.deleteIfExists(checkpointFile);
+    }
+
+    private void printProgress(long started, long now) {
+        double seconds = Math.max(1, now - started) / 1000.0;
+        System.out.printf("%s: %d lines, %d inserted, %d rejected (%.0f rows/s)%n", kind.name().toLowerCase(),
+                linesRead, inserted, rejected, inserted / seconds);
+    }
+
+    private void readBatches(long resumeAfter, ExecutorService hashers, BlockingQueue<Future<Batch>> prepared) {
+        try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            RecordParser parser = RecordParser.forFile(input.toString());
+            Batch batch = new Batch();
+            long lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                Map<String, String> record;
+                try {
+                    // the CSV header has to be parsed even when resuming
+                    record = parser.parse(line);
+                    if (lineNumber <= resumeAfter || record == null) {
+                        continue;
+                    }
+                    batch.rows.add(new Row(lineNumber, line, validate(record)));
+                } catch (IllegalArgumentException e) {
+                    if (lineNumber > resumeAfter) {
+                        batch.rejects.add(reject(lineNumber, e.getMessage(), line));
+                    }
+                }
+                batch.lastLine = lineNumber;
+                if (batch.rows.size() >= batchSize) {
+                    prepared.put(prepare(batch, hashers));
+                    batch = new Batch();
+                }
+            }
+            if (!batch.rows.isEmpty() || !batch.rejects.isEmpty()) {
+                prepared.put(prepare(batch, hashers));
+            }
+            prepared.put(CompletableFuture.completedFuture(Batch.END));
+        } catch (IOException e) {
+            CompletableFuture<Batch> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            prepared.offer(failed);
+        } catch (InterruptedException e) {
+            // the writer gave up
+        }
+    }
+
+    private Map<String, String> validate(Map<String, String> record) {
+        for (String field : kind.getFields()) {
+            String value = record.get(field);
+            if (value == null || value.isEmpty()) {
+                throw new IllegalArgumentException("missing " + field);
+            }
+        }
+        if (kind == ImportKind.VACCINES && Integer.parseInt(record.get("doses")) <= 0) {
+            throw new IllegalArgumentException("doses must be positive");
+        }
+        if (kind == ImportKind.AVAILABILITIES) {
+            Date.valueOf(record.get("date"));
+        }
+        return record;
+    }
+
+    private Future<Batch> prepare(Batch batch, ExecutorService hashers) {
+        if (!kind.needsHashing()) {
+            return CompletableFuture.completedFuture(batch);
+        }
+        PasswordHasher hasher = PasswordHasher.getInstance();
+        return hashers.submit(() -> {
+            for (Row row : batch.rows) {
+                row.salt = hasher.generateSalt();
+                row.hash = hasher.hash(row.fields.get("password"), row.salt, hasher.getCurrentVersion());
+            }
+            return batch;
+        });
+    }
+
+    private void write(Batch batch) throws SQLException {
+        Storage storage = Storage.getInstance();
+        switch (kind) {
+            case PATIENTS:
+                inserted += writeUsers(storage.patients(), batch);
+                break;
+            case CAREGIVERS:
+                inserted += writeUsers(storage.caregivers(), batch);
+                break;
+            case VACCINES:
+                inserted += writeVaccines(storage.vaccines(), batch);
+                break;
+            default:
+                inserted += writeAvailabilities(storage.availabilities(), batch);
+        }
+    }
+
+    private int writeUsers(UserStore users, Batch batch) throws SQLException {
+        int version = PasswordHasher.getInstance().getCurrentVersion();
+        List<Credentials> credentials = new ArrayList<>();
+        for (Row row : batch.rows) {
+            credentials.add(new Credentials(row.fields.get("username"), row.salt, row.hash, version));
+        }
+        boolean[] added = users.insertAll(credentials);
+        int count = 0;
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                count++;
+            } else {
+                Row row = batch.rows.get(i);
+                batch.rejects.add(reject(row.lineNumber, "username taken", row.raw));
+            }
+        }
+        return count;
+    }
+
+    // like add_doses: existing vaccines get the doses added, new ones are created
+    private int writeVaccines(VaccineStore vaccines, Batch batch) throws SQLException {
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        for (Row row : batch.rows) {
+            doses.merge(row.fields.get("name"), Integer.parseInt(row.fields.get("doses")), Integer::sum);
+        }
+        vaccines.applyDeltas(doses, true);
+        doses.forEach((name, num) -> EventJournal.getInstance().record(Event.dosesAdded(name, num)));
+        DoseInventory inventory = DoseInventory.getInstance();
+        if (inventory.isLoaded()) {
+            doses.forEach(inventory::add);
+        }
+        VaccineCatalog.getInstance().changed();
+        return batch.rows.size();
+    }
+
+    private int writeAvailabilities(AvailabilityStore availabilities, Batch batch) throws SQLException {
+        List<String> usernames = new ArrayList<>();
+        List<LocalDate> dates = new ArrayList<>();
+        for (Row row : batch.rows) {
+            usernames.add(row.fields.get("username"));
+            dates.add(Date.valueOf(row.fields.get("date")).toLocalDate());
+        }
+        boolean[] added = availabilities.addAll(usernames, dates);
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                EventJournal.getInstance().record(Event.availabilityAdded(usernames.get(i), dates.get(i)));
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                count++;
+            } else {
+                Row row = batch.rows.get(i);
+                batch.rejects.add(reject(row.lineNumber, "already available or unknown caregiver", row.raw));
+            }
+        }
+        return count;
+    }
+
+    private static String reject(long lineNumber, String reason, String raw) {
+        return lineNumber + "\t" + reason + "\t" + raw;
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim());
+    }
+
+    // write-then-rename so a crash never leaves a half-written checkpoint behind
+    private void writeCheckpoint(long lastLine) throws IOException {
+        Path tmp = Paths.get(checkpointFile + ".tmp");
+        Files.write(tmp, Long.toString(lastLine).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    private static class Row {
+        private final long lineNumber;
+        private final String raw;
+        private final Map<String, String> fields;
+        private byte[] salt;
+        private byte[] hash;
+
+        private Row(long lineNumber, String raw, Map<String, String> fields) {
+            this.lineNumber = lineNumber;
+            this.raw = raw;
+            this.fields = fields;
+        }
+    }
+
+    private static class Batch {
+        private static final Batch END = new Batch();
+
+        private final List<Row> rows = new ArrayList<>();
+        private final List<String> rejects = new ArrayList<>();
+        private long lastLine = 0;
+
+        private boolean isEnd() {
+            return this == END;
+        }
+    }
+}
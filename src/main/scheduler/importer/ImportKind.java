@@ -0,0 +1,29 @@
+package scheduler.importer;
+
+/**
+ * The tables that can be bulk imported and the fields each record must have.
+ */
+public enum ImportKind {
+    PATIENTS("username", "password"),
+    CAREGIVERS("username", "password"),
+    VACCINES("name", "doses"),
+    AVAILABILITIES("username", "date");
+
+    private final String[] fields;
+
+    ImportKind(String... fields) {
+        this.fields = fields;
+    }
+
+    public String[] getFields() {
+        return fields;
+    }
+
+    public boolean needsHashing() {
+        return this == PATIENTS || this == CAREGIVERS;
+    }
+
+    public static ImportKind parse(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,167 @@
+package scheduler.importer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns one input line into a field map. CSV input needs a header line naming the columns; NDJSON input has one
+ * flat JSON object per line with string or number values.
+ */
+public abstract class RecordParser {
+
+    public static RecordParser forFile(String fileName) {
+        String lower = fileName.toLowerCase();
+        return lower.endsWith(".ndjson") || lower.endsWith(".jsonl") ? new NdjsonParser() : new CsvParser();
+    }
+
+    // Returns null for lines that carry no record (blank lines, the CSV header)
+    public abstract Map<String, String> parse(String line);
+
+    static class CsvParser extends RecordParser {
+        private List<String> header;
+
+        @Override
+        public Map<String, String> parse(String line) {
+            if (line.isBlank()) {
+                return null;
+            }
+            List<String> values = split(line);
+            if (header == null) {
+                header = new ArrayList<>();
+                for (String name : values) {
+                    header.add(name.trim().toLowerCase());
+                }
+                return null;
+            }
+            if (values.size() != header.size()) {
+                throw new IllegalArgumentException("expected " + header.size() + " columns but got " + values.size());
+            }
+            Map<String, String> record = new HashMap<>();
+            for (int i = 0; i < values.size(); i++) {
+                record.put(header.get(i), values.get(i).trim());
+            }
+            return record;
+        }
+
+        // RFC 4180 style: fields may be quoted, and "" inside quotes is a literal quote
+        private static List<String> split(String line) {
+            List<String> values = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        current.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    values.add(current.toString());
+                    current.setLength(0);
+                } else {
+                    current.append(c);
+                }
+            }
+            if (quoted) {
+                throw new IllegalArgumentException("unterminated quote");
+            }
+            values.add(current.toString());
+            return values;
+        }
+    }
+
+    static class NdjsonParser extends RecordParser {
+        @Override
+        public Map<String, String> parse(String line) {
+            String s = line.trim();
+            if (s.isEmpty()) {
+                return null;
+            }
+            if (!s.startsWith("{") || !s.endsWith("}")) {
+                throw new IllegalArgumentException("not a JSON object");
+            }
+            Map<String, String> record = new HashMap<>();
+            int[] pos = {1};
+            skipSpaces(s, pos);
+            if (s.charAt(pos[0]) == '}') {
+                return record;
+            }
+            while (true) {
+                skipSpaces(s, pos);
+                String key = readString(s, pos);
+                skipSpaces(s, pos);
+                expect(s, pos, ':');
+                skipSpaces(s, pos);
+                String value = s.charAt(pos[0]) == '"' ? readString(s, pos) : readBare(s, pos);
+                record.put(key.toLowerCase(), value);
+                skipSpaces(s, pos);
+                if (s.charAt(pos[0]) == '}') {
+                    return record;
+                }
+                expect(s, pos, ',');
+            }
+        }
+
+        private static void skipSpaces(String s, int[] pos) {
+            while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0]))) {
+                pos[0]++;
+            }
+        }
+
+        private static void expect(String s, int[] pos, char c) {
+            if (pos[0] >= s.length() || s.charAt(pos[0]) != c) {
+                throw new IllegalArgumentException("expected '" + c + "' at column " + (pos[0] + 1));
+            }
+            pos[0]++;
+        }
+
+        private static String readString(String s, int[] pos) {
+            expect(s, pos, '"');
+            StringBuilder value = new StringBuilder();
+            while (pos[0] < s.length()) {
+                char c = s.charAt(pos[0]++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\') {
+                    char escaped = s.charAt(pos[0]++);
+                    switch (escaped) {
+                        case 'n':
+                            value.append('\n');
+                            break;
+                        case 't':
+                            value.append('\t');
+                            break;
+                        case 'u':
+                            value.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+                            pos[0] += 4;
+                            break;
+                        default:
+                            value.append(escaped);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        // numbers, true/false and null; null becomes a missing field
+        private static String readBare(String s, int[] pos) {
+            int start = pos[0];
+            while (pos[0] < s.length() && ",} \t".indexOf(s.charAt(pos[0])) < 0) {
+                pos[0]++;
+            }
+            String value = s.substring(start, pos[0]);
+            return value.equals("null") ? null : value;
+        }
+    }
+}
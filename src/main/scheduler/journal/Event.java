@@ -0,0 +1,165 @@
+package scheduler.journal;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+// One change to the scheduling state, as recorded in the EventJournal
+public class Event {
+
+    public enum Type {
+        RESERVATION_CREATED,
+        RESERVATION_CANCELLED,
+        AVAILABILITY_ADDED,
+        AVAILABILITY_REMOVED,
+        // doses is negative when doses were taken out other than by a reservation
+        DOSES_ADDED,
+        // a hold claims a slot and takes a dose until it is confirmed into a reservation or gives them back
+        HOLD_PLACED,
+        HOLD_CONFIRMED,
+        HOLD_RELEASED
+    }
+
+    private final Type type;
+    private final long sequence;
+    private final long commit;
+    private final long timestamp;
+    private final int appointmentId;
+    private final LocalDate date;
+    private final String caregiver;
+    private final String patient;
+    private final String vaccine;
+    private final int doses;
+    private final int holdId;
+
+    Event(Type type, long sequence, long commit, long timestamp, int appointmentId, LocalDate date, String caregiver,
+          String patient, String vaccine, int doses, int holdId) {
+        this.type = type;
+        this.sequence = sequence;
+        this.commit = commit;
+        this.timestamp = timestamp;
+        this.appointmentId = appointmentId;
+        this.date = date;
+        this.caregiver = caregiver;
+        this.patient = patient;
+        this.vaccine = vaccine;
+        this.doses = doses;
+        this.holdId = holdId;
+    }
+
+    // the journal assigns the sequence number, commit number and timestamp when the event is appended
+    public static Event reservationCreated(int appointmentId, LocalDate date, String caregiver, String patient,
+                                           String vaccine) {
+        return new Event(Type.RESERVATION_CREATED, 0, 0, 0, appointmentId, date, caregiver, patient, vaccine, 1, 0);
+    }
+
+    public static Event reservationCancelled(int appointmentId, LocalDate date, String caregiver, String patient,
+                                             String vaccine) {
+        return new Event(Type.RESERVATION_CANCELLED, 0, 0, 0, appointmentId, date, caregiver, patient, vaccine, 0, 0);
+    }
+
+    public static Event availabilityAdded(String caregiver, LocalDate date) {
+        return new Event(Type.AVAILABILITY_ADDED, 0, 0, 0, 0, date, caregiver, null, null, 0, 0);
+    }
+
+    public static Event availabilityRemoved(String caregiver, LocalDate date) {
+        return new Event(Type.AVAILABILITY_REMOVED, 0, 0, 0, 0, date, caregiver, null, null, 0, 0);
+    }
+
+    public static Event dosesAdded(String vaccine, int doses) {
+        return new Event(Type.DOSES_ADDED, 0, 0, 0, 0, null, null, null, vaccine, doses, 0);
+    }
+
+    public static Event holdPlaced(int holdId, LocalDate date, String caregiver, String patient, String vaccine) {
+        return new Event(Type.HOLD_PLACED, 0, 0, 0, 0, date, caregiver, patient, vaccine, 1, holdId);
+    }
+
+    // the slot and the dose went from the hold to the reservation
+    public static Event holdConfirmed(int holdId, int appointmentId, LocalDate date, String caregiver, String patient,
+                                      String vaccine) {
+        return new Event(Type.HOLD_CONFIRMED, 0, 0, 0, appointmentId, date, caregiver, patient, vaccine, 0, holdId);
+    }
+
+    public static Event holdReleased(int holdId, LocalDate date, String caregiver, String patient, String vaccine) {
+        return new Event(Type.HOLD_RELEASED, 0, 0, 0, 0, date, caregiver, patient, vaccine, 1, holdId);
+    }
+
+    Event stamped(long sequence, long commit, long timestamp) {
+        return new Event(type, sequence, commit, timestamp, appointmentId, date, caregiver, patient, vaccine, doses,
+                holdId);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // the number of the store transaction that made the change (see scheduler.store.CommitOrder); events replay in
+    // this order, which the sequence numbers, given out as events are appended, need not follow
+    public long getCommit() {
+        return commit;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public int getDoses() {
+        return doses;
+    }
+
+    // 0 for events that are not about a hold
+    public int getHoldId() {
+        return holdId;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder();
+        line.append(sequence).append(' ').append(Instant.ofEpochMilli(timestamp)).append(' ').append(type);
+        if (commit != 0) {
+            line.append(" commit=").append(commit);
+        }
+        if (holdId != 0) {
+            line.append(" hold=").append(holdId);
+        }
+        if (appointmentId != 0) {
+            line.append(" id=").append(appointmentId);
+        }
+        if (date != null) {
+            line.append(" date=").append(date);
+        }
+        if (caregiver != null) {
+            line.append(" caregiver=").append(caregiver);
+        }
+        if (patient != null) {
+            line.append(" patient=").append(patient);
+        }
+        if (vaccine != null) {
+            line.append(" vaccine=").append(vaccine).append(" doses=").append(doses);
+        }
+        return line.toString();
+    }
+}
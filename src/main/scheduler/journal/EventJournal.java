@@ -0,0 +1,503 @@
+package scheduler.journal;
+
+import scheduler.store.CommitOrder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of scheduling events in memory-mapped segment files, with periodic snapshots.
+ *
+ * Each event is one record: its length, the CRC32 of its body and the body (sequence number, timestamp, type, fields
+ * and commit number). The body is written before the length, so a record only becomes visible once it is complete; on
+ * open the last segment is scanned up to the first record that is incomplete, corrupt or out of sequence, and
+ * appending continues from there. When a segment is full a new one is started, named after its first sequence number.
+ *
+ * Journaled writes don't wait for each other: an event carries the number its store transaction took right before it
+ * committed ({@link CommitOrder}), and its sequence number only says when it was appended. The
+ * {@link SchedulingState} comes out the same in any order, and replay hands events over in commit order.
+ *
+ * The journal keeps the state that its events add up to. Every snapshotEvents events that state is written to a
+ * snapshot file in the background, and the segments that the older of the two kept snapshots covers are moved to the
+ * archive subdirectory, where they stay as the audit trail. Opening the journal reads the newest snapshot and only the
+ * segments after it, and on start the scheduler loads its caches from that state instead of the tables. The journal
+ * is not the source of truth, though: after a stop that didn't close it, the scheduler {@link #reconcile}s it with the
+ * stores, recording whatever changed while it was not looking.
+ */
+public class EventJournal {
+
+    private static final EventJournal INSTANCE = new EventJournal();
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String ARCHIVE = "archive";
+    // left by close, so that the next open knows no event went missing
+    private static final String CLOSED = "closed";
+    // length and checksum in front of every record
+    private static final int HEADER_BYTES = 8;
+    private static final Comparator<Event> COMMIT_ORDER =
+            Comparator.comparingLong(Event::getCommit).thenComparingLong(Event::getSequence);
+
+    private Path directory;
+    private long segmentBytes;
+    private long snapshotEvery;
+    private boolean sync;
+    private volatile boolean open = false;
+    private boolean hasHistory = false;
+    private boolean closedCleanly = false;
+
+    private MappedByteBuffer segment;
+    private long nextSequence = 1;
+    private long eventsSinceSnapshot = 0;
+    private SchedulingState state = new SchedulingState();
+    private ExecutorService snapshotter;
+    private final Object snapshotLock = new Object();
+    // the last commit number in the previous snapshot; no event from before it arrives late anymore
+    private long snapshotCommit = 0;
+
+    public static EventJournal getInstance() {
+        return INSTANCE;
+    }
+
+    // Opens the journal in directory (created if needed) and rebuilds the state from the newest snapshot and the
+    // events after it
+    public synchronized void open(Path directory, long segmentBytes, long snapshotEvery, boolean sync)
+            throws IOException {
+        if (open) {
+            return;
+        }
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.sync = sync;
+        closedCleanly = Files.deleteIfExists(directory.resolve(CLOSED));
+
+        SchedulingState restored = readLatestSnapshot(directory);
+        state = restored != null ? restored : new SchedulingState();
+        List<Event> tail = new ArrayList<>();
+        Scan end = read(directory, state.getLastSequence(), tail::add);
+        tail.sort(COMMIT_ORDER);
+        tail.forEach(state::apply);
+        hasHistory = restored != null || end.next > 1;
+        nextSequence = Math.max(state.getLastSequence(), end.next - 1) + 1;
+        snapshotCommit = state.getLastCommit();
+        CommitOrder.getInstance().advanceTo(state.getLastCommit());
+
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty() || end.next != nextSequence) {
+            // the snapshot is ahead of a segment that lost its end; what follows goes to a segment of its own
+            segment = map(segmentPath(nextSequence));
+        } else {
+            segment = map(segments.get(segments.size() - 1));
+            segment.position(end.position);
+        }
+        snapshotter = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "journal-snapshotter");
+            t.setDaemon(true);
+            return t;
+        });
+        open = true;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    // true if the journal had a snapshot or events when it was opened
+    public synchronized boolean hasHistory() {
+        return hasHistory;
+    }
+
+    // true if the last process to open the journal closed it, so it has every event that process recorded
+    public synchronized boolean wasClosedCleanly() {
+        return closedCleanly;
+    }
+
+    // Takes the given contents as the starting state of a journal without history and snapshots it right away
+    public void baseline(SchedulingState initial) throws IOException {
+        synchronized (this) {
+            if (hasHistory) {
+                return;
+            }
+            state = initial;
+            hasHistory = true;
+        }
+        snapshot();
+    }
+
+    public synchronized SchedulingState getState() {
+        return state.copy();
+    }
+
+    // Records events that bring the journal's state in line with what the stores hold, for the changes it missed
+    // while it was closed or lost with a torn segment; returns how many it recorded. Call it before any journaled
+    // write, since a write that commits while it compares would be undone.
+    public int reconcile(NavigableMap<LocalDate, List<String>> availability, Map<String, Integer> doses) {
+        List<Event> corrections = getState().differences(availability, doses);
+        if (!corrections.isEmpty()) {
+            // one number after every event so far, so that the corrections win
+            CommitOrder.getInstance().committing();
+        }
+        corrections.forEach(this::record);
+        return corrections.size();
+    }
+
+    // Appends the event, stamped with the number of this thread's last store commit; does nothing if the journal is
+    // not open. A journal that fails to write is closed, since its state would no longer match the stores.
+    public void record(Event event) {
+        if (!open) {
+            return;
+        }
+        long commit = CommitOrder.getInstance().last();
+        boolean snapshotDue;
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            Event stamped = event.stamped(nextSequence, commit, System.currentTimeMillis());
+            try {
+                append(encode(stamped));
+            } catch (IOException e) {
+                System.out.println("Could not write to the event journal, journaling stopped: " + e.getMessage());
+                open = false;
+                return;
+            }
+            nextSequence++;
+            state.apply(stamped);
+            snapshotDue = ++eventsSinceSnapshot >= snapshotEvery;
+            if (snapshotDue) {
+                eventsSinceSnapshot = 0;
+            }
+        }
+        if (snapshotDue) {
+            snapshotter.execute(this::snapshotQuietly);
+        }
+    }
+
+    private void append(byte[] body) throws IOException {
+        int needed = HEADER_BYTES + body.length;
+        if (needed > segmentBytes) {
+            throw new IOException("Event of " + body.length + " bytes does not fit in a journal segment");
+        }
+        if (segment.remaining() < needed) {
+            // a zero length marks the end of a segment
+            if (segment.remaining() >= 4) {
+                segment.putInt(segment.position(), 0);
+            }
+            segment.force();
+            segment = map(segmentPath(nextSequence));
+        }
+        int position = segment.position();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        segment.position(position + HEADER_BYTES);
+        segment.put(body);
+        segment.putInt(position + 4, (int) crc.getValue());
+        // written last, so a reader never sees a length without the record behind it
+        segment.putInt(position, body.length);
+        if (sync) {
+            segment.force();
+        }
+    }
+
+    // Writes the current state to a new snapshot file, removes all but the previous one and archives the segments
+    // that the previous one covers
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            SchedulingState copy = getState();
+            Path tmp = directory.resolve(SNAPSHOT_PREFIX + "tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                copy.write(out);
+            }
+            Path target = directory.resolve(String.format("%s%020d.bin", SNAPSHOT_PREFIX, copy.getLastSequence()));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            List<Path> snapshots = snapshots(directory);
+            for (int i = 0; i < snapshots.size() - 2; i++) {
+                Files.deleteIfExists(snapshots.get(i));
+            }
+            retire(sequenceOf(snapshots.get(Math.max(0, snapshots.size() - 2)), SNAPSHOT_PREFIX));
+
+            long horizon = snapshotCommit;
+            snapshotCommit = copy.getLastCommit();
+            synchronized (this) {
+                state.forget(horizon);
+            }
+        }
+    }
+
+    // Moves the segments whose events all are at or before covered to the archive; the last one is never moved,
+    // since it is still written to
+    private void retire(long covered) throws IOException {
+        List<Path> live = segments(directory);
+        Path archive = directory.resolve(ARCHIVE);
+        for (int i = 0; i + 1 < live.size() && sequenceOf(live.get(i + 1), SEGMENT_PREFIX) <= covered + 1; i++) {
+            Files.createDirectories(archive);
+            Files.move(live.get(i), archive.resolve(live.get(i).getFileName()), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            // the next snapshot will try again; until then opening replays more events
+        }
+    }
+
+    // Forces the last segment to disk and leaves a snapshot, so the next open replays nothing
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            segment.force();
+            snapshotter.shutdown();
+        }
+        snapshot();
+        Files.write(directory.resolve(CLOSED), new byte[0]);
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s%020d.log", SEGMENT_PREFIX, firstSequence));
+    }
+
+    // The state the newest snapshot and the events after it add up to, without opening the journal for writing
+    public static SchedulingState readState(Path directory) throws IOException {
+        SchedulingState restored = readLatestSnapshot(directory);
+        SchedulingState state = restored != null ? restored : new SchedulingState();
+        replay(directory, state.getLastSequence(), state::apply);
+        return state;
+    }
+
+    // Hands every event after afterSequence to the consumer, in the order their writes committed
+    public static void replay(Path directory, long afterSequence, Consumer<Event> consumer) throws IOException {
+        List<Event> events = new ArrayList<>();
+        read(directory, afterSequence, events::add);
+        events.sort(COMMIT_ORDER);
+        events.forEach(consumer);
+    }
+
+    // Hands every event, archived ones included, to the consumer in the order they were appended
+    public static void events(Path directory, Consumer<Event> consumer) throws IOException {
+        read(directory, 0, consumer);
+    }
+
+    // Hands the events after afterSequence to the consumer in the order they were appended, without reading the
+    // segments that end before them; returns where the last segment's events end
+    private static Scan read(Path directory, long afterSequence, Consumer<Event> consumer) throws IOException {
+        List<Path> segments = list(directory.resolve(ARCHIVE), SEGMENT_PREFIX + "*.log");
+        segments.addAll(segments(directory));
+        Scan end = new Scan(0, 1);
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && sequenceOf(segments.get(i + 1), SEGMENT_PREFIX) <= afterSequence + 1) {
+                continue;
+            }
+            Path path = segments.get(i);
+            if (!Files.exists(path)) {
+                // archived since it was listed
+                path = directory.resolve(ARCHIVE).resolve(path.getFileName());
+            }
+            end = scan(path, afterSequence, consumer);
+        }
+        return end;
+    }
+
+    private static Scan scan(Path path, long afterSequence, Consumer<Event> consumer) throws IOException {
+        long expected = sequenceOf(path, SEGMENT_PREFIX);
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int position = 0;
+        while (buffer.limit() - position >= HEADER_BYTES) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.limit() - position - HEADER_BYTES) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.position(position + HEADER_BYTES);
+            buffer.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            Event event = decode(body);
+            if (event.getSequence() != expected) {
+                break;
+            }
+            // the sequence numbers make events after a torn write impossible to mistake for new ones
+            expected++;
+            position += HEADER_BYTES + length;
+            if (event.getSequence() > afterSequence) {
+                consumer.accept(event);
+            }
+        }
+        return new Scan(position, expected);
+    }
+
+    // Where a segment's valid records end, and the sequence number the next one would have
+    private static class Scan {
+        private final int position;
+        private final long next;
+
+        private Scan(int position, long next) {
+            this.position = position;
+            this.next = next;
+        }
+    }
+
+    private static SchedulingState readLatestSnapshot(Path directory) throws IOException {
+        List<Path> snapshots = snapshots(directory);
+        Collections.reverse(snapshots);
+        for (Path path : snapshots) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                return SchedulingState.read(in);
+            } catch (IOException e) {
+                // fall back to the snapshot before it
+            }
+        }
+        return null;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        return list(directory, SEGMENT_PREFIX + "*.log");
+    }
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+        return list(directory, SNAPSHOT_PREFIX + "*.bin");
+    }
+
+    // the sequence number in a segment's or snapshot's name
+    private static long sequenceOf(Path path, String prefix) {
+        return Long.parseLong(path.getFileName().toString().substring(prefix.length(), prefix.length() + 20));
+    }
+
+    // zero-padded names sort in sequence order
+    private static List<Path> list(Path directory, String glob) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return paths;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(paths::add);
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static byte[] encode(Event event) throws IOException {
+        byte[] caregiver = bytes(event.getCaregiver());
+        byte[] patient = bytes(event.getPatient());
+        byte[] vaccine = bytes(event.getVaccine());
+        ByteBuffer body = ByteBuffer.allocate(8 + 8 + 1 + 4 + 8 + size(caregiver) + size(patient) + size(vaccine)
+                + 4 + 4 + 8);
+        body.putLong(event.getSequence());
+        body.putLong(event.getTimestamp());
+        body.put((byte) event.getType().ordinal());
+        body.putInt(event.getAppointmentId());
+        body.putLong(event.getDate() == null ? Long.MIN_VALUE : event.getDate().toEpochDay());
+        putString(body, caregiver);
+        putString(body, patient);
+        putString(body, vaccine);
+        body.putInt(event.getDoses());
+        body.putInt(event.getHoldId());
+        body.putLong(event.getCommit());
+        return body.array();
+    }
+
+    private static Event decode(byte[] bytes) {
+        ByteBuffer body = ByteBuffer.wrap(bytes);
+        long sequence = body.getLong();
+        long timestamp = body.getLong();
+        Event.Type type = Event.Type.values()[body.get()];
+        int appointmentId = body.getInt();
+        long epochDay = body.getLong();
+        LocalDate date = epochDay == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(epochDay);
+        String caregiver = getString(body);
+        String patient = getString(body);
+        String vaccine = getString(body);
+        int doses = body.getInt();
+        // events written before holds were journaled end here
+        int holdId = body.hasRemaining() ? body.getInt() : 0;
+        // and those written before they carried commit numbers here
+        long commit = body.hasRemaining() ? body.getLong() : 0;
+        return new Event(type, sequence, commit, timestamp, appointmentId, date, caregiver, patient, vaccine, doses,
+                holdId);
+    }
+
+    // null stays null; a string's length has to fit the short in front of it
+    private static byte[] bytes(String value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("A name of " + bytes.length + " bytes is too long for the journal");
+        }
+        return bytes;
+    }
+
+    private static int size(byte[] bytes) {
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer body, byte[] bytes) {
+        if (bytes == null) {
+            body.putShort((short) -1);
+            return;
+        }
+        body.putShort((short) bytes.length);
+        body.put(bytes);
+    }
+
+    private static String getString(ByteBuffer body) {
+        int length = body.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // the directory from -Dscheduler.journal.dir, or null if journaling is off
+    public static Path configuredDirectory() {
+        String dir = System.getProperty("scheduler.journal.dir");
+        return dir == null ? null : Paths.get(dir);
+    }
+}
@@ -0,0 +1,64 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Offline reports over a journal directory; safe to run while a scheduler is appending to it.
+ *
+ * dump prints every event in the order they were appended (the audit trail, archived segments included), optionally
+ * only those dated within [from, to]. capacity rebuilds the state from the newest snapshot and the events after it and
+ * prints free and booked slots per date and the doses left per vaccine.
+ */
+public class JournalReplay {
+
+    public static void dump(Path directory, LocalDate from, LocalDate to, PrintStream out) throws IOException {
+        Map<Event.Type, Integer> counts = new EnumMap<>(Event.Type.class);
+        EventJournal.events(directory, event -> {
+            if (from != null && (event.getDate() == null || event.getDate().isBefore(from)
+                    || event.getDate().isAfter(to))) {
+                return;
+            }
+            counts.merge(event.getType(), 1, Integer::sum);
+            out.println(event);
+        });
+        counts.forEach((type, count) -> out.println(type + ": " + count));
+    }
+
+    public static void capacity(Path directory, LocalDate from, LocalDate to, PrintStream out) throws IOException {
+        SchedulingState state = EventJournal.readState(directory);
+
+        NavigableMap<LocalDate, List<String>> free = state.getAvailability();
+        NavigableMap<LocalDate, Integer> booked = state.getBooked();
+        if (from != null) {
+            free = free.subMap(from, true, to, true);
+            booked = booked.subMap(from, true, to, true);
+        }
+        NavigableMap<LocalDate, Integer> dates = new TreeMap<>(booked);
+        free.keySet().forEach(date -> dates.putIfAbsent(date, 0));
+
+        out.println("date        free  booked  utilization");
+        int totalFree = 0;
+        int totalBooked = 0;
+        for (Map.Entry<LocalDate, Integer> entry : dates.entrySet()) {
+            List<String> caregivers = free.get(entry.getKey());
+            int freeSlots = caregivers == null ? 0 : caregivers.size();
+            int bookedSlots = entry.getValue();
+            totalFree += freeSlots;
+            totalBooked += bookedSlots;
+            out.printf("%s  %4d  %6d  %10.1f%%%n", entry.getKey(), freeSlots, bookedSlots,
+                    100.0 * bookedSlots / Math.max(1, freeSlots + bookedSlots));
+        }
+        out.printf("total       %4d  %6d  %10.1f%%%n", totalFree, totalBooked,
+                100.0 * totalBooked / Math.max(1, totalFree + totalBooked));
+        state.getDoses().forEach((vaccine, doses) -> out.println(vaccine + " " + doses + " doses left"));
+        out.println("as of event " + state.getLastSequence());
+    }
+}
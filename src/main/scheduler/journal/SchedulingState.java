@@ -0,0 +1,245 @@
+package scheduler.journal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * What the journal knows after applying a prefix of its events: free caregivers per date, doses per vaccine and
+ * booked appointments per date. This is what a snapshot stores.
+ *
+ * Events reach the journal in the order their writers get to it, not always in the order their writes committed, so
+ * the result doesn't depend on the order they are applied in. Doses and booked counts are sums. A slot keeps the
+ * commit number of the last event that set it, including one that took it, and an event from an earlier commit no
+ * longer changes it. Those numbers are only needed while such a late event may still arrive, so {@link #forget} drops
+ * the ones older than a horizon.
+ */
+public class SchedulingState {
+
+    private static final int SNAPSHOT_FORMAT = 2;
+
+    private final TreeMap<LocalDate, TreeSet<String>> availability = new TreeMap<>();
+    // commit number of the last event that set each slot, free or taken
+    private final TreeMap<LocalDate, TreeMap<String, Long>> versions = new TreeMap<>();
+    private final TreeMap<String, Integer> doses = new TreeMap<>();
+    private final TreeMap<LocalDate, Integer> booked = new TreeMap<>();
+    private long lastSequence = 0;
+    private long lastCommit = 0;
+
+    SchedulingState() {
+    }
+
+    // Starts from what the stores hold right now, for a journal that has no history yet
+    public SchedulingState(NavigableMap<LocalDate, List<String>> availability, Map<String, Integer> doses) {
+        availability.forEach((date, caregivers) -> this.availability.put(date, new TreeSet<>(caregivers)));
+        this.doses.putAll(doses);
+    }
+
+    void apply(Event event) {
+        switch (event.getType()) {
+            case RESERVATION_CREATED:
+                setSlot(event, false);
+                doses.merge(event.getVaccine(), -event.getDoses(), Integer::sum);
+                count(event.getDate(), 1);
+                break;
+            case RESERVATION_CANCELLED:
+                setSlot(event, true);
+                count(event.getDate(), -1);
+                break;
+            case AVAILABILITY_ADDED:
+                setSlot(event, true);
+                break;
+            case AVAILABILITY_REMOVED:
+                setSlot(event, false);
+                break;
+            case HOLD_PLACED:
+                setSlot(event, false);
+                doses.merge(event.getVaccine(), -event.getDoses(), Integer::sum);
+                break;
+            case HOLD_CONFIRMED:
+                count(event.getDate(), 1);
+                break;
+            case HOLD_RELEASED:
+                setSlot(event, true);
+                doses.merge(event.getVaccine(), event.getDoses(), Integer::sum);
+                break;
+            default:
+                doses.merge(event.getVaccine(), event.getDoses(), Integer::sum);
+        }
+        lastSequence = Math.max(lastSequence, event.getSequence());
+        lastCommit = Math.max(lastCommit, event.getCommit());
+    }
+
+    // an event of the same commit as the slot's last one still applies, since a transaction's events are in order
+    private void setSlot(Event event, boolean free) {
+        TreeMap<String, Long> slots = versions.computeIfAbsent(event.getDate(), d -> new TreeMap<>());
+        Long version = slots.get(event.getCaregiver());
+        if (version != null && version > event.getCommit()) {
+            return;
+        }
+        slots.put(event.getCaregiver(), event.getCommit());
+        if (free) {
+            availability.computeIfAbsent(event.getDate(), d -> new TreeSet<>()).add(event.getCaregiver());
+            return;
+        }
+        TreeSet<String> caregivers = availability.get(event.getDate());
+        if (caregivers != null && caregivers.remove(event.getCaregiver()) && caregivers.isEmpty()) {
+            availability.remove(event.getDate());
+        }
+    }
+
+    // a cancel may be applied before the booking it cancels, so a count can go below zero for a while
+    private void count(LocalDate date, int delta) {
+        booked.merge(date, delta, (count, d) -> count + d == 0 ? null : count + d);
+    }
+
+    // Drops the commit numbers of slots last set before horizon, once no event from before it can arrive anymore
+    void forget(long horizon) {
+        versions.values().removeIf(slots -> {
+            slots.values().removeIf(version -> version < horizon);
+            return slots.isEmpty();
+        });
+    }
+
+    // The events that turn this state's free caregivers and doses into the given ones, which the stores hold
+    List<Event> differences(NavigableMap<LocalDate, List<String>> availability, Map<String, Integer> doses) {
+        List<Event> events = new ArrayList<>();
+        TreeSet<LocalDate> dates = new TreeSet<>(this.availability.keySet());
+        dates.addAll(availability.keySet());
+        for (LocalDate date : dates) {
+            TreeSet<String> stored = new TreeSet<>(availability.getOrDefault(date, List.of()));
+            TreeSet<String> known = this.availability.getOrDefault(date, new TreeSet<>());
+            for (String caregiver : stored) {
+                if (!known.contains(caregiver)) {
+                    events.add(Event.availabilityAdded(caregiver, date));
+                }
+            }
+            for (String caregiver : known) {
+                if (!stored.contains(caregiver)) {
+                    events.add(Event.availabilityRemoved(caregiver, date));
+                }
+            }
+        }
+        TreeSet<String> vaccines = new TreeSet<>(this.doses.keySet());
+        vaccines.addAll(doses.keySet());
+        for (String vaccine : vaccines) {
+            int delta = doses.getOrDefault(vaccine, 0) - this.doses.getOrDefault(vaccine, 0);
+            if (delta != 0) {
+                events.add(Event.dosesAdded(vaccine, delta));
+            }
+        }
+        return events;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    // the highest commit number among the events applied
+    public long getLastCommit() {
+        return lastCommit;
+    }
+
+    // Free caregivers per date, in date and username order
+    public NavigableMap<LocalDate, List<String>> getAvailability() {
+        NavigableMap<LocalDate, List<String>> copy = new TreeMap<>();
+        availability.forEach((date, caregivers) -> copy.put(date, new ArrayList<>(caregivers)));
+        return copy;
+    }
+
+    public Map<String, Integer> getDoses() {
+        return new TreeMap<>(doses);
+    }
+
+    public NavigableMap<LocalDate, Integer> getBooked() {
+        return new TreeMap<>(booked);
+    }
+
+    SchedulingState copy() {
+        SchedulingState copy = new SchedulingState();
+        availability.forEach((date, caregivers) -> copy.availability.put(date, new TreeSet<>(caregivers)));
+        versions.forEach((date, slots) -> copy.versions.put(date, new TreeMap<>(slots)));
+        copy.doses.putAll(doses);
+        copy.booked.putAll(booked);
+        copy.lastSequence = lastSequence;
+        copy.lastCommit = lastCommit;
+        return copy;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(SNAPSHOT_FORMAT);
+        out.writeLong(lastSequence);
+        out.writeInt(availability.size());
+        for (Map.Entry<LocalDate, TreeSet<String>> entry : availability.entrySet()) {
+            out.writeLong(entry.getKey().toEpochDay());
+            out.writeInt(entry.getValue().size());
+            for (String caregiver : entry.getValue()) {
+                out.writeUTF(caregiver);
+            }
+        }
+        out.writeInt(doses.size());
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        out.writeInt(booked.size());
+        for (Map.Entry<LocalDate, Integer> entry : booked.entrySet()) {
+            out.writeLong(entry.getKey().toEpochDay());
+            out.writeInt(entry.getValue());
+        }
+        out.writeLong(lastCommit);
+        out.writeInt(versions.size());
+        for (Map.Entry<LocalDate, TreeMap<String, Long>> entry : versions.entrySet()) {
+            out.writeLong(entry.getKey().toEpochDay());
+            out.writeInt(entry.getValue().size());
+            for (Map.Entry<String, Long> slot : entry.getValue().entrySet()) {
+                out.writeUTF(slot.getKey());
+                out.writeLong(slot.getValue());
+            }
+        }
+    }
+
+    static SchedulingState read(DataInput in) throws IOException {
+        // format 1 has no commit numbers, which its events didn't have either
+        int format = in.readInt();
+        if (format != 1 && format != SNAPSHOT_FORMAT) {
+            throw new IOException("Unknown snapshot format");
+        }
+        SchedulingState state = new SchedulingState();
+        state.lastSequence = in.readLong();
+        for (int dates = in.readInt(); dates > 0; dates--) {
+            LocalDate date = LocalDate.ofEpochDay(in.readLong());
+            TreeSet<String> caregivers = new TreeSet<>();
+            for (int n = in.readInt(); n > 0; n--) {
+                caregivers.add(in.readUTF());
+            }
+            state.availability.put(date, caregivers);
+        }
+        for (int vaccines = in.readInt(); vaccines > 0; vaccines--) {
+            state.doses.put(in.readUTF(), in.readInt());
+        }
+        for (int dates = in.readInt(); dates > 0; dates--) {
+            state.booked.put(LocalDate.ofEpochDay(in.readLong()), in.readInt());
+        }
+        if (format == 1) {
+            return state;
+        }
+        state.lastCommit = in.readLong();
+        for (int dates = in.readInt(); dates > 0; dates--) {
+            LocalDate date = LocalDate.ofEpochDay(in.readLong());
+            TreeMap<String, Long> slots = new TreeMap<>();
+            for (int n = in.readInt(); n > 0; n--) {
+                slots.put(in.readUTF(), in.readLong());
+            }
+            state.versions.put(date, slots);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,108 @@
+package scheduler.metrics;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of latency histograms, counters and gauges.
+ *
+ * Every metric belongs to a family (command, sql, ...) and has a name within it, e.g. the command name or the SQL
+ * text; a family with a single metric uses the empty name. Metrics are created on first use and then looked up
+ * with one hash map read, so callers on hot paths may keep the returned histogram or counter instead.
+ */
+public class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final ConcurrentHashMap<Key, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    public LatencyHistogram timer(String family, String name) {
+        return timers.computeIfAbsent(new Key(family, name), k -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String family, String name) {
+        return counters.computeIfAbsent(new Key(family, name), k -> new LongAdder());
+    }
+
+    // A value read whenever a snapshot is taken, e.g. the connection pool's active connections
+    public void gauge(String family, String name, LongSupplier value) {
+        gauges.put(new Key(family, name), value);
+    }
+
+    // Family, then name, to histogram snapshot
+    public Map<String, Map<String, LatencyHistogram.Snapshot>> timerSnapshots() {
+        Map<String, Map<String, LatencyHistogram.Snapshot>> snapshots = new TreeMap<>();
+        timers.forEach((key, timer) ->
+                snapshots.computeIfAbsent(key.family, f -> new TreeMap<>()).put(key.name, timer.snapshot()));
+        return snapshots;
+    }
+
+    public Map<String, Map<String, Long>> counterValues() {
+        Map<String, Map<String, Long>> values = new TreeMap<>();
+        counters.forEach((key, counter) ->
+                values.computeIfAbsent(key.family, f -> new TreeMap<>()).put(key.name, counter.sum()));
+        return values;
+    }
+
+    public Map<String, Map<String, Long>> gaugeValues() {
+        Map<String, Map<String, Long>> values = new TreeMap<>();
+        gauges.forEach((key, gauge) ->
+                values.computeIfAbsent(key.family, f -> new TreeMap<>()).put(key.name, gauge.getAsLong()));
+        return values;
+    }
+
+    // One line per metric, latencies in microseconds; what the stats command prints
+    public void print(PrintStream out) {
+        out.printf("%-48s %8s %10s %10s %10s %10s %10s%n", "timer", "count", "mean_us", "p50_us", "p99_us",
+                "p999_us", "max_us");
+        timerSnapshots().forEach((family, snapshots) -> snapshots.forEach((name, s) ->
+                out.printf("%-48s %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", label(family, name), s.getCount(),
+                        s.getMeanNanos() / 1e3, s.getPercentileNanos(0.5) / 1e3, s.getPercentileNanos(0.99) / 1e3,
+                        s.getPercentileNanos(0.999) / 1e3, s.getMaxNanos() / 1e3)));
+        counterValues().forEach((family, values) -> values.forEach((name, value) ->
+                out.printf("%-48s %8d%n", label(family, name), value)));
+        gaugeValues().forEach((family, values) -> values.forEach((name, value) ->
+                out.printf("%-48s %8d%n", label(family, name), value)));
+    }
+
+    static String label(String family, String name) {
+        String label = name.isEmpty() ? family : family + " " + name;
+        return label.length() <= 48 ? label : label.substring(0, 45) + "...";
+    }
+
+    private static class Key {
+        private final String family;
+        private final String name;
+        private final int hash;
+
+        private Key(String family, String name) {
+            this.family = family;
+            this.name = name;
+            this.hash = 31 * family.hashCode() + name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return family.equals(other.family) && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package scheduler.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes {@link Metrics} over JMX as read-only attributes named "family name.statistic", e.g.
+ * "command reserve.p99Micros", so that they show up in JConsole or any JMX exporter. The attribute set follows the
+ * metrics that exist when a client asks for it.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    public static final String OBJECT_NAME = "scheduler:type=Metrics";
+
+    private final Metrics metrics;
+
+    public MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public static void register(Metrics metrics) throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), name);
+        }
+    }
+
+    private Map<String, Object> values() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        metrics.timerSnapshots().forEach((family, snapshots) -> snapshots.forEach((name, s) -> {
+            String prefix = attributeName(family, name) + ".";
+            values.put(prefix + "count", s.getCount());
+            values.put(prefix + "meanMicros", s.getMeanNanos() / 1e3);
+            values.put(prefix + "p50Micros", s.getPercentileNanos(0.5) / 1e3);
+            values.put(prefix + "p99Micros", s.getPercentileNanos(0.99) / 1e3);
+            values.put(prefix + "p999Micros", s.getPercentileNanos(0.999) / 1e3);
+            values.put(prefix + "maxMicros", s.getMaxNanos() / 1e3);
+        }));
+        metrics.counterValues().forEach((family, counts) ->
+                counts.forEach((name, value) -> values.put(attributeName(family, name), value)));
+        metrics.gaugeValues().forEach((family, gauges) ->
+                gauges.forEach((name, value) -> values.put(attributeName(family, name), value)));
+        return values;
+    }
+
+    private static String attributeName(String family, String name) {
+        return name.isEmpty() ? family : family + " " + name;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = values().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> values = values();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (values.containsKey(attribute)) {
+                list.add(new Attribute(attribute, values.get(attribute)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Object> values = values();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Scheduler latencies, counters and gauges", attributes, null,
+                new MBeanOperationInfo[0], null);
+    }
+}
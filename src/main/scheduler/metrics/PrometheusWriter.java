@@ -0,0 +1,109 @@
+package scheduler.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes {@link Metrics} in the Prometheus text exposition format to a file, e.g. for node_exporter's textfile
+ * collector. Latencies become summaries in seconds (scheduler_command_seconds{name="reserve",quantile="0.99"}),
+ * counters become scheduler_<family>_total and gauges scheduler_<family>. The file is replaced atomically so a
+ * scraper never reads half of it.
+ */
+public class PrometheusWriter {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Metrics metrics;
+    private final Path file;
+    private ScheduledExecutorService writer;
+
+    public PrometheusWriter(Metrics metrics, Path file) {
+        this.metrics = metrics;
+        this.file = file;
+    }
+
+    public synchronized void start(long periodSeconds) {
+        if (writer != null) {
+            return;
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "prometheus-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleWithFixedDelay(this::writeQuietly, 0, periodSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::writeQuietly, "prometheus-writer-shutdown"));
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException e) {
+            // the next run tries again; a stale file is better than none
+        }
+    }
+
+    public void write() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, format().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public String format() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        for (Map.Entry<String, Map<String, LatencyHistogram.Snapshot>> family : metrics.timerSnapshots().entrySet()) {
+            String metric = "scheduler_" + sanitize(family.getKey()) + "_seconds";
+            out.println("# TYPE " + metric + " summary");
+            family.getValue().forEach((name, s) -> {
+                for (double quantile : QUANTILES) {
+                    out.println(metric + "{" + labels(name, "quantile=\"" + quantile + "\"") + "} " +
+                            s.getPercentileNanos(quantile) / 1e9);
+                }
+                out.println(metric + "_sum" + braces(labels(name, null)) + " " + s.getTotalNanos() / 1e9);
+                out.println(metric + "_count" + braces(labels(name, null)) + " " + s.getCount());
+            });
+        }
+        metrics.counterValues().forEach((family, counts) -> {
+            String metric = "scheduler_" + sanitize(family) + "_total";
+            out.println("# TYPE " + metric + " counter");
+            counts.forEach((name, value) -> out.println(metric + braces(labels(name, null)) + " " + value));
+        });
+        metrics.gaugeValues().forEach((family, gauges) -> {
+            String metric = "scheduler_" + sanitize(family);
+            out.println("# TYPE " + metric + " gauge");
+            gauges.forEach((name, value) -> out.println(metric + braces(labels(name, null)) + " " + value));
+        });
+        out.flush();
+        return text.toString();
+    }
+
+    private static String labels(String name, String extra) {
+        String labels = name.isEmpty() ? "" : "name=\"" + escape(name) + "\"";
+        if (extra != null) {
+            labels = labels.isEmpty() ? extra : labels + "," + extra;
+        }
+        return labels;
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String sanitize(String family) {
+        return family.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
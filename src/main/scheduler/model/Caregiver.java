@@ -1,26 +1,40 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.journal.Event;
+import scheduler.journal.EventJournal;
+import scheduler.service.AuthTokenStore;
+import scheduler.service.AvailabilityIndex;
+import scheduler.store.Credentials;
+import scheduler.store.Storage;
+import scheduler.store.UserStore;
+import scheduler.util.PasswordHasher;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final int hashVersion;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashVersion = builder.hashVersion;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashVersion = getter.hashVersion;
     }
 
     // Getters
@@ -36,55 +50,86 @@ public class Caregiver {
         return hash;
     }
 
+    public int getHashVersion() {
+        return hashVersion;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storage.getInstance().caregivers().insert(
+                new Credentials(this.username, this.salt, this.hash, this.hashVersion));
     }
 
     public static void uploadAvailability(String username,Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        Storage.getInstance().availabilities().add(username, d.toLocalDate());
+        EventJournal.getInstance().record(Event.availabilityAdded(username, d.toLocalDate()));
+        AvailabilityIndex.getInstance().add(d.toLocalDate(), username);
+    }
+
+    // Inserts availability for every date in [start, end] that falls on one of the given weekdays, in one batch and
+    // one transaction. Dates the caregiver is already available on are skipped rather than failing the batch.
+    public static RangeUpload uploadAvailabilityRange(String username, LocalDate start, LocalDate end,
+                                                      Set<DayOfWeek> weekdays) throws SQLException {
+        List<LocalDate> dates = new ArrayList<>();
+        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+            if (weekdays.contains(d.getDayOfWeek())) {
+                dates.add(d);
+            }
         }
+        if (dates.isEmpty()) {
+            return new RangeUpload(0, 0);
+        }
+
+        boolean[] added = Storage.getInstance().availabilities()
+                .addAll(Collections.nCopies(dates.size(), username), dates);
+        EventJournal journal = EventJournal.getInstance();
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                journal.record(Event.availabilityAdded(username, dates.get(i)));
+            }
+        }
+        int inserted = 0;
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                inserted++;
+                index.add(dates.get(i), username);
+            }
+        }
+        return new RangeUpload(inserted, dates.size() - inserted);
     }
 
     public static void deleteAvailability(String username,Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        Storage.getInstance().availabilities().remove(username, d.toLocalDate());
+        EventJournal.getInstance().record(Event.availabilityRemoved(username, d.toLocalDate()));
+        AvailabilityIndex.getInstance().remove(d.toLocalDate(), username);
+    }
+
+    // Stores a new password hash (with the current hash version) and signs the user out of every session token
+    public void changePassword(String newPassword) throws SQLException {
+        PasswordHasher hasher = PasswordHasher.getInstance();
+        byte[] newSalt = hasher.generateSalt();
+        byte[] newHash = hasher.hashAsync(newPassword, newSalt).join();
+
+        Storage.getInstance().caregivers().update(
+                new Credentials(this.username, newSalt, newHash, hasher.getCurrentVersion()));
+        AuthTokenStore.getInstance().invalidateCaregiver(this.username);
+    }
+
+    public static class RangeUpload {
+        private final int inserted;
+        private final int skipped;
+
+        public RangeUpload(int inserted, int skipped) {
+            this.inserted = inserted;
+            this.skipped = skipped;
+        }
+
+        public int getInserted() {
+            return inserted;
+        }
+
+        public int getSkipped() {
+            return skipped;
         }
     }
 
@@ -92,11 +137,18 @@ public class Caregiver {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final int hashVersion;
 
+        // for hashes made with Util.generateHash
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, 1);
+        }
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, int hashVersion) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashVersion = hashVersion;
         }
 
         public Caregiver build() {
@@ -109,6 +161,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private int hashVersion;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -116,35 +169,30 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            UserStore users = Storage.getInstance().caregivers();
+            Credentials stored = users.find(this.username);
+            if (stored == null) {
+                return null;
+            }
+            byte[] salt = stored.getSalt();
+            byte[] hash = stored.getHash();
+            int version = stored.getHashVersion();
+            // check if the password matches, on the hashing pool so a login storm can't starve other work
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            if (!hasher.verifyAsync(password, salt, hash, version).join()) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            if (hasher.needsRehash(version)) {
+                // the password is known now, so bring the stored hash up to the current cost
+                salt = hasher.generateSalt();
+                hash = hasher.hashAsync(password, salt).join();
+                version = hasher.getCurrentVersion();
+                users.update(new Credentials(this.username, salt, hash, version));
+            }
+            this.salt = salt;
+            this.hash = hash;
+            this.hashVersion = version;
+            return new Caregiver(this);
         }
     }
 }
@@ -1,26 +1,31 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.service.AuthTokenStore;
+import scheduler.store.Credentials;
+import scheduler.store.Storage;
+import scheduler.store.UserStore;
+import scheduler.util.PasswordHasher;
 
 import java.sql.*;
-import java.util.Arrays;
 
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final int hashVersion;
 
     private Patient(Patient.PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashVersion = builder.hashVersion;
     }
 
     private Patient(Patient.PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashVersion = getter.hashVersion;
     }
 
     // Getters
@@ -36,34 +41,43 @@ public class Patient {
         return hash;
     }
 
+    public int getHashVersion() {
+        return hashVersion;
+    }
+
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storage.getInstance().patients().insert(
+                new Credentials(this.username, this.salt, this.hash, this.hashVersion));
+    }
+
+    // Stores a new password hash (with the current hash version) and signs the user out of every session token
+    public void changePassword(String newPassword) throws SQLException {
+        PasswordHasher hasher = PasswordHasher.getInstance();
+        byte[] newSalt = hasher.generateSalt();
+        byte[] newHash = hasher.hashAsync(newPassword, newSalt).join();
+
+        Storage.getInstance().patients().update(
+                new Credentials(this.username, newSalt, newHash, hasher.getCurrentVersion()));
+        AuthTokenStore.getInstance().invalidatePatient(this.username);
     }
 
     public static class PatientBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final int hashVersion;
 
+        // for hashes made with Util.generateHash
         public PatientBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, 1);
+        }
+
+        public PatientBuilder(String username, byte[] salt, byte[] hash, int hashVersion) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashVersion = hashVersion;
         }
 
         public Patient build() {
@@ -76,6 +90,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private int hashVersion;
 
         public PatientGetter(String username, String password) {
             this.username = username;
@@ -83,35 +98,30 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            UserStore users = Storage.getInstance().patients();
+            Credentials stored = users.find(this.username);
+            if (stored == null) {
+                return null;
+            }
+            byte[] salt = stored.getSalt();
+            byte[] hash = stored.getHash();
+            int version = stored.getHashVersion();
+            // check if the password matches, on the hashing pool so a login storm can't starve other work
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            if (!hasher.verifyAsync(password, salt, hash, version).join()) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            if (hasher.needsRehash(version)) {
+                // the password is known now, so bring the stored hash up to the current cost
+                salt = hasher.generateSalt();
+                hash = hasher.hashAsync(password, salt).join();
+                version = hasher.getCurrentVersion();
+                users.update(new Credentials(this.username, salt, hash, version));
+            }
+            this.salt = salt;
+            this.hash = hash;
+            this.hashVersion = version;
+            return new Patient(this);
         }
     }
 
@@ -1,10 +1,9 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.store.Storage;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.function.Consumer;
 
 public class Reservation {
     private final int appointment_id;
@@ -42,27 +41,6 @@ public class Reservation {
     public int getAppointment_id() {return appointment_id;}
 
 
-    public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Reservations VALUES (? , ? , ? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setInt(1, this.appointment_id);
-            statement.setString(2, this.vaccines_name);
-            statement.setString(3, this.patient_name);
-            statement.setString(4, this.caregiver_name);
-            statement.setDate(5, this.Time);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
-    }
-
-
     public static class ReservationBuilder {
         private final int appointment_id;
         private final String vaccines_name;
@@ -96,32 +74,58 @@ public class Reservation {
 
         // Get specific information from the database
         public Reservation get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getReservation = "SELECT appointment_id, vaccines_name, patient_name, caregiver_name, Time " +
-                    "FROM Reservations WHERE appointment_id = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getReservation);
-                statement.setInt(1, this.appointment_id);
-                ResultSet resultSet = statement.executeQuery();
-
-
-                if (resultSet.next()) {
-                    int a_id = resultSet.getInt("appointment_id");
-                    String v_name = resultSet.getString("vaccines_name");
-                    String p_name = resultSet.getString("patient_name");
-                    String c_name = resultSet.getString("caregiver_name");
-                    Date time = resultSet.getDate("Time");
-                    return new Reservation.ReservationBuilder(c_name, p_name, v_name, a_id, time).build();
-                }
-                return null;
-            } catch (SQLException e) {
-                throw new SQLException("Error retrieving reservation with ID " + appointment_id, e);
-            } finally {
-                cm.closeConnection();
+            return Storage.getInstance().reservations().find(this.appointment_id);
+        }
+    }
+
+
+    // Lists one user's reservations in appointment_id order, one page at a time (keyset pagination): pass the last
+    // appointment_id of the previous page to after() to get the next one. With the jdbc storage backend rows are
+    // handed to the callback as they arrive from the database instead of being collected first.
+    public static class ReservationLister {
+        private final boolean byCaregiver;
+        private final String username;
+        private int afterId = 0;
+        private int limit = 100;
+        private Date from = null;
+        private Date to = null;
+
+        private ReservationLister(boolean byCaregiver, String username) {
+            this.byCaregiver = byCaregiver;
+            this.username = username;
+        }
+
+        public static ReservationLister forCaregiver(String username) {
+            return new ReservationLister(true, username);
+        }
+
+        public static ReservationLister forPatient(String username) {
+            return new ReservationLister(false, username);
+        }
+
+        public ReservationLister after(int appointmentId) {
+            this.afterId = appointmentId;
+            return this;
+        }
+
+        public ReservationLister limit(int limit) {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Limit must be positive!");
             }
+            this.limit = limit;
+            return this;
+        }
+
+        public ReservationLister between(Date from, Date to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        // Returns true if there are more reservations after this page
+        public boolean forEach(Consumer<Reservation> action) throws SQLException {
+            return Storage.getInstance().reservations().list(byCaregiver, username, afterId, limit, from, to, action);
         }
     }
 
-}
\ No newline at end of file
+}
@@ -1,10 +1,12 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.journal.Event;
+import scheduler.journal.EventJournal;
+import scheduler.service.DoseInventory;
+import scheduler.service.ScheduleView;
+import scheduler.service.VaccineCatalog;
+import scheduler.store.Storage;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class Vaccine {
@@ -31,20 +33,10 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storage.getInstance().vaccines().insert(this.vaccineName, this.availableDoses);
+        EventJournal.getInstance().record(Event.dosesAdded(this.vaccineName, this.availableDoses));
+        VaccineCatalog.getInstance().changed(this.vaccineName);
+        DoseInventory.getInstance().register(this.vaccineName, this.availableDoses);
     }
 
     // Increment the available doses
@@ -52,44 +44,43 @@ public class Vaccine {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
+        Storage.getInstance().vaccines().addDoses(this.vaccineName, num);
+        EventJournal.getInstance().record(Event.dosesAdded(this.vaccineName, num));
         this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        DoseInventory inventory = DoseInventory.getInstance();
+        if (inventory.isLoaded()) {
+            inventory.add(this.vaccineName, num);
         }
+        VaccineCatalog.getInstance().changed(this.vaccineName);
+        ScheduleView.getInstance().dosesChanged();
     }
 
     // Decrement the available doses
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        // every dose leaves through the inventory when it is loaded, and the store then takes them from the row
+        DoseInventory inventory = DoseInventory.getInstance();
+        boolean taken = inventory.isLoaded();
+        if (taken && !inventory.tryTake(this.vaccineName, num)) {
             throw new IllegalArgumentException("Not enough available doses!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        boolean removed = false;
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
+            if (!Storage.getInstance().vaccines().takeDoses(this.vaccineName, num)) {
+                throw new IllegalArgumentException("Not enough available doses!");
+            }
+            removed = true;
+            EventJournal.getInstance().record(Event.dosesAdded(this.vaccineName, -num));
         } finally {
-            cm.closeConnection();
+            if (taken) {
+                inventory.settle(this.vaccineName, num, removed);
+            }
         }
+        this.availableDoses -= num;
+        VaccineCatalog.getInstance().changed(this.vaccineName);
+        ScheduleView.getInstance().dosesChanged();
     }
 
     @Override
@@ -123,24 +114,17 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            // answered from the inventory when it counts the vaccine, which spares the round trip
+            Integer doses = VaccineCatalog.getInstance().doses(this.vaccineName);
+            if (doses == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = doses;
+            DoseInventory inventory = DoseInventory.getInstance();
+            if (inventory.isLoaded() && !inventory.contains(this.vaccineName)) {
+                inventory.register(this.vaccineName, this.availableDoses);
+            }
+            return new Vaccine(this);
         }
     }
 }
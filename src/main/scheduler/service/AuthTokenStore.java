@@ -0,0 +1,135 @@
+package scheduler.service;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Opaque session tokens issued on a successful login.
+ *
+ * Presenting a token logs the user back in without a database round trip or a password hash. Tokens expire after
+ * ttlMillis without use, and when more than maxEntries are live the least recently used one is dropped. Logging out
+ * invalidates the session's token; changing a password invalidates every token of that user.
+ */
+public class AuthTokenStore {
+
+    private static final AuthTokenStore INSTANCE = new AuthTokenStore(
+            Long.getLong("scheduler.tokens.ttlSeconds", 1800L) * 1000,
+            Integer.getInteger("scheduler.tokens.maxEntries", 10000));
+
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> tokens;
+
+    public AuthTokenStore(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        // access order makes the eldest entry the least recently used one
+        this.tokens = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > AuthTokenStore.this.maxEntries;
+            }
+        };
+    }
+
+    public static AuthTokenStore getInstance() {
+        return INSTANCE;
+    }
+
+    public String issue(Patient patient) {
+        return issue(new Entry(patient, null));
+    }
+
+    public String issue(Caregiver caregiver) {
+        return issue(new Entry(null, caregiver));
+    }
+
+    private String issue(Entry entry) {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+        synchronized (tokens) {
+            tokens.put(token, entry);
+        }
+        return token;
+    }
+
+    // Returns the logged-in user for a live token and extends its lifetime, or null if it is unknown or expired
+    public Entry resume(String token) {
+        long now = System.currentTimeMillis();
+        synchronized (tokens) {
+            Entry entry = tokens.get(token);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= now) {
+                tokens.remove(token);
+                return null;
+            }
+            entry.expiresAt = now + ttlMillis;
+            return entry;
+        }
+    }
+
+    public void invalidate(String token) {
+        synchronized (tokens) {
+            tokens.remove(token);
+        }
+    }
+
+    public void invalidatePatient(String username) {
+        invalidateUser(username, true);
+    }
+
+    public void invalidateCaregiver(String username) {
+        invalidateUser(username, false);
+    }
+
+    private void invalidateUser(String username, boolean patient) {
+        synchronized (tokens) {
+            Iterator<Entry> it = tokens.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                String owner = patient
+                        ? entry.patient == null ? null : entry.patient.getUsername()
+                        : entry.caregiver == null ? null : entry.caregiver.getUsername();
+                if (username.equals(owner)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (tokens) {
+            return tokens.size();
+        }
+    }
+
+    public static class Entry {
+        private final Patient patient;
+        private final Caregiver caregiver;
+        private long expiresAt;
+
+        private Entry(Patient patient, Caregiver caregiver) {
+            this.patient = patient;
+            this.caregiver = caregiver;
+        }
+
+        public Patient getPatient() {
+            return patient;
+        }
+
+        public Caregiver getCaregiver() {
+            return caregiver;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package scheduler.service;
+
+import scheduler.store.IdDictionary;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Caregiver availability for a fixed window of dates as a bitmap in a memory-mapped file: one row per date, one bit
+ * column per caregiver, so a year for 100k caregivers takes under 5 MB. Callers name caregivers by their
+ * {@link IdDictionary} ID.
+ *
+ * Bits are set and cleared with compare-and-set on their 64-bit word, so writers never lock each other out; a row
+ * is read by scanning its words. The read side of the lock only keeps the mapping in place while a row grows to
+ * more caregivers, which copies the file into a wider layout. Columns are handed out in the order caregivers are
+ * first set, and each one's name is appended to a .names file next to the bitmap before a bit can refer to it. That
+ * file is the bitmap's own dictionary: a restore maps every column to the ID its name has in this process, whatever
+ * order the names were interned in. The header records whether the file was closed cleanly; a bitmap that wasn't
+ * starts out empty. Even a clean bitmap only holds what this application wrote up to its last shutdown, not what was
+ * written to the table since, so it is a warm start that a load still has to check.
+ */
+public class AvailabilityBitmap {
+
+    private static final long MAGIC = 0x5343484156424d31L;
+    private static final int HEADER_BYTES = 64;
+    private static final int CLEAN_AT = 8;
+    private static final int ORIGIN_AT = 16;
+    private static final int DAYS_AT = 24;
+    private static final int WORDS_AT = 28;
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final Path path;
+    private final Path namesPath;
+    private final IdDictionary caregivers = IdDictionary.caregivers();
+    private final long origin;
+    private final int days;
+    private final boolean restored;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int wordsPerRow;
+    // column by dictionary ID (-1 if it has none) and dictionary ID by column; entries are only added, under
+    // namesPath's lock, before a bit in their column is set
+    private volatile int[] columnOf = new int[0];
+    private volatile int[] idAt = new int[0];
+    // columns that have their names in the names file
+    private int columns;
+    private volatile boolean namesLost = false;
+
+    private AvailabilityBitmap(Path path, long origin, int days, int wordsPerRow, boolean clean) throws IOException {
+        this.path = path;
+        this.namesPath = path.resolveSibling(path.getFileName() + ".names");
+        this.origin = origin;
+        this.days = days;
+        this.wordsPerRow = wordsPerRow;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = map(channel, days, wordsPerRow);
+        this.restored = clean && readNames();
+        if (!restored) {
+            Files.deleteIfExists(namesPath);
+            clearRows();
+        }
+        buffer.putInt(CLEAN_AT, 0);
+        buffer.force(0, HEADER_BYTES);
+    }
+
+    // Opens the bitmap for the days starting at from, or creates it if the file is missing or covers other dates;
+    // rows start out with room for the given number of caregivers
+    public static AvailabilityBitmap open(Path path, LocalDate from, int days, int caregivers) throws IOException {
+        if (days <= 0) {
+            throw new IllegalArgumentException("days must be positive");
+        }
+        int words = Math.max(1, (caregivers + 63) / 64);
+        boolean clean = false;
+        boolean reuse = false;
+        if (Files.exists(path)) {
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+                while (header.hasRemaining() && file.read(header) >= 0) {
+                    // keep reading until the header is complete or the file ends
+                }
+                reuse = !header.hasRemaining() && header.getLong(0) == MAGIC
+                        && header.getLong(ORIGIN_AT) == from.toEpochDay() && header.getInt(DAYS_AT) == days
+                        && file.size() == size(days, header.getInt(WORDS_AT));
+                if (reuse) {
+                    words = header.getInt(WORDS_AT);
+                    clean = header.getInt(CLEAN_AT) == 1;
+                }
+            }
+        }
+        if (!reuse) {
+            create(path, from.toEpochDay(), days, words);
+        }
+        return new AvailabilityBitmap(path, from.toEpochDay(), days, words, clean);
+    }
+
+    private static void create(Path path, long origin, int days, int words) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = map(file, days, words);
+            header.putLong(0, MAGIC);
+            header.putInt(CLEAN_AT, 0);
+            header.putLong(ORIGIN_AT, origin);
+            header.putInt(DAYS_AT, days);
+            header.putInt(WORDS_AT, words);
+            header.force();
+        }
+    }
+
+    private static long size(int days, int words) {
+        return HEADER_BYTES + (long) days * words * Long.BYTES;
+    }
+
+    private static MappedByteBuffer map(FileChannel file, int days, int words) throws IOException {
+        long size = size(days, words);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("An availability bitmap of " + days + " days and " + words * 64L
+                    + " caregivers does not fit in one mapping");
+        }
+        MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mapped.order(ByteOrder.nativeOrder());
+        return mapped;
+    }
+
+    // Maps the columns in the names file to the IDs of their names; false if the file is missing or names a
+    // caregiver twice
+    private boolean readNames() throws IOException {
+        if (!Files.exists(namesPath)) {
+            return false;
+        }
+        List<String> names = Files.readAllLines(namesPath, StandardCharsets.UTF_8);
+        synchronized (namesPath) {
+            for (String name : names) {
+                int id = caregivers.intern(name);
+                if (column(id) >= 0) {
+                    columnOf = new int[0];
+                    idAt = new int[0];
+                    columns = 0;
+                    return false;
+                }
+                assignColumn(id);
+            }
+        }
+        return true;
+    }
+
+    // Whether the bitmap still holds what the last process left in it, so that loading only has to apply the
+    // differences
+    public boolean isRestored() {
+        return restored;
+    }
+
+    // The first date the bitmap covers
+    public LocalDate getFrom() {
+        return LocalDate.ofEpochDay(origin);
+    }
+
+    public boolean covers(LocalDate date) {
+        long row = date.toEpochDay() - origin;
+        return row >= 0 && row < days;
+    }
+
+    // Marks the caregiver free on the date; false if it already was
+    public boolean set(LocalDate date, int caregiverId) {
+        int column = ensureColumn(caregiverId);
+        ensureCapacity(column);
+        return update(date, column, true);
+    }
+
+    // Takes the caregiver's slot on the date; false if it wasn't free, e.g. because another thread took it first
+    public boolean clear(LocalDate date, int caregiverId) {
+        int column = column(caregiverId);
+        return column >= 0 && update(date, column, false);
+    }
+
+    private boolean update(LocalDate date, int column, boolean free) {
+        long bit = 1L << column;
+        lock.readLock().lock();
+        try {
+            if (column >>> 6 >= wordsPerRow) {
+                return false;
+            }
+            int at = offset(date, column >>> 6);
+            long word;
+            do {
+                word = (long) WORDS.getVolatile(buffer, at);
+                if (((word & bit) != 0) == free) {
+                    return false;
+                }
+            } while (!WORDS.compareAndSet(buffer, at, word, word ^ bit));
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean get(LocalDate date, int caregiverId) {
+        int column = column(caregiverId);
+        if (column < 0) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            if (column >>> 6 >= wordsPerRow) {
+                return false;
+            }
+            long word = (long) WORDS.getVolatile(buffer, offset(date, column >>> 6));
+            return (word & 1L << column) != 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The IDs of the caregivers free on the date, in the order of their columns
+    public int[] caregivers(LocalDate date) {
+        int[] found = new int[16];
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            int at = offset(date, 0);
+            for (int w = 0; w < wordsPerRow; w++, at += Long.BYTES) {
+                long word = (long) WORDS.getVolatile(buffer, at);
+                while (word != 0) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = w << 6 | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // read after the words, so it has the columns of every bit that was seen set
+        int[] ids = idAt;
+        for (int i = 0; i < count; i++) {
+            found[i] = ids[found[i]];
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // Writes the rows out and records whether the next process can use them as they are
+    public void close(boolean clean) throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            buffer.putInt(CLEAN_AT, clean && !namesLost ? 1 : 0);
+            buffer.force(0, HEADER_BYTES);
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int offset(LocalDate date, int word) {
+        return (int) (HEADER_BYTES + ((date.toEpochDay() - origin) * wordsPerRow + word) * Long.BYTES);
+    }
+
+    // Call with the write lock held, or before the bitmap is shared
+    private void clearRows() {
+        for (int at = HEADER_BYTES; at < buffer.capacity(); at += Long.BYTES) {
+            buffer.putLong(at, 0L);
+        }
+    }
+
+    // The caregiver's column, or -1 if it has none yet
+    private int column(int caregiverId) {
+        int[] byId = columnOf;
+        if (caregiverId < byId.length && byId[caregiverId] >= 0) {
+            return byId[caregiverId];
+        }
+        // a column given out by another thread may not be visible without the lock
+        synchronized (namesPath) {
+            byId = columnOf;
+            return caregiverId < byId.length ? byId[caregiverId] : -1;
+        }
+    }
+
+    // The caregiver's column, giving it the next one, with its name appended to the names file, if it has none
+    private int ensureColumn(int caregiverId) {
+        int column = column(caregiverId);
+        if (column >= 0) {
+            return column;
+        }
+        synchronized (namesPath) {
+            column = column(caregiverId);
+            if (column >= 0) {
+                return column;
+            }
+            try {
+                Files.write(namesPath, (caregivers.name(caregiverId) + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                // the bits stay right for this process; the next one can't trust them and loads the table instead
+                namesLost = true;
+            }
+            return assignColumn(caregiverId);
+        }
+    }
+
+    // Gives the caregiver the next column; call with namesPath's lock held
+    private int assignColumn(int caregiverId) {
+        int[] ids = idAt;
+        if (columns == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(64, columns * 2));
+        }
+        ids[columns] = caregiverId;
+        int[] byId = columnOf;
+        if (caregiverId >= byId.length) {
+            int length = byId.length;
+            byId = Arrays.copyOf(byId, Math.max(caregiverId + 1, length * 2));
+            Arrays.fill(byId, length, byId.length, -1);
+        }
+        byId[caregiverId] = columns;
+        idAt = ids;
+        columnOf = byId;
+        return columns++;
+    }
+
+    // Widens every row, through a copy of the file, until it has the column
+    private void ensureCapacity(int column) {
+        lock.readLock().lock();
+        try {
+            if (column >>> 6 < wordsPerRow) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (column >>> 6 < wordsPerRow) {
+                return;
+            }
+            int words = Math.max(wordsPerRow * 2, (column >>> 6) + 1);
+            Path wider = path.resolveSibling(path.getFileName() + ".tmp");
+            create(wider, origin, days, words);
+            try (FileChannel file = FileChannel.open(wider, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer copy = map(file, days, words);
+                for (int row = 0; row < days; row++) {
+                    for (int w = 0; w < wordsPerRow; w++) {
+                        long word = buffer.getLong(HEADER_BYTES + (row * wordsPerRow + w) * Long.BYTES);
+                        copy.putLong(HEADER_BYTES + (row * words + w) * Long.BYTES, word);
+                    }
+                }
+                copy.force();
+            }
+            Files.move(wider, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = map(channel, days, words);
+            wordsPerRow = words;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not widen the availability bitmap " + path, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package scheduler.service;
+
+import scheduler.store.IdDictionary;
+import scheduler.store.Storage;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory copy of the Availabilities table, bucketed by date.
+ *
+ * Each date maps to a sorted array of caregiver usernames. Availability is read far more often than it is
+ * written, so writers replace the array for a date (copy-on-write) and readers never lock. The arrays hold the
+ * {@link IdDictionary} instance of each username, so a caregiver free on many dates is one String, not one per date.
+ *
+ * With an {@link AvailabilityBitmap} in use, the dates it covers are kept in the bitmap instead and only the other
+ * dates in the arrays. The first read of a bitmap date keeps its names as a sorted array as well, which every write
+ * to the date then updates along with its bit, so reads don't have to map and sort the bits again.
+ *
+ * Reloading reads the table without holding up writers and then changes only the slots that differ from what was
+ * read. A slot that {@link #add} or {@link #remove} changed while the table was being read is left as they set it,
+ * since the read may have come before their write.
+ */
+public class AvailabilityIndex {
+
+    private static final String[] EMPTY = new String[0];
+    private static final AvailabilityIndex INSTANCE = new AvailabilityIndex();
+
+    private final ConcurrentSkipListMap<LocalDate, String[]> byDate = new ConcurrentSkipListMap<>();
+    private final IdDictionary names = IdDictionary.caregivers();
+    private volatile boolean loaded = false;
+    private volatile AvailabilityBitmap bitmap;
+    // sorted names of the bitmap dates that have been read; writes to a date change its bits under its entry's lock
+    private final ConcurrentHashMap<LocalDate, String[]> bitmapNames = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reconciler;
+    // add and remove hold it shared; a reload holds it exclusively to start recording and to apply what it read
+    private final ReentrantReadWriteLock reloading = new ReentrantReadWriteLock();
+    // the slots (see slot()) that add and remove changed since the running reload started, null if none is running
+    private volatile Set<Long> touched;
+
+    public static AvailabilityIndex getInstance() {
+        return INSTANCE;
+    }
+
+    // Loads (or reloads) the whole table
+    public synchronized void load() throws SQLException {
+        Set<Long> changed = startRecording();
+        try {
+            NavigableMap<LocalDate, List<String>> rows = Storage.getInstance().availabilities().all();
+            Set<LocalDate> dates = new HashSet<>(rows.keySet());
+            dates.addAll(datesHeld());
+            merge(rows, dates, changed);
+        } finally {
+            touched = null;
+        }
+        loaded = true;
+        ScheduleView.getInstance().availabilityChanged();
+    }
+
+    // Loads the given contents instead, e.g. the state rebuilt from the event journal
+    public synchronized void load(Map<LocalDate, List<String>> availability) {
+        Set<LocalDate> dates = new HashSet<>(availability.keySet());
+        dates.addAll(datesHeld());
+        merge(availability, dates, Collections.emptySet());
+        loaded = true;
+        ScheduleView.getInstance().availabilityChanged();
+    }
+
+    // Reloads the given dates only, e.g. after another process changed them
+    public synchronized void reload(Collection<LocalDate> dates) throws SQLException {
+        Set<Long> changed = startRecording();
+        try {
+            Map<LocalDate, List<String>> rows = new HashMap<>();
+            for (LocalDate date : dates) {
+                rows.put(date, Storage.getInstance().availabilities().caregiversOn(date));
+            }
+            merge(rows, rows.keySet(), changed);
+        } finally {
+            touched = null;
+        }
+        for (LocalDate date : dates) {
+            ScheduleView.getInstance().availabilityChanged(date);
+        }
+    }
+
+    // Keeps the dates the bitmap covers in it from now on. The index still has to be loaded afterwards: a restored
+    // bitmap may have missed writes made while no process had it open, which the load finds and applies.
+    public synchronized void useBitmap(AvailabilityBitmap bitmap) {
+        this.bitmap = bitmap;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                // the dates outside the bitmap aren't kept anywhere, so only a bitmap that holds everything is kept
+                bitmap.close(loaded && byDate.isEmpty());
+            } catch (IOException e) {
+                // the header still says unclean, so the next process starts from an empty bitmap
+            }
+        }, "availability-bitmap-shutdown"));
+    }
+
+    // From here on add and remove record the slots they change, until touched is reset
+    private Set<Long> startRecording() {
+        Set<Long> changed = ConcurrentHashMap.newKeySet();
+        reloading.writeLock().lock();
+        try {
+            touched = changed;
+        } finally {
+            reloading.writeLock().unlock();
+        }
+        return changed;
+    }
+
+    // Makes the given dates hold the caregivers read for them, except for the slots changed since the read began
+    private void merge(Map<LocalDate, List<String>> rows, Set<LocalDate> dates, Set<Long> changed) {
+        reloading.writeLock().lock();
+        try {
+            for (LocalDate date : dates) {
+                Set<String> wanted = new HashSet<>(rows.getOrDefault(date, Collections.emptyList()));
+                String[] current = sorted(date);
+                for (String caregiver : current == null ? EMPTY : current) {
+                    if (!wanted.remove(caregiver) && !changed.contains(slot(date, caregiver))) {
+                        removeSlot(date, caregiver);
+                    }
+                }
+                for (String caregiver : wanted) {
+                    if (!changed.contains(slot(date, caregiver))) {
+                        addSlot(date, caregiver);
+                    }
+                }
+            }
+        } finally {
+            reloading.writeLock().unlock();
+        }
+    }
+
+    // The dates that have at least one free caregiver in the index
+    private Set<LocalDate> datesHeld() {
+        Set<LocalDate> dates = new HashSet<>(byDate.keySet());
+        AvailabilityBitmap bits = bitmap;
+        if (bits != null) {
+            for (LocalDate date = bits.getFrom(); bits.covers(date); date = date.plusDays(1)) {
+                if (bits.caregivers(date).length > 0) {
+                    dates.add(date);
+                }
+            }
+        }
+        return dates;
+    }
+
+    private long slot(LocalDate date, String caregiver) {
+        return date.toEpochDay() << 32 | names.intern(caregiver);
+    }
+
+    // Periodically reloads the index so that writes made outside this process are picked up
+    public synchronized void startReconciliation(long periodSeconds) {
+        if (reconciler != null || periodSeconds <= 0) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "availability-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (SQLException e) {
+                // keep serving the last good copy; the next run will try again
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void add(LocalDate date, String username) {
+        reloading.readLock().lock();
+        try {
+            Set<Long> changed = touched;
+            if (changed != null) {
+                changed.add(slot(date, username));
+            }
+            addSlot(date, username);
+        } finally {
+            reloading.readLock().unlock();
+        }
+        ScheduleView.getInstance().availabilityChanged(date);
+    }
+
+    public void remove(LocalDate date, String caregiver) {
+        reloading.readLock().lock();
+        try {
+            Set<Long> changed = touched;
+            if (changed != null) {
+                changed.add(slot(date, caregiver));
+            }
+            removeSlot(date, caregiver);
+        } finally {
+            reloading.readLock().unlock();
+        }
+        ScheduleView.getInstance().availabilityChanged(date);
+    }
+
+    private void addSlot(LocalDate date, String username) {
+        String caregiver = names.canonical(username);
+        AvailabilityBitmap bits = bitmap;
+        if (bits != null && bits.covers(date)) {
+            bitmapNames.compute(date, (d, current) -> {
+                bits.set(date, names.intern(caregiver));
+                return current == null ? null : with(current, caregiver);
+            });
+            return;
+        }
+        byDate.compute(date, (d, current) -> current == null ? new String[]{caregiver} : with(current, caregiver));
+    }
+
+    private void removeSlot(LocalDate date, String caregiver) {
+        AvailabilityBitmap bits = bitmap;
+        if (bits != null && bits.covers(date)) {
+            int id = names.idOf(caregiver);
+            if (id >= 0) {
+                bitmapNames.compute(date, (d, current) -> {
+                    bits.clear(date, id);
+                    return current == null ? null : without(current, caregiver);
+                });
+            }
+            return;
+        }
+        byDate.computeIfPresent(date, (d, current) -> {
+            String[] next = without(current, caregiver);
+            return next.length == 0 ? null : next;
+        });
+    }
+
+    // The sorted array with the caregiver added
+    private static String[] with(String[] current, String caregiver) {
+        int pos = Arrays.binarySearch(current, caregiver);
+        if (pos >= 0) {
+            return current;
+        }
+        int insertAt = -pos - 1;
+        String[] next = new String[current.length + 1];
+        System.arraycopy(current, 0, next, 0, insertAt);
+        next[insertAt] = caregiver;
+        System.arraycopy(current, insertAt, next, insertAt + 1, current.length - insertAt);
+        return next;
+    }
+
+    // The sorted array without the caregiver
+    private static String[] without(String[] current, String caregiver) {
+        int pos = Arrays.binarySearch(current, caregiver);
+        if (pos < 0) {
+            return current;
+        }
+        String[] next = new String[current.length - 1];
+        System.arraycopy(current, 0, next, 0, pos);
+        System.arraycopy(current, pos + 1, next, pos, current.length - pos - 1);
+        return next;
+    }
+
+    public boolean contains(LocalDate date, String caregiver) {
+        AvailabilityBitmap bits = bitmap;
+        if (bits != null && bits.covers(date)) {
+            int id = names.idOf(caregiver);
+            return id >= 0 && bits.get(date, id);
+        }
+        String[] caregivers = byDate.get(date);
+        return caregivers != null && Arrays.binarySearch(caregivers, caregiver) >= 0;
+    }
+
+    // Caregivers free on the given date, in username order
+    public List<String> caregiversOn(LocalDate date) {
+        String[] caregivers = sorted(date);
+        return caregivers == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(caregivers));
+    }
+
+    // The alphabetically first free caregiver on the given date, or null if there is none
+    public String firstFree(LocalDate date) {
+        String[] caregivers = sorted(date);
+        return caregivers == null ? null : caregivers[0];
+    }
+
+    // Dates in [from, to] that have at least one free caregiver
+    public NavigableMap<LocalDate, List<String>> range(LocalDate from, LocalDate to) {
+        NavigableMap<LocalDate, List<String>> result = new TreeMap<>();
+        for (Map.Entry<LocalDate, String[]> entry : byDate.subMap(from, true, to, true).entrySet()) {
+            result.put(entry.getKey(), Collections.unmodifiableList(Arrays.asList(entry.getValue())));
+        }
+        AvailabilityBitmap bits = bitmap;
+        if (bits != null) {
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                String[] caregivers = bits.covers(date) ? sorted(date) : null;
+                if (caregivers != null) {
+                    result.put(date, Collections.unmodifiableList(Arrays.asList(caregivers)));
+                }
+            }
+        }
+        return result;
+    }
+
+    // The caregivers free on the date in username order, or null if there are none
+    private String[] sorted(LocalDate date) {
+        AvailabilityBitmap bits = bitmap;
+        if (bits == null || !bits.covers(date)) {
+            return byDate.get(date);
+        }
+        String[] caregivers = bitmapNames.get(date);
+        if (caregivers == null) {
+            caregivers = bitmapNames.computeIfAbsent(date, d -> {
+                int[] ids = bits.caregivers(d);
+                String[] read = new String[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    read[i] = names.name(ids[i]);
+                }
+                Arrays.sort(read);
+                return read;
+            });
+        }
+        return caregivers.length == 0 ? null : caregivers;
+    }
+}
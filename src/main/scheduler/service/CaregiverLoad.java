@@ -0,0 +1,108 @@
+package scheduler.service;
+
+import scheduler.store.IdDictionary;
+import scheduler.store.Storage;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * In-memory count of the reservations each caregiver holds, loaded from the reservation store once and kept in step
+ * by {@link ReservationService} as it books and cancels. Only used to rank caregivers, so a count that is briefly
+ * behind a concurrent booking does no harm.
+ *
+ * The counts are indexed by the caregivers' {@link IdDictionary} IDs, in fixed-size chunks that are never copied, so
+ * growing for a new caregiver can't lose an increment made at the same time.
+ */
+public class CaregiverLoad {
+
+    private static final CaregiverLoad INSTANCE = new CaregiverLoad();
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final IdDictionary caregivers = IdDictionary.caregivers();
+    private volatile AtomicIntegerArray[] chunks = new AtomicIntegerArray[0];
+    private volatile boolean loaded = false;
+
+    public static CaregiverLoad getInstance() {
+        return INSTANCE;
+    }
+
+    public void load() throws SQLException {
+        load(Storage.getInstance().reservations().countByCaregiver());
+    }
+
+    public synchronized void load(Map<String, Integer> reservations) {
+        for (AtomicIntegerArray chunk : chunks) {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                chunk.set(i, 0);
+            }
+        }
+        reservations.forEach((caregiver, count) -> {
+            int id = caregivers.intern(caregiver);
+            chunkFor(id).set(id & (CHUNK_SIZE - 1), count);
+        });
+        loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int get(String caregiver) {
+        int id = caregivers.idOf(caregiver);
+        return id < 0 ? 0 : get(id);
+    }
+
+    public int get(int caregiverId) {
+        AtomicIntegerArray[] current = chunks;
+        int chunk = caregiverId >>> CHUNK_BITS;
+        return chunk < current.length ? current[chunk].get(caregiverId & (CHUNK_SIZE - 1)) : 0;
+    }
+
+    public void increment(String caregiver) {
+        increment(caregivers.intern(caregiver));
+    }
+
+    public void increment(int caregiverId) {
+        chunkFor(caregiverId).incrementAndGet(caregiverId & (CHUNK_SIZE - 1));
+    }
+
+    public void decrement(String caregiver) {
+        int id = caregivers.idOf(caregiver);
+        if (id >= 0) {
+            decrement(id);
+        }
+    }
+
+    public void decrement(int caregiverId) {
+        AtomicIntegerArray[] current = chunks;
+        int chunk = caregiverId >>> CHUNK_BITS;
+        if (chunk < current.length) {
+            current[chunk].updateAndGet(caregiverId & (CHUNK_SIZE - 1), n -> Math.max(0, n - 1));
+        }
+    }
+
+    private AtomicIntegerArray chunkFor(int caregiverId) {
+        int chunk = caregiverId >>> CHUNK_BITS;
+        AtomicIntegerArray[] current = chunks;
+        if (chunk < current.length) {
+            return current[chunk];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (chunk >= current.length) {
+                // only the array of chunks is copied; the chunks themselves carry over
+                AtomicIntegerArray[] grown = Arrays.copyOf(current, chunk + 1);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new AtomicIntegerArray(CHUNK_SIZE);
+                }
+                chunks = grown;
+                current = grown;
+            }
+            return current[chunk];
+        }
+    }
+}
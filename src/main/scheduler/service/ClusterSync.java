@@ -0,0 +1,143 @@
+package scheduler.service;
+
+import scheduler.metrics.Metrics;
+import scheduler.store.ChangeFeed;
+import scheduler.store.Storage;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps this process's caches in step with the writes of other processes running against the same database or shared
+ * write-ahead log.
+ *
+ * Every write to availability or doses adds to the storage's {@link ChangeFeed}, in the writer's own transaction,
+ * whether or not any process runs in cluster mode, so every process prunes the feed ({@link #startPruning}), and only
+ * clustered ones read it. This polls the feed every scheduler.cluster.pollMillis and drops or reloads exactly what
+ * changed: the
+ * dates in the {@link AvailabilityIndex} and the {@link ScheduleView}, the vaccines in the {@link VaccineCatalog}.
+ * The position to poll from is taken before the caches are loaded, so nothing written while they load is missed;
+ * writes of this process come back through the feed as well, which costs a reload but never a wrong answer.
+ */
+public class ClusterSync {
+
+    private static final ClusterSync INSTANCE = new ClusterSync();
+    // more changed dates than this in one poll reload the whole index instead of one date at a time
+    private static final int MAX_DATE_RELOADS = 64;
+
+    private final LongAdder availabilityChanges = Metrics.getInstance().counter("cluster_changes", "availability");
+    private final LongAdder vaccineChanges = Metrics.getInstance().counter("cluster_changes", "vaccine");
+    private final LongAdder pollErrors = Metrics.getInstance().counter("cluster_changes", "poll_errors");
+    private final LongAdder pruneErrors = Metrics.getInstance().counter("cluster_changes", "prune_errors");
+    private ChangeFeed feed;
+    private long position;
+    private ScheduledExecutorService poller;
+    private ScheduledExecutorService pruner;
+
+    public static ClusterSync getInstance() {
+        return INSTANCE;
+    }
+
+    // Marks where to poll from; call before the caches are loaded
+    public synchronized void prepare() throws SQLException {
+        ChangeFeed changeFeed = Storage.getInstance().changeFeed();
+        if (changeFeed == null) {
+            throw new IllegalStateException("The storage backend is not shared with other processes");
+        }
+        position = changeFeed.position();
+        feed = changeFeed;
+    }
+
+    public synchronized void start(long pollMillis) {
+        if (poller != null || feed == null) {
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Prunes the storage's change feed every period, if it has one, on a thread of its own so that it doesn't depend on
+    // this process polling the feed
+    public synchronized void startPruning(long periodMillis) {
+        ChangeFeed changeFeed = Storage.getInstance().changeFeed();
+        if (pruner != null || changeFeed == null) {
+            return;
+        }
+        pruner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "change-pruner");
+            t.setDaemon(true);
+            return t;
+        });
+        pruner.scheduleWithFixedDelay(() -> {
+            try {
+                changeFeed.prune();
+            } catch (SQLException e) {
+                // the rows stay until the next run
+                pruneErrors.increment();
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isStarted() {
+        return poller != null;
+    }
+
+    // Runs on the poller thread only
+    private void poll() {
+        Set<LocalDate> dates = new TreeSet<>();
+        Set<String> vaccines = new TreeSet<>();
+        long next;
+        try {
+            next = feed.changesSince(position, (kind, name) -> {
+                if (kind.equals(ChangeFeed.AVAILABILITY)) {
+                    dates.add(LocalDate.parse(name));
+                } else if (kind.equals(ChangeFeed.VACCINE)) {
+                    vaccines.add(name);
+                }
+            });
+        } catch (SQLException e) {
+            // the same changes are read again next time
+            pollErrors.increment();
+            return;
+        }
+        for (String vaccine : vaccines) {
+            VaccineCatalog.getInstance().changed(vaccine);
+        }
+        if (!vaccines.isEmpty()) {
+            ScheduleView.getInstance().dosesChanged();
+        }
+        try {
+            reloadAvailability(dates);
+        } catch (SQLException e) {
+            // the index keeps what it had for the dates that weren't reloaded; read them again next time
+            pollErrors.increment();
+            return;
+        }
+        availabilityChanges.add(dates.size());
+        vaccineChanges.add(vaccines.size());
+        position = next;
+    }
+
+    private void reloadAvailability(Set<LocalDate> dates) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (!index.isLoaded()) {
+            for (LocalDate date : dates) {
+                ScheduleView.getInstance().availabilityChanged(date);
+            }
+        } else if (dates.size() > MAX_DATE_RELOADS) {
+            index.load();
+        } else if (!dates.isEmpty()) {
+            index.reload(dates);
+        }
+    }
+}
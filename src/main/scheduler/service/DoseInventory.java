@@ -0,0 +1,236 @@
+package scheduler.service;
+
+import scheduler.metrics.Metrics;
+import scheduler.store.IdDictionary;
+import scheduler.store.Storage;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory dose counters for every vaccine, which bookings take their doses from, and the write-behind that carries
+ * those takes to the vaccine store.
+ *
+ * A dose is taken with a compare-and-set that never lets a counter go below zero, and while the inventory is loaded
+ * every dose leaves through here first (bookings, holds and removed doses alike), so no two bookings get the same last
+ * dose and the store is never asked for one it doesn't have. The taker then settles the dose: used, or back into the
+ * counter when its booking fell through. A take that finds too few doses while others are still unsettled waits for
+ * them, so a booking is only turned away when the doses are really gone. Doses added or given back go to the store
+ * first and are counted here once it committed, so a counter can lag below the store but never run ahead of it.
+ *
+ * A booking whose dose came from here doesn't touch the vaccine's row: the store records the take in the booking's own
+ * transaction, so it is as durable as the reservation, and counts recorded takes as taken. The flusher subtracts them
+ * from the rows in one transaction with a relative Doses = Doses - n per vaccine, every scheduler.doses.flushMillis
+ * and as soon as scheduler.doses.flushThreshold doses are waiting, so bookings of one vaccine no longer queue on its
+ * row. A crash leaves the unflushed takes recorded, and the next flush picks them up.
+ */
+public class DoseInventory {
+
+    private static final DoseInventory INSTANCE = new DoseInventory();
+
+    private final IdDictionary vaccines = IdDictionary.vaccines();
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    private final long flushMillis = Math.max(1, Long.getLong("scheduler.doses.flushMillis", 100L));
+    private final int flushThreshold = Math.max(1, Integer.getInteger("scheduler.doses.flushThreshold", 256));
+    // doses recorded as takes since the last flush began, and whether a flush for the threshold is queued
+    private final AtomicInteger unflushed = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private ScheduledExecutorService flusher;
+
+    private final LongAdder flushes = Metrics.getInstance().counter("dose_flushes", "ok");
+    private final LongAdder flushErrors = Metrics.getInstance().counter("dose_flushes", "failed");
+
+    private DoseInventory() {
+        Metrics.getInstance().gauge("doses_unflushed", "", unflushed::get);
+    }
+
+    public static DoseInventory getInstance() {
+        return INSTANCE;
+    }
+
+    // Flushes the takes a previous process left, counts the doses and starts the flusher
+    public synchronized void load() throws SQLException {
+        Storage.getInstance().vaccines().flushTakes();
+        count(Storage.getInstance().vaccines().all());
+    }
+
+    // Same, with the given doses per vaccine, e.g. the ones rebuilt from the event journal, which count the takes
+    // recorded but not flushed as taken already
+    public synchronized void load(Map<String, Integer> doses) throws SQLException {
+        Storage.getInstance().vaccines().flushTakes();
+        count(doses);
+    }
+
+    // sets the counters and starts the flusher
+    private void count(Map<String, Integer> doses) {
+        doses.forEach((name, count) ->
+                counters.computeIfAbsent(vaccines.canonical(name), n -> new Counter()).available.set(count));
+        loaded = true;
+        ScheduleView.getInstance().dosesChanged();
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "dose-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "dose-flusher-shutdown"));
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public boolean contains(String vaccineName) {
+        return counters.containsKey(vaccineName);
+    }
+
+    // Registers a vaccine row that was just inserted with the given number of doses
+    public void register(String vaccineName, int doses) {
+        counters.computeIfAbsent(vaccines.canonical(vaccineName), name -> new Counter()).available.set(doses);
+        ScheduleView.getInstance().dosesChanged();
+    }
+
+    public int available(String vaccineName) {
+        Counter counter = counters.get(vaccineName);
+        return counter == null ? 0 : counter.available.get();
+    }
+
+    // Vaccines that currently have doses, in name order
+    public Map<String, Integer> inStock() {
+        Map<String, Integer> result = new TreeMap<>();
+        counters.forEach((name, counter) -> {
+            int doses = counter.available.get();
+            if (doses > 0) {
+                result.put(name, doses);
+            }
+        });
+        return result;
+    }
+
+    // Takes num doses if that many are left, once the unsettled takes have settled; false, taking none, if not or if
+    // the vaccine isn't counted here. Every true has to be followed by settle.
+    public boolean tryTake(String vaccineName, int num) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        Counter counter = counters.get(vaccineName);
+        if (counter == null) {
+            return false;
+        }
+        while (true) {
+            // counted as unsettled before the take, so that nobody gives up while it is under way
+            counter.unsettled.addAndGet(num);
+            for (int doses = counter.available.get(); doses >= num; doses = counter.available.get()) {
+                if (counter.available.compareAndSet(doses, doses - num)) {
+                    ScheduleView.getInstance().dosesChanged();
+                    return true;
+                }
+            }
+            counter.unsettled.addAndGet(-num);
+            if (!counter.awaitSettled(num)) {
+                return false;
+            }
+        }
+    }
+
+    // For doses taken with tryTake: used, or else back into the counter
+    public void settle(String vaccineName, int num, boolean used) {
+        Counter counter = counters.get(vaccineName);
+        if (!used) {
+            counter.available.addAndGet(num);
+            ScheduleView.getInstance().dosesChanged();
+        }
+        counter.unsettled.addAndGet(-num);
+        counter.settled();
+    }
+
+    // For doses the store added
+    public void add(String vaccineName, int num) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        counters.computeIfAbsent(vaccines.canonical(vaccineName), name -> new Counter()).available.addAndGet(num);
+        ScheduleView.getInstance().dosesChanged();
+    }
+
+    // For taken doses that the store recorded as takes, which the flusher still has to carry to the vaccine rows
+    public void recorded(int num) {
+        if (unflushed.addAndGet(num) >= flushThreshold && flusher != null && flushQueued.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushQueued.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    // Subtracts every recorded take from the vaccine rows now
+    public synchronized void flush() throws SQLException {
+        int waiting = unflushed.getAndSet(0);
+        try {
+            Storage.getInstance().vaccines().flushTakes();
+            flushes.increment();
+        } catch (SQLException e) {
+            unflushed.addAndGet(waiting);
+            throw e;
+        }
+    }
+
+    // the takes stay recorded when a flush fails, so the next one carries them along
+    private void flushQuietly() {
+        if (unflushed.get() == 0) {
+            return;
+        }
+        try {
+            flush();
+        } catch (SQLException e) {
+            flushErrors.increment();
+        }
+    }
+
+    private static class Counter {
+        private final AtomicInteger available = new AtomicInteger();
+        // doses taken by callers that have not settled them yet
+        private final AtomicInteger unsettled = new AtomicInteger();
+        private volatile int waiting = 0;
+
+        // Waits while fewer than num doses are available and some are unsettled; false if none are unsettled (or the
+        // thread was interrupted), true to try again
+        private synchronized boolean awaitSettled(int num) {
+            waiting++;
+            try {
+                while (available.get() < num) {
+                    if (unsettled.get() == 0) {
+                        return false;
+                    }
+                    wait(10);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting--;
+            }
+        }
+
+        private void settled() {
+            if (waiting > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
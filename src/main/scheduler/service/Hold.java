@@ -0,0 +1,98 @@
+package scheduler.service;
+
+import java.sql.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+// A caregiver slot and a dose set aside for one patient until the hold is confirmed, released or expires.
+// Exactly one of those ends it, whichever gets there first.
+public class Hold {
+
+    public enum Outcome {
+        HELD,
+        NO_CAREGIVER,
+        NO_DOSES
+    }
+
+    enum State {
+        HELD,
+        CONFIRMED,
+        RELEASED
+    }
+
+    private final Outcome outcome;
+    private final int holdId;
+    private final String patientName;
+    private final String caregiverName;
+    private final Date date;
+    private final String vaccineName;
+    private final long expiresAt;
+    private final AtomicReference<State> state = new AtomicReference<>(State.HELD);
+    volatile TimeWheel.Timeout<Hold> timeout;
+
+    Hold(int holdId, String patientName, String caregiverName, Date date, String vaccineName, long expiresAt) {
+        this.outcome = Outcome.HELD;
+        this.holdId = holdId;
+        this.patientName = patientName;
+        this.caregiverName = caregiverName;
+        this.date = date;
+        this.vaccineName = vaccineName;
+        this.expiresAt = expiresAt;
+    }
+
+    private Hold(Outcome outcome) {
+        this.outcome = outcome;
+        this.holdId = -1;
+        this.patientName = null;
+        this.caregiverName = null;
+        this.date = null;
+        this.vaccineName = null;
+        this.expiresAt = 0;
+    }
+
+    static Hold failed(Outcome outcome) {
+        return new Hold(outcome);
+    }
+
+    // Moves a live hold to its end state; false if it had already ended
+    boolean end(State end) {
+        return state.compareAndSet(State.HELD, end);
+    }
+
+    // For a confirmed hold whose reservation could not be inserted, which then gives back what it holds
+    void abandon() {
+        state.set(State.RELEASED);
+    }
+
+    boolean isReleased() {
+        return state.get() == State.RELEASED;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public int getHoldId() {
+        return holdId;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    // System.currentTimeMillis() at which the hold runs out
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,197 @@
+package scheduler.service;
+
+import scheduler.journal.Event;
+import scheduler.journal.EventJournal;
+import scheduler.metrics.Metrics;
+import scheduler.service.assignment.CaregiverAssignmentStrategy;
+import scheduler.store.Booking;
+import scheduler.store.HoldRecord;
+import scheduler.store.Storage;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two-phase booking: a {@link Hold} claims a caregiver slot and takes a dose for a patient right away, and confirming
+ * it later only has to insert the reservation, so it can't fail for want of a slot or a dose.
+ *
+ * The {@link scheduler.store.HoldStore} claims the slot, takes the dose and records the hold in one transaction, and
+ * confirming or giving back a hold is one transaction as well, so a crash never loses a slot or a dose to a hold.
+ * A {@link TimeWheel} gives back every hold that is neither confirmed nor released within scheduler.holds.ttlSeconds,
+ * without querying for expired holds; {@link #start} arms it for the holds a previous process left in the store,
+ * giving back the ones that expired meanwhile right away. Giving back is retried until the store takes it.
+ */
+public class HoldService {
+
+    private static final HoldService INSTANCE = new HoldService();
+    private static final long RETRY_MILLIS = 1000;
+
+    private final AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+    private final DoseInventory doseInventory = DoseInventory.getInstance();
+    private final CaregiverAssignmentStrategy strategy = CaregiverAssignmentStrategy.configured();
+    private final ConcurrentHashMap<Integer, Hold> holds = new ConcurrentHashMap<>();
+    private final long ttlMillis = Long.getLong("scheduler.holds.ttlSeconds", 300L) * 1000;
+    private final TimeWheel<Hold> expiry = new TimeWheel<>("hold-expiry",
+            Long.getLong("scheduler.holds.tickMillis", 100L), 512, this::expire);
+
+    private final LongAdder placed = Metrics.getInstance().counter("holds", "placed");
+    private final LongAdder confirmed = Metrics.getInstance().counter("holds", "confirmed");
+    private final LongAdder released = Metrics.getInstance().counter("holds", "released");
+    private final LongAdder expired = Metrics.getInstance().counter("holds", "expired");
+    private final LongAdder returnRetries = Metrics.getInstance().counter("holds", "return_retries");
+
+    private HoldService() {
+        Metrics.getInstance().gauge("holds_active", "", holds::size);
+    }
+
+    public static HoldService getInstance() {
+        return INSTANCE;
+    }
+
+    // Takes over the holds kept in the store; call once before the first hold is placed
+    public void start() throws SQLException {
+        long now = System.currentTimeMillis();
+        for (HoldRecord record : Storage.getInstance().holds().all()) {
+            Hold hold = new Hold(record.getHoldId(), record.getPatientName(), record.getCaregiverName(),
+                    record.getDate(), record.getVaccineName(), record.getExpiresAt());
+            if (holds.putIfAbsent(hold.getHoldId(), hold) == null) {
+                hold.timeout = expiry.schedule(hold, Math.max(0, record.getExpiresAt() - now));
+            }
+        }
+    }
+
+    public Hold hold(String patientName, Date date, String vaccineName) throws SQLException {
+        LocalDate day = date.toLocalDate();
+        List<String> candidates = availabilityIndex.isLoaded() ? availabilityIndex.caregiversOn(day)
+                : Storage.getInstance().availabilities().caregiversOn(day);
+        if (candidates.isEmpty()) {
+            return Hold.failed(Hold.Outcome.NO_CAREGIVER);
+        }
+        // every dose leaves through the inventory when it is loaded; the store takes it from the vaccine's row as
+        // well, since a hold gives it back there
+        boolean doseTaken = doseInventory.isLoaded();
+        if (doseTaken && !doseInventory.tryTake(vaccineName, 1)) {
+            return Hold.failed(Hold.Outcome.NO_DOSES);
+        }
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        Booking claimed = null;
+        try {
+            claimed = Storage.getInstance().holds().hold(patientName, date, vaccineName,
+                    strategy.order(day, candidates), expiresAt);
+            if (claimed.getOutcome() == Booking.Outcome.BOOKED) {
+                EventJournal.getInstance().record(Event.holdPlaced(claimed.getAppointmentId(), day,
+                        claimed.getCaregiverName(), patientName, vaccineName));
+            }
+        } finally {
+            if (doseTaken) {
+                doseInventory.settle(vaccineName, 1, claimed != null && claimed.getOutcome() == Booking.Outcome.BOOKED);
+            }
+        }
+        if (claimed.getOutcome() == Booking.Outcome.NO_CAREGIVER) {
+            return Hold.failed(Hold.Outcome.NO_CAREGIVER);
+        }
+        if (claimed.getOutcome() != Booking.Outcome.BOOKED) {
+            return Hold.failed(Hold.Outcome.NO_DOSES);
+        }
+        availabilityIndex.remove(day, claimed.getCaregiverName());
+        dosesChanged(vaccineName);
+        Hold hold = new Hold(claimed.getAppointmentId(), patientName, claimed.getCaregiverName(), date, vaccineName,
+                expiresAt);
+        // armed before it is published, so confirm and release always find its timeout
+        hold.timeout = expiry.schedule(hold, ttlMillis);
+        holds.put(hold.getHoldId(), hold);
+        if (hold.isReleased()) {
+            // it ran out before it was published
+            holds.remove(hold.getHoldId(), hold);
+        }
+        placed.increment();
+        return hold;
+    }
+
+    // Books the held slot for the patient who holds it; null if there is no such hold or it has already ended
+    public Booking confirm(int holdId, String patientName) throws SQLException {
+        Hold hold = holds.get(holdId);
+        if (hold == null || !hold.getPatientName().equals(patientName) || !hold.end(Hold.State.CONFIRMED)) {
+            return null;
+        }
+        holds.remove(holdId);
+        hold.timeout.cancel();
+        int appointmentId;
+        try {
+            appointmentId = Storage.getInstance().holds().confirm(holdId);
+        } catch (SQLException e) {
+            hold.abandon();
+            giveBack(hold);
+            throw e;
+        }
+        if (appointmentId >= 0) {
+            EventJournal.getInstance().record(Event.holdConfirmed(holdId, appointmentId,
+                    hold.getDate().toLocalDate(), hold.getCaregiverName(), patientName, hold.getVaccineName()));
+        }
+        if (appointmentId < 0) {
+            // another process gave it back after it expired
+            return null;
+        }
+        CaregiverLoad.getInstance().increment(hold.getCaregiverName());
+        confirmed.increment();
+        return Booking.booked(appointmentId, hold.getCaregiverName());
+    }
+
+    // Gives back the slot and the dose of the patient's hold; false if there is no such hold or it has already ended
+    public boolean release(int holdId, String patientName) {
+        Hold hold = holds.get(holdId);
+        if (hold == null || !hold.getPatientName().equals(patientName) || !hold.end(Hold.State.RELEASED)) {
+            return false;
+        }
+        holds.remove(holdId);
+        hold.timeout.cancel();
+        released.increment();
+        giveBack(hold);
+        return true;
+    }
+
+    // Runs on the wheel's thread, for holds that ran out and for holds whose giving back has to be retried
+    private void expire(Hold hold) {
+        if (hold.end(Hold.State.RELEASED)) {
+            holds.remove(hold.getHoldId(), hold);
+            expired.increment();
+        } else if (!hold.isReleased()) {
+            return;
+        }
+        giveBack(hold);
+    }
+
+    // Gives back what a released hold has, trying again later if the store fails
+    private void giveBack(Hold hold) {
+        boolean returned;
+        try {
+            returned = Storage.getInstance().holds().release(hold.getHoldId());
+        } catch (SQLException e) {
+            returnRetries.increment();
+            hold.timeout = expiry.schedule(hold, RETRY_MILLIS);
+            return;
+        }
+        if (returned) {
+            EventJournal.getInstance().record(Event.holdReleased(hold.getHoldId(), hold.getDate().toLocalDate(),
+                    hold.getCaregiverName(), hold.getPatientName(), hold.getVaccineName()));
+            availabilityIndex.add(hold.getDate().toLocalDate(), hold.getCaregiverName());
+            if (doseInventory.isLoaded()) {
+                doseInventory.add(hold.getVaccineName(), 1);
+            }
+            dosesChanged(hold.getVaccineName());
+        }
+    }
+
+    private void dosesChanged(String vaccineName) {
+        VaccineCatalog.getInstance().changed(vaccineName);
+        ScheduleView.getInstance().dosesChanged();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+}
@@ -0,0 +1,252 @@
+package scheduler.service;
+
+import scheduler.journal.Event;
+import scheduler.journal.EventJournal;
+import scheduler.model.Reservation;
+import scheduler.service.assignment.CaregiverAssignmentStrategy;
+import scheduler.store.Booking;
+import scheduler.store.BookingRequest;
+import scheduler.store.ReservationStore;
+import scheduler.store.Storage;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Books and cancels appointments through the configured {@link ReservationStore}.
+ *
+ * The store claims the caregiver slot, the dose and the appointment ID in one atomic step. With the
+ * {@link DoseInventory} loaded the dose is taken from it first, with a compare-and-set, and the store only records the
+ * take; a booking that doesn't go through gives it back. This class picks the caregivers to try from the
+ * {@link AvailabilityIndex}, in the order its {@link CaregiverAssignmentStrategy} gives, turns bookings away early
+ * when the index shows there is no slot, keeps it and the {@link CaregiverLoad} in step with the store afterwards,
+ * and retries bookings the database chose as a deadlock victim.
+ */
+public class ReservationService {
+
+    // SQL Server reports a deadlock victim with error 1205 / SQLState 40001
+    private static final int DEADLOCK_ERROR_CODE = 1205;
+    private static final String SERIALIZATION_FAILURE = "40001";
+
+    private final AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+    private final DoseInventory doseInventory = DoseInventory.getInstance();
+    private final CaregiverLoad caregiverLoad = CaregiverLoad.getInstance();
+    private final CaregiverAssignmentStrategy strategy;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+
+    // how often a booking had to be retried, and how many candidate slots were already gone when claimed
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder slotMisses = new LongAdder();
+
+    public ReservationService() {
+        this(5, 20, CaregiverAssignmentStrategy.configured());
+    }
+
+    public ReservationService(int maxAttempts, long baseBackoffMillis, CaregiverAssignmentStrategy strategy) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.strategy = strategy;
+    }
+
+    public Booking reserve(String patientName, Date date, String vaccineName) throws SQLException {
+        return withRetries(() -> tryReserve(patientName, date, vaccineName));
+    }
+
+    // Books the requests in one store transaction and returns one Booking per request, in request order. Requests
+    // that can't be booked fail on their own; if the store fails, none of them are booked.
+    public List<Booking> reserveBatch(List<BookingRequest> requests) throws SQLException {
+        return withRetries(() -> tryReserveBatch(requests));
+    }
+
+    private <T> T withRetries(SqlCall<T> call) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.run();
+            } catch (SQLException e) {
+                if (!isRetryable(e) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                retries.increment();
+                backoff(attempt);
+            }
+        }
+    }
+
+    private Booking tryReserve(String patientName, Date date, String vaccineName) throws SQLException {
+        LocalDate day = date.toLocalDate();
+        // with the index loaded, the caregivers it lists are tried first and an empty list needs no round trip;
+        // without it the store picks the first free caregiver itself
+        List<String> candidates = null;
+        if (availabilityIndex.isLoaded()) {
+            candidates = availabilityIndex.caregiversOn(day);
+            if (candidates.isEmpty()) {
+                return Booking.failed(Booking.Outcome.NO_CAREGIVER);
+            }
+            candidates = strategy.order(day, candidates);
+        }
+
+        // with the inventory loaded the dose is taken there, and the store only records the take
+        boolean doseTaken = doseInventory.isLoaded();
+        if (doseTaken && !doseInventory.tryTake(vaccineName, 1)) {
+            return Booking.failed(Booking.Outcome.NO_DOSES);
+        }
+        Booking booking = null;
+        try {
+            booking = Storage.getInstance().reservations().book(patientName, date, vaccineName, candidates,
+                    doseTaken);
+            if (booking.getOutcome() == Booking.Outcome.BOOKED) {
+                EventJournal.getInstance().record(Event.reservationCreated(booking.getAppointmentId(), day,
+                        booking.getCaregiverName(), patientName, vaccineName));
+            }
+        } finally {
+            if (doseTaken) {
+                dosesUsed(vaccineName, booking != null && booking.getOutcome() == Booking.Outcome.BOOKED);
+            }
+        }
+        slotMisses.add(booking.getSlotMisses());
+        if (booking.getOutcome() == Booking.Outcome.BOOKED) {
+            availabilityIndex.remove(day, booking.getCaregiverName());
+            caregiverLoad.increment(booking.getCaregiverName());
+            VaccineCatalog.getInstance().changed(vaccineName);
+            ScheduleView.getInstance().dosesChanged();
+        }
+        return booking;
+    }
+
+    private List<Booking> tryReserveBatch(List<BookingRequest> requests) throws SQLException {
+        // with the inventory loaded, requests it has no dose for fail here and the rest go to the store with theirs
+        boolean dosesTaken = doseInventory.isLoaded();
+        Booking[] outcomes = new Booking[requests.size()];
+        List<BookingRequest> dosed = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (dosesTaken && !doseInventory.tryTake(requests.get(i).getVaccineName(), 1)) {
+                outcomes[i] = Booking.failed(Booking.Outcome.NO_DOSES);
+            } else {
+                dosed.add(requests.get(i));
+                positions.add(i);
+            }
+        }
+
+        // the set-based claim in the store picks the caregivers, so the assignment strategy doesn't apply here
+        List<Booking> booked = null;
+        try {
+            booked = dosed.isEmpty() ? Collections.emptyList()
+                    : Storage.getInstance().reservations().bookAll(dosed, dosesTaken);
+            for (int i = 0; i < booked.size(); i++) {
+                Booking booking = booked.get(i);
+                if (booking.getOutcome() == Booking.Outcome.BOOKED) {
+                    BookingRequest request = dosed.get(i);
+                    EventJournal.getInstance().record(Event.reservationCreated(booking.getAppointmentId(),
+                            request.getDate().toLocalDate(), booking.getCaregiverName(), request.getPatientName(),
+                            request.getVaccineName()));
+                }
+            }
+        } finally {
+            if (dosesTaken) {
+                for (int i = 0; i < dosed.size(); i++) {
+                    dosesUsed(dosed.get(i).getVaccineName(),
+                            booked != null && booked.get(i).getOutcome() == Booking.Outcome.BOOKED);
+                }
+            }
+        }
+        for (int i = 0; i < booked.size(); i++) {
+            outcomes[positions.get(i)] = booked.get(i);
+        }
+        List<Booking> bookings = Arrays.asList(outcomes);
+        VaccineCatalog.getInstance().changed();
+        ScheduleView.getInstance().dosesChanged();
+        for (int i = 0; i < bookings.size(); i++) {
+            Booking booking = bookings.get(i);
+            if (booking.getOutcome() == Booking.Outcome.BOOKED) {
+                BookingRequest request = requests.get(i);
+                availabilityIndex.remove(request.getDate().toLocalDate(), booking.getCaregiverName());
+                caregiverLoad.increment(booking.getCaregiverName());
+            }
+        }
+        return bookings;
+    }
+
+    // Cancels the reservation and frees its caregiver slot; returnDose also puts its dose back. Returns the
+    // cancelled reservation, or null if there was none with that ID.
+    public Reservation cancel(int appointmentId, boolean returnDose) throws SQLException {
+        Reservation reservation = Storage.getInstance().reservations().cancel(appointmentId, returnDose);
+        if (reservation == null) {
+            return null;
+        }
+        EventJournal journal = EventJournal.getInstance();
+        journal.record(Event.reservationCancelled(appointmentId, reservation.getTime().toLocalDate(),
+                reservation.getCaregivername(), reservation.getPatientname(), reservation.getVaccinename()));
+        if (returnDose) {
+            journal.record(Event.dosesAdded(reservation.getVaccinename(), 1));
+        }
+        String vaccineName = reservation.getVaccinename();
+        availabilityIndex.add(reservation.getTime().toLocalDate(), reservation.getCaregivername());
+        caregiverLoad.decrement(reservation.getCaregivername());
+        if (returnDose) {
+            // the store put the dose back along with the cancel
+            if (doseInventory.isLoaded() && doseInventory.contains(vaccineName)) {
+                doseInventory.add(vaccineName, 1);
+            }
+            VaccineCatalog.getInstance().changed(vaccineName);
+            ScheduleView.getInstance().dosesChanged();
+        }
+        return reservation;
+    }
+
+    // For a dose taken from the inventory: the store recorded its take if the booking went through, and otherwise it
+    // goes back
+    private void dosesUsed(String vaccineName, boolean booked) {
+        doseInventory.settle(vaccineName, 1, booked);
+        if (booked) {
+            doseInventory.recorded(1);
+        }
+    }
+
+    public CaregiverAssignmentStrategy getStrategy() {
+        return strategy;
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getSlotMisses() {
+        return slotMisses.sum();
+    }
+
+    static boolean isRetryable(SQLException e) {
+        for (SQLException cur = e; cur != null; cur = cur.getNextException()) {
+            if (cur.getErrorCode() == DEADLOCK_ERROR_CODE || SERIALIZATION_FAILURE.equals(cur.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // exponential backoff with full jitter so that retrying victims don't collide again
+    private void backoff(int attempt) throws SQLException {
+        long ceiling = baseBackoffMillis << Math.min(attempt - 1, 10);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying reservation", e);
+        }
+    }
+
+    private interface SqlCall<T> {
+        T run() throws SQLException;
+    }
+}
@@ -0,0 +1,151 @@
+package scheduler.service;
+
+import scheduler.metrics.Metrics;
+import scheduler.store.ScheduleSnapshot;
+import scheduler.store.Storage;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The schedule search_caregiver_schedule shows, as one {@link ScheduleSnapshot} per date, cached.
+ *
+ * The free caregivers are cached per date and the vaccines in stock once for all dates, so a reservation only drops
+ * its own date and the doses, not every date. {@link AvailabilityIndex} and {@link DoseInventory} report their
+ * changes here, and so do the writes that bypass them. A miss is filled from the index and the inventory when both
+ * are loaded, otherwise from the store, which reads caregivers and doses in one round trip; a range fills all of its
+ * dates in one pass. Entries also expire after scheduler.schedule.cacheMillis so that changes made by other
+ * processes show up.
+ */
+public class ScheduleView {
+
+    private static final ScheduleView INSTANCE = new ScheduleView();
+    // the cache starts over rather than grow beyond this many dates
+    private static final int MAX_CACHED_DATES = 4096;
+
+    private final AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+    private final DoseInventory doseInventory = DoseInventory.getInstance();
+    private final ConcurrentHashMap<LocalDate, Cached<List<String>>> caregivers = new ConcurrentHashMap<>();
+    private final AtomicReference<Cached<Map<String, Integer>>> doses = new AtomicReference<>();
+    // bumped by every change, so that a fill which raced with a change doesn't stay cached
+    private final AtomicLong availabilityVersion = new AtomicLong();
+    private final AtomicLong dosesVersion = new AtomicLong();
+    private final long maxAgeNanos =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("scheduler.schedule.cacheMillis", 1000L));
+    private final LongAdder hits = Metrics.getInstance().counter("schedule_cache", "hits");
+    private final LongAdder misses = Metrics.getInstance().counter("schedule_cache", "misses");
+
+    public static ScheduleView getInstance() {
+        return INSTANCE;
+    }
+
+    public ScheduleSnapshot snapshot(LocalDate date) throws SQLException {
+        return range(date, date).get(0);
+    }
+
+    // One snapshot for every date in [from, to], in date order
+    public List<ScheduleSnapshot> range(LocalDate from, LocalDate to) throws SQLException {
+        long now = System.nanoTime();
+        Cached<Map<String, Integer>> stock = doses.get();
+        if (isFresh(stock, now)) {
+            List<ScheduleSnapshot> snapshots = new ArrayList<>();
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                Cached<List<String>> free = caregivers.get(date);
+                if (!isFresh(free, now)) {
+                    snapshots = null;
+                    break;
+                }
+                snapshots.add(new ScheduleSnapshot(date, free.value, stock.value));
+            }
+            if (snapshots != null) {
+                hits.add(snapshots.size());
+                return snapshots;
+            }
+        }
+        List<ScheduleSnapshot> snapshots = fill(from, to);
+        misses.add(snapshots.size());
+        return snapshots;
+    }
+
+    private List<ScheduleSnapshot> fill(LocalDate from, LocalDate to) throws SQLException {
+        long seenAvailability = availabilityVersion.get();
+        long seenDoses = dosesVersion.get();
+        List<ScheduleSnapshot> snapshots;
+        if (availabilityIndex.isLoaded() && doseInventory.isLoaded()) {
+            snapshots = ScheduleSnapshot.ofRange(from, to, availabilityIndex.range(from, to),
+                    doseInventory.inStock());
+        } else {
+            snapshots = Storage.getInstance().availabilities().schedule(from, to);
+        }
+
+        long now = System.nanoTime();
+        if (caregivers.size() + snapshots.size() > MAX_CACHED_DATES) {
+            caregivers.clear();
+        }
+        List<Cached<List<String>>> cached = new ArrayList<>();
+        for (ScheduleSnapshot snapshot : snapshots) {
+            Cached<List<String>> entry = new Cached<>(snapshot.getCaregivers(), now);
+            caregivers.put(snapshot.getDate(), entry);
+            cached.add(entry);
+        }
+        // a change after the read either removes the entry itself or is seen here
+        if (availabilityVersion.get() != seenAvailability) {
+            for (int i = 0; i < snapshots.size(); i++) {
+                caregivers.remove(snapshots.get(i).getDate(), cached.get(i));
+            }
+        }
+        Cached<Map<String, Integer>> stock = new Cached<>(snapshots.get(0).getVaccineDoses(), now);
+        doses.set(stock);
+        if (dosesVersion.get() != seenDoses) {
+            doses.compareAndSet(stock, null);
+        }
+        return snapshots;
+    }
+
+    private boolean isFresh(Cached<?> entry, long now) {
+        return entry != null && now - entry.loadedAt < maxAgeNanos;
+    }
+
+    // The free caregivers on the date changed
+    public void availabilityChanged(LocalDate date) {
+        availabilityVersion.incrementAndGet();
+        caregivers.remove(date);
+    }
+
+    // The free caregivers may have changed on any date, e.g. after a reload
+    public void availabilityChanged() {
+        availabilityVersion.incrementAndGet();
+        caregivers.clear();
+    }
+
+    public void dosesChanged() {
+        dosesVersion.incrementAndGet();
+        doses.set(null);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static class Cached<T> {
+        private final T value;
+        private final long loadedAt;
+
+        private Cached(T value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
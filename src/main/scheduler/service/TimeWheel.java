@@ -0,0 +1,111 @@
+package scheduler.service;
+
+import scheduler.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: hands each scheduled item to a callback once its delay has passed, to within one tick.
+ *
+ * The wheel is a ring of buckets, one per tick; an item goes into the bucket of the tick it is due on, modulo the
+ * number of buckets, and stays there for as many turns as its delay needs. Scheduling and cancelling are O(1) and
+ * never lock: new items wait in a queue that the ticking thread moves into their buckets, and a cancelled item is
+ * only marked and then dropped when its bucket comes round. The callback runs on the ticking thread; one that throws
+ * is counted in "timer_errors" under the wheel's name, and the wheel keeps turning.
+ */
+public class TimeWheel<T> {
+
+    private final long tickNanos;
+    private final List<ArrayDeque<Timeout<T>>> buckets;
+    private final int mask;
+    private final Consumer<T> onExpiry;
+    private final LongAdder errors;
+    private final ConcurrentLinkedQueue<Timeout<T>> added = new ConcurrentLinkedQueue<>();
+    private final long start = System.nanoTime();
+    // the next tick to process; only the ticking thread uses it
+    private long tick = 0;
+
+    // bucketCount is rounded up to a power of two
+    public TimeWheel(String name, long tickMillis, int bucketCount, Consumer<T> onExpiry) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, bucketCount) * 2 - 1);
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayDeque<>());
+        }
+        this.mask = size - 1;
+        this.onExpiry = onExpiry;
+        this.errors = Metrics.getInstance().counter("timer_errors", name);
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Timeout<T> schedule(T item, long delayMillis) {
+        long due = System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        // rounded up, so that an item never expires early
+        Timeout<T> timeout = new Timeout<>(item, (due + tickNanos - 1) / tickNanos);
+        added.add(timeout);
+        return timeout;
+    }
+
+    private void advance() {
+        long now = (System.nanoTime() - start) / tickNanos;
+        while (tick <= now) {
+            for (Timeout<T> timeout; (timeout = added.poll()) != null; ) {
+                if (!timeout.cancelled) {
+                    // one that is already due goes into the bucket being processed
+                    buckets.get((int) (Math.max(timeout.dueTick, tick) & mask)).add(timeout);
+                }
+            }
+            Iterator<Timeout<T>> bucket = buckets.get((int) (tick & mask)).iterator();
+            while (bucket.hasNext()) {
+                Timeout<T> timeout = bucket.next();
+                if (timeout.cancelled) {
+                    bucket.remove();
+                } else if (timeout.dueTick <= tick) {
+                    bucket.remove();
+                    expire(timeout.item);
+                }
+            }
+            tick++;
+        }
+    }
+
+    private void expire(T item) {
+        try {
+            onExpiry.accept(item);
+        } catch (RuntimeException e) {
+            // the wheel has to keep turning for every other item
+            errors.increment();
+        }
+    }
+
+    public static class Timeout<T> {
+        private final T item;
+        private final long dueTick;
+        private volatile boolean cancelled = false;
+
+        private Timeout(T item, long dueTick) {
+            this.item = item;
+            this.dueTick = dueTick;
+        }
+
+        // The item won't be handed to the callback, unless that is already happening
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
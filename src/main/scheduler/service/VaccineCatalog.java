@@ -0,0 +1,93 @@
+package scheduler.service;
+
+import scheduler.metrics.Metrics;
+import scheduler.store.Storage;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of the Vaccines table for {@link scheduler.model.Vaccine.VaccineGetter}.
+ *
+ * A vaccine the {@link DoseInventory} counts is answered from the inventory. Any other lookup, including one for a
+ * vaccine that doesn't exist, is cached per name for scheduler.vaccines.cacheMillis, which bounds how long a change
+ * made by another process can go unseen. Every write to the table in this process drops the entries it touches,
+ * and a lookup that raced with a write doesn't stay cached.
+ */
+public class VaccineCatalog {
+
+    private static final VaccineCatalog INSTANCE = new VaccineCatalog();
+    // the cache starts over rather than grow beyond this many names, most of which would be misspellings
+    private static final int MAX_CACHED_NAMES = 4096;
+
+    private final DoseInventory doseInventory = DoseInventory.getInstance();
+    private final ConcurrentHashMap<String, Cached> entries = new ConcurrentHashMap<>();
+    // bumped by every change, so that a lookup which raced with a change doesn't stay cached
+    private final AtomicLong version = new AtomicLong();
+    private final long maxAgeNanos =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("scheduler.vaccines.cacheMillis", 1000L));
+    private final LongAdder hits = Metrics.getInstance().counter("vaccine_cache", "hits");
+    private final LongAdder misses = Metrics.getInstance().counter("vaccine_cache", "misses");
+
+    public static VaccineCatalog getInstance() {
+        return INSTANCE;
+    }
+
+    // The vaccine's doses, or null if there is no such vaccine
+    public Integer doses(String vaccineName) throws SQLException {
+        if (doseInventory.isLoaded() && doseInventory.contains(vaccineName)) {
+            hits.increment();
+            return doseInventory.available(vaccineName);
+        }
+        Cached entry = entries.get(vaccineName);
+        if (entry != null && System.nanoTime() - entry.loadedAt < maxAgeNanos) {
+            hits.increment();
+            return entry.doses;
+        }
+        misses.increment();
+        long seen = version.get();
+        Integer doses = Storage.getInstance().vaccines().findDoses(vaccineName);
+        if (entries.size() >= MAX_CACHED_NAMES) {
+            entries.clear();
+        }
+        Cached loaded = new Cached(doses, System.nanoTime());
+        entries.put(vaccineName, loaded);
+        if (version.get() != seen) {
+            entries.remove(vaccineName, loaded);
+        }
+        return doses;
+    }
+
+    // The vaccine's row was inserted or its doses changed in the table
+    public void changed(String vaccineName) {
+        version.incrementAndGet();
+        entries.remove(vaccineName);
+    }
+
+    // Any vaccine may have changed, e.g. after a batch booking or an import
+    public void changed() {
+        version.incrementAndGet();
+        entries.clear();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static class Cached {
+        private final Integer doses;
+        private final long loadedAt;
+
+        private Cached(Integer doses, long loadedAt) {
+            this.doses = doses;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package scheduler.service.assignment;
+
+import scheduler.service.CaregiverLoad;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Decides in which order the free caregivers on a date are tried when booking.
+ *
+ * The store claims the first candidate whose slot is still free, so with every concurrent booking trying the same
+ * caregiver first all but one of them miss and fall through to the next. Spreading the first choice across the
+ * free caregivers avoids those misses and, for least-loaded, also evens out how many appointments each caregiver
+ * ends up with.
+ */
+public interface CaregiverAssignmentStrategy {
+
+    // free is in username order and must not be modified; the result may be free itself
+    List<String> order(LocalDate date, List<String> free);
+
+    String name();
+
+    // first-free, least-loaded, round-robin or random
+    static CaregiverAssignmentStrategy named(String name) {
+        switch (name) {
+            case "first-free":
+                return new FirstFreeStrategy();
+            case "least-loaded":
+                return new LeastLoadedStrategy(CaregiverLoad.getInstance());
+            case "round-robin":
+                return new RoundRobinStrategy();
+            case "random":
+                return new RandomStrategy();
+            default:
+                throw new IllegalArgumentException("Unknown caregiver assignment strategy " + name);
+        }
+    }
+
+    // -Dscheduler.assignment picks the strategy; least-loaded by default
+    static CaregiverAssignmentStrategy configured() {
+        return named(System.getProperty("scheduler.assignment", "least-loaded"));
+    }
+}
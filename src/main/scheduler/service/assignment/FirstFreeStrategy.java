@@ -0,0 +1,18 @@
+package scheduler.service.assignment;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// The alphabetically first free caregiver, then the next: the order bookings used before strategies existed
+public class FirstFreeStrategy implements CaregiverAssignmentStrategy {
+
+    @Override
+    public List<String> order(LocalDate date, List<String> free) {
+        return free;
+    }
+
+    @Override
+    public String name() {
+        return "first-free";
+    }
+}
@@ -0,0 +1,46 @@
+package scheduler.service.assignment;
+
+import scheduler.service.CaregiverLoad;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// The free caregivers with the fewest reservations first. Ties are broken randomly: caregivers often have equal
+// loads, and breaking ties by name would send every concurrent booking to the same one again.
+public class LeastLoadedStrategy implements CaregiverAssignmentStrategy {
+
+    private final CaregiverLoad load;
+
+    public LeastLoadedStrategy(CaregiverLoad load) {
+        this.load = load;
+    }
+
+    @Override
+    public List<String> order(LocalDate date, List<String> free) {
+        int n = free.size();
+        if (n < 2) {
+            return free;
+        }
+        // the loads are read once up front so that concurrent bookings can't change them while sorting; the low
+        // bits carry a random tie-breaker and the index into free
+        long[] keys = new long[n];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < n; i++) {
+            keys[i] = (long) load.get(free.get(i)) << 40 | (long) random.nextInt(1 << 16) << 24 | i;
+        }
+        Arrays.sort(keys);
+        List<String> ordered = new ArrayList<>(n);
+        for (long key : keys) {
+            ordered.add(free.get((int) (key & 0xFFFFFF)));
+        }
+        return ordered;
+    }
+
+    @Override
+    public String name() {
+        return "least-loaded";
+    }
+}
@@ -0,0 +1,22 @@
+package scheduler.service.assignment;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// A random free caregiver first, falling back to the ones after it in username order if that slot is gone
+public class RandomStrategy implements CaregiverAssignmentStrategy {
+
+    @Override
+    public List<String> order(LocalDate date, List<String> free) {
+        if (free.size() < 2) {
+            return free;
+        }
+        return Rotation.of(free, ThreadLocalRandom.current().nextInt(free.size()));
+    }
+
+    @Override
+    public String name() {
+        return "random";
+    }
+}
@@ -0,0 +1,31 @@
+package scheduler.service.assignment;
+
+import java.util.AbstractList;
+import java.util.List;
+
+// A view of a list that starts at offset and wraps around, so rotating costs nothing per booking
+class Rotation extends AbstractList<String> {
+
+    private final List<String> list;
+    private final int offset;
+
+    private Rotation(List<String> list, int offset) {
+        this.list = list;
+        this.offset = offset;
+    }
+
+    static List<String> of(List<String> list, int offset) {
+        return offset == 0 ? list : new Rotation(list, offset);
+    }
+
+    @Override
+    public String get(int index) {
+        int i = index + offset;
+        return list.get(i < list.size() ? i : i - list.size());
+    }
+
+    @Override
+    public int size() {
+        return list.size();
+    }
+}
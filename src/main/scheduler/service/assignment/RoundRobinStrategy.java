@@ -0,0 +1,24 @@
+package scheduler.service.assignment;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Each booking starts one caregiver further along the free list than the previous one, wrapping around
+public class RoundRobinStrategy implements CaregiverAssignmentStrategy {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public List<String> order(LocalDate date, List<String> free) {
+        if (free.size() < 2) {
+            return free;
+        }
+        return Rotation.of(free, Math.floorMod(next.getAndIncrement(), free.size()));
+    }
+
+    @Override
+    public String name() {
+        return "round-robin";
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.store;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.NavigableMap;
+
+public interface AvailabilityStore {
+
+    // Caregivers free on the given date, in username order
+    List<String> caregiversOn(LocalDate date) throws SQLException;
+
+    // Every date with its free caregivers in username order
+    NavigableMap<LocalDate, List<String>> all() throws SQLException;
+
+    // One snapshot for every date in [from, to], dates without free caregivers included, read together with the
+    // vaccines in stock in one round trip
+    List<ScheduleSnapshot> schedule(LocalDate from, LocalDate to) throws SQLException;
+
+    // fails if the caregiver is already available on that date
+    void add(String username, LocalDate date) throws SQLException;
+
+    // false if the caregiver wasn't available on that date
+    boolean remove(String username, LocalDate date) throws SQLException;
+
+    // Adds usernames[i] on dates[i] for every i in one transaction; an entry is false where the caregiver was
+    // already available on that date or does not exist
+    boolean[] addAll(List<String> usernames, List<LocalDate> dates) throws SQLException;
+}
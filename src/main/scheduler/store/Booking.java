@@ -0,0 +1,54 @@
+package scheduler.store;
+
+// The result of ReservationStore.book, and of HoldStore.hold with the hold ID in place of the appointment ID
+public class Booking {
+
+    public enum Outcome {
+        BOOKED,
+        NO_CAREGIVER,
+        NO_DOSES,
+        // only from bookAll, whose requests name patients that may not exist
+        UNKNOWN_PATIENT
+    }
+
+    private final Outcome outcome;
+    private final int appointmentId;
+    private final String caregiverName;
+    private final int slotMisses;
+
+    private Booking(Outcome outcome, int appointmentId, String caregiverName, int slotMisses) {
+        this.outcome = outcome;
+        this.appointmentId = appointmentId;
+        this.caregiverName = caregiverName;
+        this.slotMisses = slotMisses;
+    }
+
+    public static Booking booked(int appointmentId, String caregiverName) {
+        return booked(appointmentId, caregiverName, 0);
+    }
+
+    // slotMisses: candidate caregivers that turned out to be taken before one could be claimed
+    public static Booking booked(int appointmentId, String caregiverName, int slotMisses) {
+        return new Booking(Outcome.BOOKED, appointmentId, caregiverName, slotMisses);
+    }
+
+    public static Booking failed(Outcome outcome) {
+        return new Booking(outcome, -1, null, 0);
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public int getSlotMisses() {
+        return slotMisses;
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.store;
+
+import java.sql.Date;
+
+// One appointment wanted in a ReservationStore.bookAll batch
+public class BookingRequest {
+
+    private final String patientName;
+    private final Date date;
+    private final String vaccineName;
+
+    public BookingRequest(String patientName, Date date, String vaccineName) {
+        this.patientName = patientName;
+        this.date = date;
+        this.vaccineName = vaccineName;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+}
@@ -0,0 +1,24 @@
+package scheduler.store;
+
+import java.sql.SQLException;
+import java.util.function.BiConsumer;
+
+// What any process wrote to the data the in-memory caches hold, for running several processes against one database or
+// shared write-ahead log. A position is an opaque point in the history of writes.
+public interface ChangeFeed {
+
+    // changed names are dates (yyyy-MM-dd) whose free caregivers changed
+    String AVAILABILITY = "availability";
+    // changed names are vaccines whose row was inserted, updated or deleted
+    String VACCINE = "vaccine";
+
+    // Forgets changes old enough that no process polling the feed still needs them
+    void prune() throws SQLException;
+
+    // Where to read from to see every write committed after this call
+    long position() throws SQLException;
+
+    // Calls changed with the kind and name of everything written since the position, possibly including writes
+    // seen before, and returns the position to read from next
+    long changesSince(long position, BiConsumer<String, String> changed) throws SQLException;
+}
@@ -0,0 +1,44 @@
+package scheduler.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers the stores' write transactions in the order they commit, so that the event journal can put the events of
+ * concurrent writes in that order without holding the writes up.
+ *
+ * A store takes the next number inside the transaction, after its last statement and right before it commits. Two
+ * transactions that write the same row can't both hold it then, so the one that commits first has the lower number;
+ * transactions that write different rows may get theirs in either order, which changes nothing that replays them.
+ * The number stays with the thread until its next commit, which is how the caller hands it to the journal.
+ */
+public final class CommitOrder {
+
+    private static final CommitOrder INSTANCE = new CommitOrder();
+
+    private final AtomicLong next = new AtomicLong();
+    private final ThreadLocal<long[]> last = ThreadLocal.withInitial(() -> new long[1]);
+
+    private CommitOrder() {
+    }
+
+    public static CommitOrder getInstance() {
+        return INSTANCE;
+    }
+
+    // Call inside the transaction, right before it commits
+    public long committing() {
+        long number = next.incrementAndGet();
+        last.get()[0] = number;
+        return number;
+    }
+
+    // The number of this thread's last commit, 0 if it has made none
+    public long last() {
+        return last.get()[0];
+    }
+
+    // Numbers from here on are above taken, e.g. the highest one a journal recorded before a restart
+    public void advanceTo(long taken) {
+        next.accumulateAndGet(taken, Math::max);
+    }
+}
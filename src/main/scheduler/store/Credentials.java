@@ -0,0 +1,32 @@
+package scheduler.store;
+
+// A stored login: the salted password hash of a patient or caregiver and the PasswordHasher version that made it
+public class Credentials {
+    private final String username;
+    private final byte[] salt;
+    private final byte[] hash;
+    private final int hashVersion;
+
+    public Credentials(String username, byte[] salt, byte[] hash, int hashVersion) {
+        this.username = username;
+        this.salt = salt;
+        this.hash = hash;
+        this.hashVersion = hashVersion;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public int getHashVersion() {
+        return hashVersion;
+    }
+}
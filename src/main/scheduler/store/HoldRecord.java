@@ -0,0 +1,49 @@
+package scheduler.store;
+
+import java.sql.Date;
+
+// One row of the Holds table: a caregiver slot and a dose set aside for a patient until expiresAt
+public class HoldRecord {
+
+    private final int holdId;
+    private final String patientName;
+    private final String caregiverName;
+    private final Date date;
+    private final String vaccineName;
+    // System.currentTimeMillis() at which the hold runs out
+    private final long expiresAt;
+
+    public HoldRecord(int holdId, String patientName, String caregiverName, Date date, String vaccineName,
+                      long expiresAt) {
+        this.holdId = holdId;
+        this.patientName = patientName;
+        this.caregiverName = caregiverName;
+        this.date = date;
+        this.vaccineName = vaccineName;
+        this.expiresAt = expiresAt;
+    }
+
+    public int getHoldId() {
+        return holdId;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+}
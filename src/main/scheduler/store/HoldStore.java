@@ -0,0 +1,24 @@
+package scheduler.store;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+
+// Holds are kept with the slot and the dose they claimed, so that they outlive the process that placed them
+public interface HoldStore {
+
+    // Claims a caregiver slot and takes a dose like ReservationStore.book and records the hold until expiresAt, all
+    // or nothing; a BOOKED result carries the hold ID where a booking has its appointment ID
+    Booking hold(String patientName, Date date, String vaccineName, List<String> candidates, long expiresAt)
+            throws SQLException;
+
+    // Replaces the hold with a reservation for its slot and dose, all or nothing; returns the appointment ID, or -1
+    // if there is no such hold
+    int confirm(int holdId) throws SQLException;
+
+    // Gives the hold's slot and dose back and removes it, all or nothing; false if there is no such hold
+    boolean release(int holdId) throws SQLException;
+
+    // Every hold, expired ones included, in hold ID order
+    List<HoldRecord> all() throws SQLException;
+}
@@ -0,0 +1,80 @@
+package scheduler.store;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense int IDs for the names of one kind of entity, patients, caregivers or vaccines, in both directions.
+ *
+ * An ID is assigned the first time a name is interned and never changes or gets reused, so in-memory structures can
+ * key on it with plain arrays instead of hashing names, and hold the one String instance kept here instead of a copy
+ * per row. The IDs live as long as the process; the tables keep their names.
+ */
+public final class IdDictionary {
+
+    private static final IdDictionary PATIENTS = new IdDictionary();
+    private static final IdDictionary CAREGIVERS = new IdDictionary();
+    private static final IdDictionary VACCINES = new IdDictionary();
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // names[id]; replaced by a longer copy when full, entries are written before the ID is published in ids
+    private volatile String[] names = new String[64];
+    private int size = 0;
+
+    private IdDictionary() {
+    }
+
+    public static IdDictionary patients() {
+        return PATIENTS;
+    }
+
+    public static IdDictionary caregivers() {
+        return CAREGIVERS;
+    }
+
+    public static IdDictionary vaccines() {
+        return VACCINES;
+    }
+
+    // The name's ID, assigning the next one if the name is new
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            String[] current = names;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = name;
+            names = current;
+            ids.put(name, size);
+            return size++;
+        }
+    }
+
+    // The one instance of an equal name that the dictionary keeps
+    public String canonical(String name) {
+        return name(intern(name));
+    }
+
+    // -1 if the name was never interned
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    // IDs are 0 up to size - 1
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,4 @@
+package scheduler.store;
+
+public interface PatientStore extends UserStore {
+}
@@ -0,0 +1,43 @@
+package scheduler.store;
+
+import scheduler.model.Reservation;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public interface ReservationStore {
+
+    // Claims a free caregiver slot on the date, takes a dose and inserts the reservation, all or nothing.
+    // candidates are tried in order before the store picks any free caregiver itself (null: let the store pick).
+    // With doseTaken the caller has taken the dose already, and the store records the take for
+    // VaccineStore.flushTakes instead of taking it from the vaccine's count.
+    Booking book(String patientName, Date date, String vaccineName, List<String> candidates, boolean doseTaken)
+            throws SQLException;
+
+    // Books as many of the requests as there are slots and doses for, in one transaction, and returns one Booking per
+    // request in request order. Requests are served in order, so earlier ones win when a date or vaccine runs out.
+    // A request that can't be booked fails on its own; an SQLException means that none were booked. dosesTaken is
+    // as for book, for every request.
+    List<Booking> bookAll(List<BookingRequest> requests, boolean dosesTaken) throws SQLException;
+
+    // null if there is no such reservation
+    Reservation find(int appointmentId) throws SQLException;
+
+    // Removes the reservation and makes the caregiver available on its date again, and with returnDose puts its dose
+    // back, all or nothing; returns the removed reservation, or null if it did not exist
+    Reservation cancel(int appointmentId, boolean returnDose) throws SQLException;
+
+    // One page of a caregiver's (byCaregiver) or patient's reservations after afterId in appointment_id order,
+    // optionally limited to [from, to]; returns true if there are more after this page
+    boolean list(boolean byCaregiver, String username, int afterId, int limit, Date from, Date to,
+                 Consumer<Reservation> action) throws SQLException;
+
+    // Number of reservations per caregiver, for caregivers that have any
+    Map<String, Integer> countByCaregiver() throws SQLException;
+
+    // Inserts the reservations as they are in one transaction, for seeding; their appointment IDs are ignored
+    void insertAll(List<Reservation> reservations) throws SQLException;
+}
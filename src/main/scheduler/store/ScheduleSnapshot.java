@@ -0,0 +1,51 @@
+package scheduler.store;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+// What search_caregiver_schedule shows for one date: the free caregivers and the vaccines that have doses left.
+// Snapshots are shared between readers, so the list and the map are never modified.
+public class ScheduleSnapshot {
+
+    private final LocalDate date;
+    private final List<String> caregivers;
+    private final Map<String, Integer> vaccineDoses;
+
+    public ScheduleSnapshot(LocalDate date, List<String> caregivers, Map<String, Integer> vaccineDoses) {
+        this.date = date;
+        this.caregivers = caregivers;
+        this.vaccineDoses = vaccineDoses;
+    }
+
+    // One snapshot per date in [from, to], all sharing the same doses; caregivers holds the dates that have any
+    public static List<ScheduleSnapshot> ofRange(LocalDate from, LocalDate to,
+                                                 NavigableMap<LocalDate, List<String>> caregivers,
+                                                 Map<String, Integer> vaccineDoses) {
+        Map<String, Integer> doses = Collections.unmodifiableMap(vaccineDoses);
+        List<ScheduleSnapshot> snapshots = new ArrayList<>();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            List<String> free = caregivers.get(date);
+            snapshots.add(new ScheduleSnapshot(date,
+                    free == null ? Collections.emptyList() : Collections.unmodifiableList(free), doses));
+        }
+        return snapshots;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    // in username order
+    public List<String> getCaregivers() {
+        return caregivers;
+    }
+
+    // in name order, only vaccines with doses
+    public Map<String, Integer> getVaccineDoses() {
+        return vaccineDoses;
+    }
+}
@@ -0,0 +1,75 @@
+package scheduler.store;
+
+import scheduler.store.jdbc.JdbcStorage;
+import scheduler.store.memory.MemoryStorage;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * The stores every model class and service reads and writes through.
+ *
+ * The backend is picked once per process with -Dscheduler.storage (or STORAGE): "jdbc", the default, keeps
+ * everything in the SQL Server database that ConnectionManager points at; "memory" keeps everything in this process,
+ * optionally made durable with a write-ahead log at -Dscheduler.storage.wal (or STORAGE_WAL), which
+ * -Dscheduler.storage.wal.shared=true lets several processes use at once.
+ */
+public abstract class Storage {
+
+    private static class Holder {
+        private static final Storage INSTANCE = create(setting("scheduler.storage", "STORAGE", "jdbc"));
+    }
+
+    public static Storage getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static Storage create(String backend) {
+        switch (backend.trim().toLowerCase()) {
+            case "jdbc":
+                return new JdbcStorage();
+            case "memory":
+                String wal = setting("scheduler.storage.wal", "STORAGE_WAL", null);
+                try {
+                    if (wal == null) {
+                        return new MemoryStorage();
+                    }
+                    boolean sync = Boolean.getBoolean("scheduler.storage.wal.sync");
+                    return Boolean.getBoolean("scheduler.storage.wal.shared")
+                            ? MemoryStorage.openShared(Paths.get(wal), sync) : MemoryStorage.open(Paths.get(wal), sync);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not open write-ahead log " + wal, e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown storage backend " + backend);
+        }
+    }
+
+    private static String setting(String property, String env, String defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            value = System.getenv(env);
+        }
+        return value == null ? defaultValue : value;
+    }
+
+    public abstract PatientStore patients();
+
+    public abstract CaregiverStore caregivers();
+
+    public abstract VaccineStore vaccines();
+
+    public abstract AvailabilityStore availabilities();
+
+    public abstract ReservationStore reservations();
+
+    public abstract HoldStore holds();
+
+    // true when the data lives in the SQL database, i.e. schema migrations apply
+    public abstract boolean isJdbc();
+
+    // null when no other process can write the data
+    public ChangeFeed changeFeed() {
+        return null;
+    }
+}
@@ -0,0 +1,21 @@
+package scheduler.store;
+
+import java.sql.SQLException;
+import java.util.List;
+
+// Logins of one kind of user; see PatientStore and CaregiverStore
+public interface UserStore {
+
+    boolean exists(String username) throws SQLException;
+
+    // null if there is no such user
+    Credentials find(String username) throws SQLException;
+
+    // fails if the username is taken
+    void insert(Credentials credentials) throws SQLException;
+
+    void update(Credentials credentials) throws SQLException;
+
+    // Inserts all users in one transaction; an entry is false where the username was taken (also within the list)
+    boolean[] insertAll(List<Credentials> users) throws SQLException;
+}
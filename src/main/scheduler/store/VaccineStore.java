@@ -0,0 +1,30 @@
+package scheduler.store;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+public interface VaccineStore {
+
+    // null if there is no such vaccine. Takes that a booking recorded and that are not flushed yet count as taken.
+    Integer findDoses(String vaccineName) throws SQLException;
+
+    // Every vaccine with its doses, in name order, counted as findDoses does
+    Map<String, Integer> all() throws SQLException;
+
+    // fails if the vaccine exists already
+    void insert(String vaccineName, int doses) throws SQLException;
+
+    // Relative update, so concurrent writers never overwrite each other; fails if there is no such vaccine
+    void addDoses(String vaccineName, int num) throws SQLException;
+
+    // Takes num doses in one conditional step; false if fewer than num are left
+    boolean takeDoses(String vaccineName, int num) throws SQLException;
+
+    // Adds every delta in one transaction; with createMissing, vaccines that don't exist yet are created with the
+    // delta as their dose count, otherwise none of the deltas are applied if one of the vaccines doesn't exist
+    void applyDeltas(Map<String, Integer> deltas, boolean createMissing) throws SQLException;
+
+    // Subtracts the takes that bookings recorded (see ReservationStore.book) from the vaccines' counts, with one
+    // relative update per vaccine, and forgets them, all in one transaction; returns the number of doses flushed
+    int flushTakes() throws SQLException;
+}
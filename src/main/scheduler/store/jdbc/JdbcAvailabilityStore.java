@@ -0,0 +1,155 @@
+package scheduler.store.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.store.AvailabilityStore;
+import scheduler.store.ScheduleSnapshot;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static scheduler.store.jdbc.JdbcUserStore.commit;
+import static scheduler.store.jdbc.JdbcUserStore.connect;
+
+class JdbcAvailabilityStore implements AvailabilityStore {
+
+    @Override
+    public List<String> caregiversOn(LocalDate date) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.CAREGIVERS_ON.prepare(con)) {
+            statement.setDate(1, Date.valueOf(date));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                List<String> caregivers = new ArrayList<>();
+                while (resultSet.next()) {
+                    caregivers.add(resultSet.getString("Username"));
+                }
+                return caregivers;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public NavigableMap<LocalDate, List<String>> all() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.AVAILABILITIES.prepare(con);
+             ResultSet resultSet = statement.executeQuery()) {
+            NavigableMap<LocalDate, List<String>> rows = new TreeMap<>();
+            while (resultSet.next()) {
+                LocalDate date = resultSet.getDate("Time").toLocalDate();
+                rows.computeIfAbsent(date, d -> new ArrayList<>()).add(resultSet.getString("Username"));
+            }
+            return rows;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<ScheduleSnapshot> schedule(LocalDate from, LocalDate to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.SCHEDULE.prepare(con)) {
+            statement.setDate(1, Date.valueOf(from));
+            statement.setDate(2, Date.valueOf(to));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                NavigableMap<LocalDate, List<String>> rows = new TreeMap<>();
+                Map<String, Integer> inStock = new TreeMap<>();
+                while (resultSet.next()) {
+                    Date time = resultSet.getDate("Time");
+                    if (time == null) {
+                        inStock.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+                    } else {
+                        rows.computeIfAbsent(time.toLocalDate(), d -> new ArrayList<>())
+                                .add(resultSet.getString("Username"));
+                    }
+                }
+                return ScheduleSnapshot.ofRange(from, to, rows, inStock);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // a transaction of its own, so that the slot's writes are numbered in the order they commit
+    @Override
+    public void add(String username, LocalDate date) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = Statements.INSERT_AVAILABILITY.prepare(con)) {
+                statement.setDate(1, Date.valueOf(date));
+                statement.setString(2, username);
+                statement.executeUpdate();
+            }
+            commit(con);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean remove(String username, LocalDate date) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            boolean removed;
+            try (PreparedStatement statement = Statements.DELETE_AVAILABILITY.prepare(con)) {
+                statement.setDate(1, Date.valueOf(date));
+                statement.setString(2, username);
+                removed = statement.executeUpdate() > 0;
+            }
+            commit(con);
+            return removed;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean[] addAll(List<String> usernames, List<LocalDate> dates) throws SQLException {
+        boolean[] inserted = new boolean[usernames.size()];
+        if (inserted.length == 0) {
+            return inserted;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            int[] counts;
+            try (PreparedStatement statement = Statements.INSERT_AVAILABILITY_IF_CAREGIVER.prepare(con)) {
+                for (int i = 0; i < inserted.length; i++) {
+                    Date d = Date.valueOf(dates.get(i));
+                    String username = usernames.get(i);
+                    statement.setDate(1, d);
+                    statement.setString(2, username);
+                    statement.setDate(3, d);
+                    statement.setString(4, username);
+                    statement.setString(5, username);
+                    statement.addBatch();
+                }
+                counts = statement.executeBatch();
+            }
+            commit(con);
+            for (int i = 0; i < counts.length; i++) {
+                inserted[i] = counts[i] != 0;
+            }
+            return inserted;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
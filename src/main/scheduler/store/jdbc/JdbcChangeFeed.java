@@ -0,0 +1,67 @@
+package scheduler.store.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.store.ChangeFeed;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.BiConsumer;
+
+import static scheduler.store.jdbc.JdbcUserStore.connect;
+
+// Reads the append-only ChangeLog table that the triggers of migration V8 on Availabilities and Vaccines write to; a
+// position is a rowversion. prune() deletes rows older than scheduler.cluster.changeRetentionSeconds, so a process that
+// doesn't poll for longer than that misses changes.
+class JdbcChangeFeed implements ChangeFeed {
+
+    private final long retentionSeconds = Long.getLong("scheduler.cluster.changeRetentionSeconds", 3600L);
+
+    @Override
+    public void prune() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.PRUNE_CHANGES.prepare(con)) {
+            statement.setLong(1, retentionSeconds);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public long position() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.CHANGE_POSITION.prepare(con);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public long changesSince(long position, BiConsumer<String, String> changed) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.CHANGES.prepare(con)) {
+            statement.setLong(1, position);
+            long next = position;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    next = resultSet.getLong("Horizon");
+                    String kind = resultSet.getString("Kind");
+                    if (kind != null) {
+                        changed.accept(kind, resultSet.getString("Name"));
+                    }
+                }
+            }
+            return next;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package scheduler.store.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.store.Booking;
+import scheduler.store.HoldRecord;
+import scheduler.store.HoldStore;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static scheduler.store.jdbc.JdbcUserStore.commit;
+import static scheduler.store.jdbc.JdbcUserStore.connect;
+
+// Keeps holds in the Holds table (migration V7); claiming, confirming and giving back a hold each run in one
+// transaction with the slot and dose statements of JdbcReservationStore
+class JdbcHoldStore implements HoldStore {
+
+    @Override
+    public Booking hold(String patientName, Date date, String vaccineName, List<String> candidates, long expiresAt)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+
+            int[] misses = new int[1];
+            String caregiverName = JdbcReservationStore.claimSlot(con, date, candidates, misses);
+            if (caregiverName == null) {
+                con.rollback();
+                return Booking.failed(Booking.Outcome.NO_CAREGIVER);
+            }
+
+            if (!JdbcReservationStore.takeDose(con, vaccineName)) {
+                con.rollback();
+                return Booking.failed(Booking.Outcome.NO_DOSES);
+            }
+
+            int holdId;
+            try (PreparedStatement insert = Statements.INSERT_HOLD.prepare(con)) {
+                insert.setString(1, patientName);
+                insert.setString(2, caregiverName);
+                insert.setString(3, vaccineName);
+                insert.setDate(4, date);
+                insert.setTimestamp(5, new Timestamp(expiresAt));
+                try (ResultSet generated = insert.executeQuery()) {
+                    if (!generated.next()) {
+                        throw new SQLException("Hold insert did not return a hold ID");
+                    }
+                    holdId = generated.getInt(1);
+                }
+            }
+
+            commit(con);
+            return Booking.booked(holdId, caregiverName, misses[0]);
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int confirm(int holdId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            HoldRecord hold = delete(con, holdId);
+            if (hold == null) {
+                con.rollback();
+                return -1;
+            }
+            int appointmentId = JdbcReservationStore.insert(con, hold.getPatientName(), hold.getDate(),
+                    hold.getVaccineName(), hold.getCaregiverName());
+            commit(con);
+            return appointmentId;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean release(int holdId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            HoldRecord hold = delete(con, holdId);
+            if (hold == null) {
+                con.rollback();
+                return false;
+            }
+            JdbcReservationStore.restoreSlot(con, hold.getCaregiverName(), hold.getDate());
+            JdbcReservationStore.returnDose(con, hold.getVaccineName());
+            commit(con);
+            return true;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Deletes the hold and returns what it held, without its expiry; null if there was no such hold
+    private static HoldRecord delete(Connection con, int holdId) throws SQLException {
+        try (PreparedStatement statement = Statements.DELETE_HOLD.prepare(con)) {
+            statement.setInt(1, holdId);
+            try (ResultSet deleted = statement.executeQuery()) {
+                if (!deleted.next()) {
+                    return null;
+                }
+                return new HoldRecord(holdId, deleted.getString("patient_name"), deleted.getString("caregiver_name"),
+                        deleted.getDate("Time"), deleted.getString("vaccines_name"), 0);
+            }
+        }
+    }
+
+    @Override
+    public List<HoldRecord> all() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.HOLDS.prepare(con);
+             ResultSet resultSet = statement.executeQuery()) {
+            List<HoldRecord> holds = new ArrayList<>();
+            while (resultSet.next()) {
+                holds.add(new HoldRecord(resultSet.getInt("hold_id"), resultSet.getString("patient_name"),
+                        resultSet.getString("caregiver_name"), resultSet.getDate("Time"),
+                        resultSet.getString("vaccines_name"), resultSet.getTimestamp("ExpiresAt").getTime()));
+            }
+            return holds;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
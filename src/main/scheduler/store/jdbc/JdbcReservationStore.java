@@ -0,0 +1,482 @@
+package scheduler.store.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.NamedSql;
+import scheduler.model.Reservation;
+import scheduler.store.Booking;
+import scheduler.store.BookingRequest;
+import scheduler.store.ReservationStore;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static scheduler.store.jdbc.JdbcUserStore.commit;
+import static scheduler.store.jdbc.JdbcUserStore.connect;
+
+// Books in one transaction: the slot and the dose are each claimed with one conditional statement, so two
+// concurrent bookings can never take the same slot or drive the dose count below zero, and the appointment ID
+// comes from the IDENTITY column of Reservations (added by migration V4, which older databases need first). A dose
+// the caller took already is recorded in DoseTakes (migration V9) instead, which leaves the vaccine's row alone.
+class JdbcReservationStore implements ReservationStore {
+
+    // rows fetched per round trip while streaming a page
+    private static final int FETCH_SIZE = Integer.getInteger("scheduler.appointments.fetchSize", 100);
+    private static final int BATCH_SIZE = 1000;
+    // rows per multi-row statement in bookAll; four parameters per row stays under SQL Server's 2100
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+
+    @Override
+    public Booking book(String patientName, Date date, String vaccineName, List<String> candidates,
+                        boolean doseTaken) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+
+            int[] misses = new int[1];
+            String caregiverName = claimSlot(con, date, candidates, misses);
+            if (caregiverName == null) {
+                con.rollback();
+                return Booking.failed(Booking.Outcome.NO_CAREGIVER);
+            }
+
+            if (doseTaken) {
+                JdbcVaccineStore.recordTakes(con, Collections.singletonMap(vaccineName, 1));
+            } else if (!takeDose(con, vaccineName)) {
+                con.rollback();
+                return Booking.failed(Booking.Outcome.NO_DOSES);
+            }
+
+            int appointmentId = insert(con, patientName, date, vaccineName, caregiverName);
+            commit(con);
+            return Booking.booked(appointmentId, caregiverName, misses[0]);
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Inserts the reservation for a slot and a dose that were claimed before and returns its appointment ID
+    static int insert(Connection con, String patientName, Date date, String vaccineName, String caregiverName)
+            throws SQLException {
+        try (PreparedStatement insert = Statements.INSERT_RESERVATION.prepare(con)) {
+            insert.setString(1, vaccineName);
+            insert.setString(2, patientName);
+            insert.setString(3, caregiverName);
+            insert.setDate(4, date);
+            try (ResultSet generated = insert.executeQuery()) {
+                if (!generated.next()) {
+                    throw new SQLException("Reservation insert did not return an appointment ID");
+                }
+                return generated.getInt(1);
+            }
+        }
+    }
+
+    // Tries the given caregivers first, falling back to letting the database pick one when there are none or
+    // every listed slot is being claimed by someone else. misses[0] counts the listed slots that were gone.
+    static String claimSlot(Connection con, Date date, List<String> candidates, int[] misses)
+            throws SQLException {
+        if (candidates != null) {
+            try (PreparedStatement claimCaregiver = Statements.CLAIM_CAREGIVER_SLOT.prepare(con)) {
+                for (String candidate : candidates) {
+                    claimCaregiver.setDate(1, date);
+                    claimCaregiver.setString(2, candidate);
+                    if (claimCaregiver.executeUpdate() == 1) {
+                        return candidate;
+                    }
+                    misses[0]++;
+                }
+            }
+        }
+
+        try (PreparedStatement claimSlot = Statements.CLAIM_SLOT.prepare(con)) {
+            claimSlot.setDate(1, date);
+            try (ResultSet slot = claimSlot.executeQuery()) {
+                return slot.next() ? slot.getString("Username") : null;
+            }
+        }
+    }
+
+    // Makes the caregiver available on the date again, unless they already are
+    static void restoreSlot(Connection con, String caregiverName, Date date) throws SQLException {
+        try (PreparedStatement availability = Statements.RESTORE_AVAILABILITY.prepare(con)) {
+            availability.setDate(1, date);
+            availability.setString(2, caregiverName);
+            availability.setDate(3, date);
+            availability.setString(4, caregiverName);
+            availability.executeUpdate();
+        }
+    }
+
+    static void returnDose(Connection con, String vaccineName) throws SQLException {
+        try (PreparedStatement doses = Statements.ADD_DOSES.prepare(con)) {
+            doses.setInt(1, 1);
+            doses.setString(2, vaccineName);
+            doses.executeUpdate();
+        }
+    }
+
+    static boolean takeDose(Connection con, String vaccineName) throws SQLException {
+        try (PreparedStatement statement = Statements.TAKE_DOSE.prepare(con)) {
+            statement.setString(1, vaccineName);
+            return statement.executeUpdate() == 1;
+        }
+    }
+
+    @Override
+    public List<Booking> bookAll(List<BookingRequest> requests, boolean dosesTaken) throws SQLException {
+        Booking[] bookings = new Booking[requests.size()];
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+
+            Set<String> patients = knownPatients(con, requests);
+            Map<Date, List<Integer>> byDate = new LinkedHashMap<>();
+            for (int i = 0; i < requests.size(); i++) {
+                if (patients.contains(requests.get(i).getPatientName())) {
+                    byDate.computeIfAbsent(requests.get(i).getDate(), d -> new ArrayList<>()).add(i);
+                } else {
+                    bookings[i] = Booking.failed(Booking.Outcome.UNKNOWN_PATIENT);
+                }
+            }
+
+            // hand the claimed slots to the requests of each date in request order
+            String[] caregivers = new String[requests.size()];
+            Map<Date, List<String>> claimed = claimSlots(con, byDate);
+            for (Map.Entry<Date, List<Integer>> date : byDate.entrySet()) {
+                List<String> slots = claimed.getOrDefault(date.getKey(), Collections.emptyList());
+                List<Integer> wanting = date.getValue();
+                for (int j = 0; j < wanting.size(); j++) {
+                    if (j < slots.size()) {
+                        caregivers[wanting.get(j)] = slots.get(j);
+                    } else {
+                        bookings[wanting.get(j)] = Booking.failed(Booking.Outcome.NO_CAREGIVER);
+                    }
+                }
+            }
+
+            // requests that got a slot but no dose give the slot back
+            boolean[] dosed;
+            if (dosesTaken) {
+                dosed = new boolean[requests.size()];
+                Arrays.fill(dosed, true);
+            } else {
+                dosed = takeDoses(con, requests, caregivers);
+            }
+            List<Integer> booked = new ArrayList<>();
+            List<Integer> undosed = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                if (caregivers[i] != null) {
+                    (dosed[i] ? booked : undosed).add(i);
+                }
+            }
+            for (int i : undosed) {
+                bookings[i] = Booking.failed(Booking.Outcome.NO_DOSES);
+            }
+            restoreSlots(con, requests, caregivers, undosed);
+            insertReservations(con, requests, caregivers, booked, bookings);
+            if (dosesTaken) {
+                Map<String, Integer> takes = new TreeMap<>();
+                for (int i : booked) {
+                    takes.merge(requests.get(i).getVaccineName(), 1, Integer::sum);
+                }
+                JdbcVaccineStore.recordTakes(con, takes);
+            }
+
+            commit(con);
+            return Arrays.asList(bookings);
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private Set<String> knownPatients(Connection con, List<BookingRequest> requests) throws SQLException {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (BookingRequest request : requests) {
+            distinct.add(request.getPatientName());
+        }
+        List<String> names = new ArrayList<>(distinct);
+        Set<String> known = new HashSet<>();
+        for (int from = 0; from < names.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<String> chunk = names.subList(from, Math.min(names.size(), from + MAX_ROWS_PER_STATEMENT));
+            try (PreparedStatement statement = Statements.PATIENTS.existing.withRows("?", chunk.size()).prepare(con)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        known.add(resultSet.getString("Username"));
+                    }
+                }
+            }
+        }
+        return known;
+    }
+
+    // The claimed caregivers per date, in username order
+    private Map<Date, List<String>> claimSlots(Connection con, Map<Date, List<Integer>> byDate) throws SQLException {
+        Map<Date, List<String>> claimed = new HashMap<>();
+        List<Date> dates = new ArrayList<>(byDate.keySet());
+        for (int from = 0; from < dates.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Date> chunk = dates.subList(from, Math.min(dates.size(), from + MAX_ROWS_PER_STATEMENT));
+            try (PreparedStatement statement = Statements.CLAIM_SLOTS.withRows("(?, ?)", chunk.size()).prepare(con)) {
+                int p = 1;
+                for (Date date : chunk) {
+                    statement.setDate(p++, date);
+                    statement.setInt(p++, byDate.get(date).size());
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        claimed.computeIfAbsent(resultSet.getDate("Time"), d -> new ArrayList<>())
+                                .add(resultSet.getString("Username"));
+                    }
+                }
+            }
+        }
+        // OUTPUT returns rows in no particular order
+        claimed.values().forEach(Collections::sort);
+        return claimed;
+    }
+
+    // Which of the requests that got a slot (caregivers[i] != null) also got a dose, earlier requests first
+    private boolean[] takeDoses(Connection con, List<BookingRequest> requests, String[] caregivers)
+            throws SQLException {
+        boolean[] dosed = new boolean[requests.size()];
+        Map<String, Integer> wanted = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (caregivers[i] != null) {
+                wanted.merge(requests.get(i).getVaccineName(), 1, Integer::sum);
+            }
+        }
+        Map<String, Integer> taken = new HashMap<>();
+        List<String> vaccines = new ArrayList<>(wanted.keySet());
+        for (int from = 0; from < vaccines.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<String> chunk = vaccines.subList(from, Math.min(vaccines.size(), from + MAX_ROWS_PER_STATEMENT));
+            try (PreparedStatement statement = Statements.TAKE_DOSES.withRows("(?, ?)", chunk.size()).prepare(con)) {
+                int p = 1;
+                for (String vaccine : chunk) {
+                    statement.setString(p++, vaccine);
+                    statement.setInt(p++, wanted.get(vaccine));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        taken.put(resultSet.getString("Name"), resultSet.getInt("Taken"));
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            if (caregivers[i] == null) {
+                continue;
+            }
+            String vaccine = requests.get(i).getVaccineName();
+            int left = taken.getOrDefault(vaccine, 0);
+            if (left > 0) {
+                dosed[i] = true;
+                taken.put(vaccine, left - 1);
+            }
+        }
+        return dosed;
+    }
+
+    private void restoreSlots(Connection con, List<BookingRequest> requests, String[] caregivers,
+                              List<Integer> indexes) throws SQLException {
+        for (int from = 0; from < indexes.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Integer> chunk = indexes.subList(from, Math.min(indexes.size(), from + MAX_ROWS_PER_STATEMENT));
+            try (PreparedStatement statement =
+                         Statements.INSERT_AVAILABILITY_ROWS.withRows("(?, ?)", chunk.size()).prepare(con)) {
+                int p = 1;
+                for (int i : chunk) {
+                    statement.setDate(p++, requests.get(i).getDate());
+                    statement.setString(p++, caregivers[i]);
+                }
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private void insertReservations(Connection con, List<BookingRequest> requests, String[] caregivers,
+                                    List<Integer> indexes, Booking[] bookings) throws SQLException {
+        for (int from = 0; from < indexes.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Integer> chunk = indexes.subList(from, Math.min(indexes.size(), from + MAX_ROWS_PER_STATEMENT));
+            try (PreparedStatement statement =
+                         Statements.INSERT_RESERVATION_ROWS.withRows("(?, ?, ?, ?)", chunk.size()).prepare(con)) {
+                // a caregiver has at most one reservation per date, so caregiver and date identify each inserted row
+                Map<String, Integer> bySlot = new HashMap<>();
+                int p = 1;
+                for (int i : chunk) {
+                    BookingRequest request = requests.get(i);
+                    statement.setString(p++, request.getVaccineName());
+                    statement.setString(p++, request.getPatientName());
+                    statement.setString(p++, caregivers[i]);
+                    statement.setDate(p++, request.getDate());
+                    bySlot.put(caregivers[i] + '\t' + request.getDate(), i);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String caregiver = resultSet.getString("caregiver_name");
+                        int i = bySlot.get(caregiver + '\t' + resultSet.getDate("Time"));
+                        bookings[i] = Booking.booked(resultSet.getInt("appointment_id"), caregiver);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Reservation find(int appointmentId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.RESERVATION.prepare(con)) {
+            statement.setInt(1, appointmentId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? read(resultSet) : null;
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error retrieving reservation with ID " + appointmentId, e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Reservation cancel(int appointmentId, boolean returnDose) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            Reservation reservation;
+            try (PreparedStatement statement = Statements.CANCEL_RESERVATION.prepare(con)) {
+                statement.setInt(1, appointmentId);
+                try (ResultSet deleted = statement.executeQuery()) {
+                    if (!deleted.next()) {
+                        con.rollback();
+                        return null;
+                    }
+                    reservation = read(deleted);
+                }
+            }
+
+            restoreSlot(con, reservation.getCaregivername(), reservation.getTime());
+            if (returnDose) {
+                returnDose(con, reservation.getVaccinename());
+            }
+            commit(con);
+            return reservation;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean list(boolean byCaregiver, String username, int afterId, int limit, Date from, Date to,
+                        Consumer<Reservation> action) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        NamedSql listReservations = byCaregiver
+                ? (from != null ? Statements.CAREGIVER_RESERVATIONS_BETWEEN : Statements.CAREGIVER_RESERVATIONS)
+                : (from != null ? Statements.PATIENT_RESERVATIONS_BETWEEN : Statements.PATIENT_RESERVATIONS);
+        try (PreparedStatement statement = listReservations.prepare(con)) {
+            statement.setFetchSize(FETCH_SIZE);
+            // one row beyond the page tells us whether there is a next page
+            statement.setInt(1, limit + 1);
+            statement.setString(2, username);
+            statement.setInt(3, afterId);
+            if (from != null) {
+                statement.setDate(4, from);
+                statement.setDate(5, to);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                int count = 0;
+                while (resultSet.next()) {
+                    if (++count > limit) {
+                        return true;
+                    }
+                    action.accept(read(resultSet));
+                }
+                return false;
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error listing reservations for " + username, e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> countByCaregiver() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.RESERVATIONS_PER_CAREGIVER.prepare(con)) {
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                Map<String, Integer> counts = new HashMap<>();
+                while (resultSet.next()) {
+                    counts.put(resultSet.getString("caregiver_name"), resultSet.getInt("Reservations"));
+                }
+                return counts;
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error counting reservations per caregiver", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void insertAll(List<Reservation> reservations) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = Statements.INSERT_RESERVATIONS.prepare(con)) {
+                for (int i = 0; i < reservations.size(); i++) {
+                    Reservation reservation = reservations.get(i);
+                    statement.setString(1, reservation.getVaccinename());
+                    statement.setString(2, reservation.getPatientname());
+                    statement.setString(3, reservation.getCaregivername());
+                    statement.setDate(4, reservation.getTime());
+                    statement.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+            commit(con);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static Reservation read(ResultSet resultSet) throws SQLException {
+        return new Reservation.ReservationBuilder(resultSet.getString("caregiver_name"),
+                resultSet.getString("patient_name"), resultSet.getString("vaccines_name"),
+                resultSet.getInt("appointment_id"), resultSet.getDate("Time")).build();
+    }
+}
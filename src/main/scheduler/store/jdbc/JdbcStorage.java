@@ -0,0 +1,62 @@
+package scheduler.store.jdbc;
+
+import scheduler.store.AvailabilityStore;
+import scheduler.store.ChangeFeed;
+import scheduler.store.CaregiverStore;
+import scheduler.store.HoldStore;
+import scheduler.store.PatientStore;
+import scheduler.store.ReservationStore;
+import scheduler.store.Storage;
+import scheduler.store.VaccineStore;
+
+// Keeps everything in the SQL Server database behind ConnectionManager (see create.sql)
+public class JdbcStorage extends Storage {
+
+    private final JdbcUserStore patients = new JdbcUserStore(Statements.PATIENTS);
+    private final JdbcUserStore caregivers = new JdbcUserStore(Statements.CAREGIVERS);
+    private final JdbcVaccineStore vaccines = new JdbcVaccineStore();
+    private final JdbcAvailabilityStore availabilities = new JdbcAvailabilityStore();
+    private final JdbcReservationStore reservations = new JdbcReservationStore();
+    private final JdbcHoldStore holds = new JdbcHoldStore();
+    private final JdbcChangeFeed changeFeed = new JdbcChangeFeed();
+
+    @Override
+    public PatientStore patients() {
+        return patients;
+    }
+
+    @Override
+    public CaregiverStore caregivers() {
+        return caregivers;
+    }
+
+    @Override
+    public VaccineStore vaccines() {
+        return vaccines;
+    }
+
+    @Override
+    public AvailabilityStore availabilities() {
+        return availabilities;
+    }
+
+    @Override
+    public ReservationStore reservations() {
+        return reservations;
+    }
+
+    @Override
+    public HoldStore holds() {
+        return holds;
+    }
+
+    @Override
+    public boolean isJdbc() {
+        return true;
+    }
+
+    @Override
+    public ChangeFeed changeFeed() {
+        return changeFeed;
+    }
+}
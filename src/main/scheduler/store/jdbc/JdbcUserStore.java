@@ -0,0 +1,159 @@
+package scheduler.store.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.store.CaregiverStore;
+import scheduler.store.CommitOrder;
+import scheduler.store.Credentials;
+import scheduler.store.PatientStore;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// The Patients and Caregivers tables have the same shape, so one class serves both
+class JdbcUserStore implements PatientStore, CaregiverStore {
+
+    // SQL Server accepts at most 2100 parameters per statement, users take four each
+    private static final int MAX_ROWS_PER_INSERT = 500;
+
+    private final Statements.Users statements;
+
+    JdbcUserStore(Statements.Users statements) {
+        this.statements = statements;
+    }
+
+    static Connection connect(ConnectionManager cm) throws SQLException {
+        return cm.createConnection();
+    }
+
+    // Commits the connection's transaction, taking its number in commit order first (see CommitOrder)
+    static void commit(Connection con) throws SQLException {
+        CommitOrder.getInstance().committing();
+        con.commit();
+    }
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = statements.exists.prepare(con)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Credentials find(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = statements.find.prepare(con)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                // we need to call Util.trim() to get rid of the paddings,
+                // try to remove the use of Util.trim() and you'll see :)
+                return new Credentials(username, resultSet.getBytes("Salt"), Util.trim(resultSet.getBytes("Hash")),
+                        resultSet.getInt("HashVersion"));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void insert(Credentials credentials) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = statements.insert.prepare(con)) {
+            statement.setString(1, credentials.getUsername());
+            statement.setBytes(2, credentials.getSalt());
+            statement.setBytes(3, credentials.getHash());
+            statement.setInt(4, credentials.getHashVersion());
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void update(Credentials credentials) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = statements.update.prepare(con)) {
+            statement.setBytes(1, credentials.getSalt());
+            statement.setBytes(2, credentials.getHash());
+            statement.setInt(3, credentials.getHashVersion());
+            statement.setString(4, credentials.getUsername());
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean[] insertAll(List<Credentials> users) throws SQLException {
+        boolean[] inserted = new boolean[users.size()];
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            Set<String> taken = existingUsernames(con, users);
+            List<Credentials> fresh = new ArrayList<>();
+            for (int i = 0; i < users.size(); i++) {
+                if (taken.add(users.get(i).getUsername())) {
+                    fresh.add(users.get(i));
+                    inserted[i] = true;
+                }
+            }
+
+            for (int from = 0; from < fresh.size(); from += MAX_ROWS_PER_INSERT) {
+                List<Credentials> chunk = fresh.subList(from, Math.min(fresh.size(), from + MAX_ROWS_PER_INSERT));
+                try (PreparedStatement statement =
+                             statements.insertRows.withRows("(?, ?, ?, ?)", chunk.size()).prepare(con)) {
+                    int p = 1;
+                    for (Credentials user : chunk) {
+                        statement.setString(p++, user.getUsername());
+                        statement.setBytes(p++, user.getSalt());
+                        statement.setBytes(p++, user.getHash());
+                        statement.setInt(p++, user.getHashVersion());
+                    }
+                    statement.executeUpdate();
+                }
+            }
+            commit(con);
+            return inserted;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private Set<String> existingUsernames(Connection con, List<Credentials> users) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        for (int from = 0; from < users.size(); from += MAX_ROWS_PER_INSERT) {
+            List<Credentials> chunk = users.subList(from, Math.min(users.size(), from + MAX_ROWS_PER_INSERT));
+            try (PreparedStatement statement = statements.existing.withRows("?", chunk.size()).prepare(con)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i).getUsername());
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        existing.add(resultSet.getString("Username"));
+                    }
+                }
+            }
+        }
+        return existing;
+    }
+}
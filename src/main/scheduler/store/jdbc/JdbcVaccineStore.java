@@ -0,0 +1,211 @@
+package scheduler.store.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.store.VaccineStore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static scheduler.store.jdbc.JdbcUserStore.commit;
+import static scheduler.store.jdbc.JdbcUserStore.connect;
+
+class JdbcVaccineStore implements VaccineStore {
+
+    // two parameters per row stays well under SQL Server's 2100
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+
+    @Override
+    public Integer findDoses(String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.VACCINE_DOSES.prepare(con)) {
+            statement.setString(1, vaccineName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt("Doses") : null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> all() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try (PreparedStatement statement = Statements.VACCINES.prepare(con);
+             ResultSet resultSet = statement.executeQuery()) {
+            Map<String, Integer> vaccines = new TreeMap<>();
+            while (resultSet.next()) {
+                vaccines.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+            }
+            return vaccines;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // each a transaction of its own, so that it is numbered in commit order like every other journaled write
+    @Override
+    public void insert(String vaccineName, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = Statements.INSERT_VACCINE.prepare(con)) {
+                statement.setString(1, vaccineName);
+                statement.setInt(2, doses);
+                statement.executeUpdate();
+            }
+            commit(con);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int num) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = Statements.ADD_DOSES.prepare(con)) {
+                statement.setInt(1, num);
+                statement.setString(2, vaccineName);
+                if (statement.executeUpdate() == 0) {
+                    throw new SQLException("Unknown vaccine " + vaccineName);
+                }
+            }
+            commit(con);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean takeDoses(String vaccineName, int num) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            boolean taken;
+            try (PreparedStatement statement = Statements.REMOVE_DOSES.prepare(con)) {
+                statement.setInt(1, num);
+                statement.setString(2, vaccineName);
+                statement.setInt(3, num);
+                taken = statement.executeUpdate() == 1;
+            }
+            commit(con);
+            return taken;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void applyDeltas(Map<String, Integer> deltas, boolean createMissing) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<String> names = new ArrayList<>(deltas.keySet());
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            int[] updated;
+            try (PreparedStatement update = Statements.ADD_DOSES.prepare(con)) {
+                for (String name : names) {
+                    update.setInt(1, deltas.get(name));
+                    update.setString(2, name);
+                    update.addBatch();
+                }
+                updated = update.executeBatch();
+            }
+
+            if (!createMissing) {
+                for (int i = 0; i < names.size(); i++) {
+                    if (updated[i] == 0) {
+                        con.rollback();
+                        throw new SQLException("Unknown vaccine " + names.get(i));
+                    }
+                }
+            } else {
+                try (PreparedStatement insert = Statements.INSERT_VACCINE.prepare(con)) {
+                    boolean anyNew = false;
+                    for (int i = 0; i < names.size(); i++) {
+                        if (updated[i] == 0) {
+                            insert.setString(1, names.get(i));
+                            insert.setInt(2, deltas.get(names.get(i)));
+                            insert.addBatch();
+                            anyNew = true;
+                        }
+                    }
+                    if (anyNew) {
+                        insert.executeBatch();
+                    }
+                }
+            }
+            commit(con);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int flushTakes() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = connect(cm);
+        try {
+            con.setAutoCommit(false);
+            // in name order, like every other multi-vaccine update, so that it can't deadlock with them
+            Map<String, Integer> taken = new TreeMap<>();
+            try (PreparedStatement flush = Statements.FLUSH_DOSE_TAKES.prepare(con);
+                 ResultSet resultSet = flush.executeQuery()) {
+                while (resultSet.next()) {
+                    taken.merge(resultSet.getString("vaccines_name"), resultSet.getInt("Doses"), Integer::sum);
+                }
+            }
+            int flushed = 0;
+            if (!taken.isEmpty()) {
+                try (PreparedStatement update = Statements.ADD_DOSES.prepare(con)) {
+                    for (Map.Entry<String, Integer> take : taken.entrySet()) {
+                        update.setInt(1, -take.getValue());
+                        update.setString(2, take.getKey());
+                        update.addBatch();
+                        flushed += take.getValue();
+                    }
+                    update.executeBatch();
+                }
+            }
+            commit(con);
+            return flushed;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Records doses taken per vaccine for flushTakes, in the caller's transaction
+    static void recordTakes(Connection con, Map<String, Integer> takes) throws SQLException {
+        List<String> names = new ArrayList<>(takes.keySet());
+        for (int from = 0; from < names.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<String> chunk = names.subList(from, Math.min(names.size(), from + MAX_ROWS_PER_STATEMENT));
+            try (PreparedStatement statement =
+                         Statements.INSERT_DOSE_TAKES.withRows("(?, ?)", chunk.size()).prepare(con)) {
+                int p = 1;
+                for (String name : chunk) {
+                    statement.setString(p++, name);
+                    statement.setInt(p++, takes.get(name));
+                }
+                statement.executeUpdate();
+            }
+        }
+    }
+}
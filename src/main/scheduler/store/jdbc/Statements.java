@@ -0,0 +1,160 @@
+package scheduler.store.jdbc;
+
+import scheduler.db.NamedSql;
+
+import static scheduler.db.StatementRegistry.define;
+
+// Every statement the JDBC stores run, by name. %s marks the rows of a multi-row statement, see NamedSql.withRows.
+final class Statements {
+
+    private static final String RESERVATION_COLUMNS =
+            "appointment_id, vaccines_name, patient_name, caregiver_name, Time";
+
+    static final Users PATIENTS = new Users("patients", "Patients");
+    static final Users CAREGIVERS = new Users("caregivers", "Caregivers");
+
+    // the doses of a Vaccines row that are left; its DoseTakes rows count as taken until they are flushed
+    private static final String DOSES_LEFT = "Doses - ISNULL((SELECT SUM(t.Doses) FROM DoseTakes t " +
+            "WHERE t.vaccines_name = Vaccines.Name), 0) AS Doses";
+
+    static final NamedSql VACCINE_DOSES = define("vaccines.findDoses",
+            "SELECT " + DOSES_LEFT + " FROM Vaccines WHERE Name = ?");
+    static final NamedSql VACCINES = define("vaccines.all", "SELECT Name, " + DOSES_LEFT + " FROM Vaccines");
+    static final NamedSql INSERT_VACCINE = define("vaccines.insert",
+            "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)");
+    static final NamedSql ADD_DOSES = define("vaccines.addDoses",
+            "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?");
+    // the WHERE clause makes the check and the decrement one atomic step
+    static final NamedSql REMOVE_DOSES = define("vaccines.takeDoses",
+            "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?");
+    static final NamedSql INSERT_DOSE_TAKES = define("vaccines.insertTakes",
+            "INSERT INTO DoseTakes (vaccines_name, Doses) VALUES %s");
+    // removes the recorded takes and hands them to the caller, which subtracts them in the same transaction
+    static final NamedSql FLUSH_DOSE_TAKES = define("vaccines.flushTakes",
+            "DELETE FROM DoseTakes OUTPUT deleted.vaccines_name, deleted.Doses");
+
+    static final NamedSql CAREGIVERS_ON = define("availabilities.caregiversOn",
+            "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username");
+    static final NamedSql AVAILABILITIES = define("availabilities.all",
+            "SELECT Time, Username FROM Availabilities ORDER BY Time, Username");
+    static final NamedSql INSERT_AVAILABILITY = define("availabilities.insert",
+            "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)");
+    static final NamedSql DELETE_AVAILABILITY = define("availabilities.delete",
+            "DELETE FROM Availabilities WHERE Time = ? AND Username = ?");
+    static final NamedSql INSERT_AVAILABILITY_IF_CAREGIVER = define("availabilities.insertIfCaregiver",
+            "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?) " +
+            "AND EXISTS (SELECT 1 FROM Caregivers WHERE Username = ?)");
+    // the caregiver may have uploaded the date again in the meantime
+    static final NamedSql RESTORE_AVAILABILITY = define("availabilities.restore",
+            "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)");
+    // the vaccines in stock and the free caregivers of a date range in one result, told apart by which columns are null
+    static final NamedSql SCHEDULE = define("availabilities.schedule",
+            "SELECT CAST(NULL AS date) AS Time, CAST(NULL AS varchar(255)) AS Username, Name, Doses " +
+            "FROM (SELECT Name, " + DOSES_LEFT + " FROM Vaccines) AS v WHERE Doses > 0 " +
+            "UNION ALL SELECT Time, Username, NULL, NULL FROM Availabilities WHERE Time >= ? AND Time <= ? " +
+            "ORDER BY Time, Username, Name");
+    static final NamedSql INSERT_AVAILABILITY_ROWS = define("availabilities.insertRows",
+            "INSERT INTO Availabilities (Time, Username) VALUES %s");
+
+    // take the alphabetically first free caregiver; READPAST skips slots another transaction is claiming
+    static final NamedSql CLAIM_SLOT = define("reservations.claimSlot",
+            "WITH slot AS (SELECT TOP (1) Username FROM Availabilities WITH (UPDLOCK, ROWLOCK, READPAST) " +
+            "WHERE Time = ? ORDER BY Username) " +
+            "DELETE FROM slot OUTPUT deleted.Username");
+    // claim one specific caregiver; READPAST makes a slot that another transaction is claiming look taken
+    // instead of blocking on it
+    static final NamedSql CLAIM_CAREGIVER_SLOT = define("reservations.claimCaregiverSlot",
+            "DELETE FROM Availabilities WITH (ROWLOCK, READPAST) WHERE Time = ? AND Username = ?");
+    static final NamedSql TAKE_DOSE = define("reservations.takeDose",
+            "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0");
+    static final NamedSql INSERT_RESERVATION = define("reservations.insert",
+            "INSERT INTO Reservations (vaccines_name, patient_name, caregiver_name, Time) " +
+            "OUTPUT inserted.appointment_id VALUES (?, ?, ?, ?)");
+    static final NamedSql RESERVATION = define("reservations.find",
+            "SELECT " + RESERVATION_COLUMNS + " FROM Reservations WHERE appointment_id = ?");
+    static final NamedSql INSERT_HOLD = define("holds.insert",
+            "INSERT INTO Holds (patient_name, caregiver_name, vaccines_name, Time, ExpiresAt) " +
+            "OUTPUT inserted.hold_id VALUES (?, ?, ?, ?, ?)");
+    static final NamedSql DELETE_HOLD = define("holds.delete",
+            "DELETE FROM Holds OUTPUT deleted.patient_name, deleted.caregiver_name, deleted.vaccines_name, " +
+            "deleted.Time WHERE hold_id = ?");
+    static final NamedSql HOLDS = define("holds.all",
+            "SELECT hold_id, patient_name, caregiver_name, vaccines_name, Time, ExpiresAt FROM Holds " +
+            "ORDER BY hold_id");
+    static final NamedSql CANCEL_RESERVATION = define("reservations.cancel",
+            "DELETE FROM Reservations OUTPUT deleted.appointment_id, deleted.vaccines_name, " +
+            "deleted.patient_name, deleted.caregiver_name, deleted.Time WHERE appointment_id = ?");
+    // one row beyond the page tells the caller whether there is a next page
+    static final NamedSql PATIENT_RESERVATIONS = list("reservations.listByPatient", "patient_name", false);
+    static final NamedSql PATIENT_RESERVATIONS_BETWEEN =
+            list("reservations.listByPatientBetween", "patient_name", true);
+    static final NamedSql CAREGIVER_RESERVATIONS = list("reservations.listByCaregiver", "caregiver_name", false);
+    static final NamedSql CAREGIVER_RESERVATIONS_BETWEEN =
+            list("reservations.listByCaregiverBetween", "caregiver_name", true);
+    static final NamedSql RESERVATIONS_PER_CAREGIVER = define("reservations.countByCaregiver",
+            "SELECT caregiver_name, COUNT(*) AS Reservations FROM Reservations GROUP BY caregiver_name");
+    static final NamedSql INSERT_RESERVATIONS = define("reservations.insertAll",
+            "INSERT INTO Reservations (vaccines_name, patient_name, caregiver_name, Time) VALUES (?, ?, ?, ?)");
+    // the first n free caregivers on each requested date in username order, claimed in one statement
+    static final NamedSql CLAIM_SLOTS = define("reservations.claimSlots",
+            "DELETE a OUTPUT deleted.Time, deleted.Username " +
+            "FROM Availabilities a WITH (ROWLOCK, READPAST) JOIN (" +
+            "SELECT ranked.Time, ranked.Username FROM (" +
+            "SELECT f.Time, f.Username, w.Wanted, " +
+            "ROW_NUMBER() OVER (PARTITION BY f.Time ORDER BY f.Username) AS Position " +
+            "FROM Availabilities f WITH (UPDLOCK, ROWLOCK, READPAST) JOIN (VALUES %s) AS w (Time, Wanted) " +
+            "ON f.Time = w.Time) AS ranked WHERE ranked.Position <= ranked.Wanted" +
+            ") AS picked ON a.Time = picked.Time AND a.Username = picked.Username");
+    // takes up to the wanted number of doses of each vaccine and reports how many it took
+    static final NamedSql TAKE_DOSES = define("reservations.takeDoses",
+            "UPDATE v SET Doses = v.Doses - CASE WHEN v.Doses < w.Wanted THEN v.Doses ELSE w.Wanted END " +
+            "OUTPUT inserted.Name, deleted.Doses - inserted.Doses AS Taken " +
+            "FROM Vaccines v JOIN (VALUES %s) AS w (Name, Wanted) ON v.Name = w.Name");
+    static final NamedSql INSERT_RESERVATION_ROWS = define("reservations.insertRows",
+            "INSERT INTO Reservations (vaccines_name, patient_name, caregiver_name, Time) " +
+            "OUTPUT inserted.appointment_id, inserted.caregiver_name, inserted.Time VALUES %s");
+
+    // rows below MIN_ACTIVE_ROWVERSION() were written by transactions that have all committed, so reading up to it
+    // and then on from it sees every write exactly once or more
+    static final NamedSql CHANGE_POSITION = define("changes.position",
+            "SELECT CONVERT(bigint, MIN_ACTIVE_ROWVERSION())");
+    static final NamedSql CHANGES = define("changes.since",
+            "SELECT DISTINCT CONVERT(bigint, horizon.Changed) AS Horizon, ChangeLog.Kind, ChangeLog.Name " +
+            "FROM (SELECT MIN_ACTIVE_ROWVERSION() AS Changed) horizon " +
+            "LEFT JOIN ChangeLog " +
+            "ON ChangeLog.Changed >= CONVERT(binary(8), ?) AND ChangeLog.Changed < horizon.Changed");
+    static final NamedSql PRUNE_CHANGES = define("changes.prune",
+            "DELETE FROM ChangeLog WHERE ChangedAt < DATEADD(second, -?, SYSUTCDATETIME())");
+    private Statements() {
+    }
+
+    private static NamedSql list(String name, String userColumn, boolean between) {
+        return define(name, "SELECT TOP (?) " + RESERVATION_COLUMNS + " FROM Reservations WHERE " + userColumn +
+                " = ? AND appointment_id > ?" + (between ? " AND Time >= ? AND Time <= ?" : "") +
+                " ORDER BY appointment_id");
+    }
+
+    // The Patients and Caregivers tables have the same shape, so they have the same statements
+    static final class Users {
+        final NamedSql exists;
+        final NamedSql find;
+        final NamedSql insert;
+        final NamedSql update;
+        final NamedSql insertRows;
+        final NamedSql existing;
+
+        private Users(String prefix, String table) {
+            exists = define(prefix + ".exists", "SELECT 1 FROM " + table + " WHERE Username = ?");
+            find = define(prefix + ".find", "SELECT Salt, Hash, HashVersion FROM " + table + " WHERE Username = ?");
+            insert = define(prefix + ".insert",
+                    "INSERT INTO " + table + " (Username, Salt, Hash, HashVersion) VALUES (?, ?, ?, ?)");
+            update = define(prefix + ".update",
+                    "UPDATE " + table + " SET Salt = ?, Hash = ?, HashVersion = ? WHERE Username = ?");
+            insertRows = define(prefix + ".insertRows",
+                    "INSERT INTO " + table + " (Username, Salt, Hash, HashVersion) VALUES %s");
+            existing = define(prefix + ".existing", "SELECT Username FROM " + table + " WHERE Username IN (%s)");
+        }
+    }
+}
@@ -0,0 +1,1164 @@
+package scheduler.store.memory;
+
+import scheduler.model.Reservation;
+import scheduler.store.AvailabilityStore;
+import scheduler.store.Booking;
+import scheduler.store.BookingRequest;
+import scheduler.store.CaregiverStore;
+import scheduler.store.ChangeFeed;
+import scheduler.store.CommitOrder;
+import scheduler.store.Credentials;
+import scheduler.store.HoldRecord;
+import scheduler.store.HoldStore;
+import scheduler.store.IdDictionary;
+import scheduler.store.PatientStore;
+import scheduler.store.ReservationStore;
+import scheduler.store.ScheduleSnapshot;
+import scheduler.store.Storage;
+import scheduler.store.VaccineStore;
+
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Keeps every table in this process, with the same constraints as create.sql (unique usernames, vaccine names and
+ * caregiver slots, doses never below zero, availability and reservations only for existing users).
+ *
+ * One read-write lock guards all of it, so every store operation is atomic. Changes are checked first, then
+ * appended to the write-ahead log (when there is one), then applied; opening the log replays it, which rebuilds the
+ * same state. A log that has grown to more than twice the live data is rewritten as a snapshot on open.
+ *
+ * A shared log (-Dscheduler.storage.wal.shared=true) lets several processes work on the same data. A write takes the
+ * log's file lock along with the write lock and first applies what the others appended, so its checks see every
+ * committed change; a read first applies what was appended since the last one. The {@link #changeFeed} reports what
+ * the records applied since a position changed, a position being an offset into the log. A shared log is never
+ * compacted.
+ */
+public class MemoryStorage extends Storage {
+
+    // record types in the write-ahead log
+    private static final String PATIENTS = "PI";
+    private static final String CAREGIVERS = "CI";
+    private static final String PATIENT_UPDATE = "PU";
+    private static final String CAREGIVER_UPDATE = "CU";
+    private static final String VACCINE_INSERT = "VI";
+    private static final String VACCINE_DELTAS = "VD";
+    private static final String FLUSH_TAKES = "VF";
+    private static final String AVAILABILITY_ADD = "AA";
+    private static final String AVAILABILITY_REMOVE = "AR";
+    private static final String BOOK = "RB";
+    private static final String BOOK_ALL = "RM";
+    private static final String CANCEL = "RC";
+    private static final String RESERVATIONS = "RS";
+    private static final String SEQUENCE = "ID";
+    private static final String HOLD = "HH";
+    private static final String HOLD_CONFIRM = "HC";
+    private static final String HOLD_RELEASE = "HR";
+    private static final String HOLDS = "HS";
+    private static final String HOLD_SEQUENCE = "HI";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Credentials> patients = new HashMap<>();
+    private final Map<String, Credentials> caregivers = new HashMap<>();
+    private final Map<String, Integer> vaccines = new HashMap<>();
+    // doses that bookings took with doseTaken and that flushTakes has not subtracted from vaccines yet, per vaccine
+    private final Map<String, Integer> takes = new HashMap<>();
+    private final TreeMap<LocalDate, TreeSet<String>> availability = new TreeMap<>();
+    private final TreeMap<Integer, Reservation> reservations = new TreeMap<>();
+    // indexed by the IdDictionary IDs of the patients and caregivers
+    private final List<TreeMap<Integer, Reservation>> byPatient = new ArrayList<>();
+    private final List<TreeMap<Integer, Reservation>> byCaregiver = new ArrayList<>();
+    // caregiver ID and day of every reservation, the UNIQUE (caregiver_name, Time) constraint
+    private final Set<Long> bookedSlots = new HashSet<>();
+    private int nextAppointmentId = 1;
+    private final TreeMap<Integer, HoldRecord> holds = new TreeMap<>();
+    private int nextHoldId = 1;
+    private WriteAheadLog log;
+    private boolean shared = false;
+    // how far the state includes the log; only changes with the write lock held
+    private volatile long logEnd = 0;
+    // held by the thread that holds the write lock, when the log is shared
+    private FileLock fileLock;
+    // what the records applied since the feed was first asked for a position changed, oldest first; null before
+    private ArrayDeque<Change> changes;
+    private final MemoryChangeFeed changeFeed = new MemoryChangeFeed();
+
+    private final MemoryUserStore patientStore = new MemoryUserStore(patients, PATIENTS, PATIENT_UPDATE);
+    private final MemoryUserStore caregiverStore = new MemoryUserStore(caregivers, CAREGIVERS, CAREGIVER_UPDATE);
+    private final MemoryVaccineStore vaccineStore = new MemoryVaccineStore();
+    private final MemoryAvailabilityStore availabilityStore = new MemoryAvailabilityStore();
+    private final MemoryReservationStore reservationStore = new MemoryReservationStore();
+    private final MemoryHoldStore holdStore = new MemoryHoldStore();
+
+    // Opens (or creates) a write-ahead log and rebuilds the state it records; with sync every change is forced to
+    // disk before it is applied, otherwise a machine crash can lose the changes the OS had not written yet
+    public static MemoryStorage open(Path logFile, boolean sync) throws IOException {
+        MemoryStorage storage = new MemoryStorage();
+        List<String[]> records = new ArrayList<>();
+        storage.log = WriteAheadLog.open(logFile, sync, records);
+        for (String[] record : records) {
+            storage.apply(record);
+        }
+        List<String[]> snapshot = storage.snapshot();
+        if (records.size() > 2 * snapshot.size() + 1000) {
+            storage.log.rewrite(snapshot);
+        }
+        return storage;
+    }
+
+    // Opens (or creates) a write-ahead log that other processes may be appending to as well
+    public static MemoryStorage openShared(Path logFile, boolean sync) throws IOException {
+        MemoryStorage storage = new MemoryStorage();
+        storage.log = WriteAheadLog.openShared(logFile, sync);
+        storage.shared = true;
+        FileLock locked = storage.log.lock();
+        try {
+            storage.catchUp(true);
+        } finally {
+            locked.release();
+        }
+        return storage;
+    }
+
+    @Override
+    public PatientStore patients() {
+        return patientStore;
+    }
+
+    @Override
+    public CaregiverStore caregivers() {
+        return caregiverStore;
+    }
+
+    @Override
+    public VaccineStore vaccines() {
+        return vaccineStore;
+    }
+
+    @Override
+    public AvailabilityStore availabilities() {
+        return availabilityStore;
+    }
+
+    @Override
+    public ReservationStore reservations() {
+        return reservationStore;
+    }
+
+    @Override
+    public HoldStore holds() {
+        return holdStore;
+    }
+
+    @Override
+    public boolean isJdbc() {
+        return false;
+    }
+
+    @Override
+    public ChangeFeed changeFeed() {
+        return shared ? changeFeed : null;
+    }
+
+    // Takes the write lock and, with a shared log, the file lock, and applies what other processes appended
+    private void beginWrite() throws SQLException {
+        lock.writeLock().lock();
+        if (!shared) {
+            return;
+        }
+        try {
+            fileLock = log.lock();
+            catchUp(true);
+        } catch (IOException e) {
+            endWrite();
+            throw new SQLException("Could not read the shared write-ahead log", e);
+        }
+    }
+
+    private void endWrite() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            // the lock goes with the channel at the latest
+        } finally {
+            fileLock = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Takes the read lock, first applying what other processes appended to a shared log
+    private void beginRead() {
+        if (shared) {
+            refresh();
+        }
+        lock.readLock().lock();
+    }
+
+    private void endRead() {
+        lock.readLock().unlock();
+    }
+
+    // Applies the records other processes appended since the last time, if there are any
+    private void refresh() {
+        try {
+            if (log.size() == logEnd) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                catchUp(false);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            // the state stays as it was; the next read or write tries again
+        }
+    }
+
+    // With the write lock held: applies the records after logEnd, see WriteAheadLog.readFrom for locked
+    private void catchUp(boolean locked) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        long end = log.readFrom(logEnd, records, locked);
+        logEnd = end;
+        for (String[] record : records) {
+            apply(record);
+        }
+    }
+
+    // Call with the write lock held, after every check has passed
+    private void commit(String... record) throws SQLException {
+        CommitOrder.getInstance().committing();
+        if (log != null) {
+            try {
+                logEnd += log.append(record);
+            } catch (IOException e) {
+                throw new SQLException("Could not write to the write-ahead log", e);
+            }
+        }
+        apply(record);
+    }
+
+    // For the change feed: the record being applied changed the kind of data called name
+    private void changed(String kind, String name) {
+        if (changes != null) {
+            changes.add(new Change(logEnd, kind, name));
+        }
+    }
+
+    private void apply(String[] record) {
+        switch (record[0]) {
+            case PATIENTS:
+            case PATIENT_UPDATE:
+                putUsers(patients, record);
+                break;
+            case CAREGIVERS:
+            case CAREGIVER_UPDATE:
+                putUsers(caregivers, record);
+                break;
+            case VACCINE_INSERT:
+                vaccines.put(record[1], Integer.parseInt(record[2]));
+                changed(ChangeFeed.VACCINE, record[1]);
+                break;
+            case VACCINE_DELTAS:
+                for (int i = 1; i < record.length; i += 2) {
+                    vaccines.merge(record[i], Integer.parseInt(record[i + 1]), Integer::sum);
+                    changed(ChangeFeed.VACCINE, record[i]);
+                }
+                break;
+            case AVAILABILITY_ADD:
+                for (int i = 1; i < record.length; i += 2) {
+                    addSlot(record[i], LocalDate.parse(record[i + 1]));
+                    changed(ChangeFeed.AVAILABILITY, record[i + 1]);
+                }
+                break;
+            case AVAILABILITY_REMOVE:
+                for (int i = 1; i < record.length; i += 2) {
+                    removeSlot(record[i], LocalDate.parse(record[i + 1]));
+                    changed(ChangeFeed.AVAILABILITY, record[i + 1]);
+                }
+                break;
+            case FLUSH_TAKES:
+                for (int i = 1; i < record.length; i += 2) {
+                    int flushed = Integer.parseInt(record[i + 1]);
+                    vaccines.merge(record[i], -flushed, Integer::sum);
+                    takes.merge(record[i], -flushed, (left, n) -> left + n == 0 ? null : left + n);
+                }
+                break;
+            case BOOK:
+                book(record, 1);
+                break;
+            case BOOK_ALL:
+                for (int i = 1; i < record.length; i += 6) {
+                    book(record, i);
+                }
+                break;
+            case CANCEL:
+                Reservation cancelled = removeReservation(Integer.parseInt(record[1]));
+                addSlot(cancelled.getCaregivername(), cancelled.getTime().toLocalDate());
+                changed(ChangeFeed.AVAILABILITY, cancelled.getTime().toString());
+                // whether the dose went back to the vaccine counts; missing in logs from before it did
+                if (record.length > 2 && record[2].equals("1")) {
+                    vaccines.merge(cancelled.getVaccinename(), 1, Integer::sum);
+                    changed(ChangeFeed.VACCINE, cancelled.getVaccinename());
+                }
+                break;
+            case RESERVATIONS:
+                for (int i = 1; i < record.length; i += 5) {
+                    putReservation(reservation(record, i));
+                }
+                break;
+            case SEQUENCE:
+                nextAppointmentId = Math.max(nextAppointmentId, Integer.parseInt(record[1]));
+                break;
+            case HOLD:
+                HoldRecord placed = holdRecord(record, 1);
+                removeSlot(placed.getCaregiverName(), placed.getDate().toLocalDate());
+                vaccines.merge(placed.getVaccineName(), -1, Integer::sum);
+                putHold(placed);
+                changed(ChangeFeed.AVAILABILITY, placed.getDate().toString());
+                changed(ChangeFeed.VACCINE, placed.getVaccineName());
+                break;
+            case HOLD_CONFIRM:
+                HoldRecord confirmed = holds.remove(Integer.parseInt(record[1]));
+                putReservation(new Reservation.ReservationBuilder(confirmed.getCaregiverName(),
+                        confirmed.getPatientName(), confirmed.getVaccineName(), Integer.parseInt(record[2]),
+                        confirmed.getDate()).build());
+                break;
+            case HOLD_RELEASE:
+                HoldRecord released = holds.remove(Integer.parseInt(record[1]));
+                addSlot(released.getCaregiverName(), released.getDate().toLocalDate());
+                vaccines.merge(released.getVaccineName(), 1, Integer::sum);
+                changed(ChangeFeed.AVAILABILITY, released.getDate().toString());
+                changed(ChangeFeed.VACCINE, released.getVaccineName());
+                break;
+            case HOLDS:
+                for (int i = 1; i < record.length; i += 6) {
+                    putHold(holdRecord(record, i));
+                }
+                break;
+            case HOLD_SEQUENCE:
+                nextHoldId = Math.max(nextHoldId, Integer.parseInt(record[1]));
+                break;
+            default:
+                throw new IllegalStateException("Unknown log record " + record[0]);
+        }
+    }
+
+    // the reservation fields at record[at], followed by where the dose came from: "1" from the vaccine counts, "T"
+    // taken by the caller and recorded as a take, "0" in logs from when the DoseInventory logged its doses on its own
+    private void book(String[] record, int at) {
+        Reservation booked = reservation(record, at);
+        removeSlot(booked.getCaregivername(), booked.getTime().toLocalDate());
+        changed(ChangeFeed.AVAILABILITY, booked.getTime().toString());
+        if (record[at + 5].equals("1")) {
+            vaccines.merge(booked.getVaccinename(), -1, Integer::sum);
+            changed(ChangeFeed.VACCINE, booked.getVaccinename());
+        } else if (record[at + 5].equals("T")) {
+            takes.merge(booked.getVaccinename(), 1, Integer::sum);
+            changed(ChangeFeed.VACCINE, booked.getVaccinename());
+        }
+        putReservation(booked);
+    }
+
+    // the hold fields at record[at]: ID, patient, caregiver, date and expiry
+    private static HoldRecord holdRecord(String[] record, int at) {
+        return new HoldRecord(Integer.parseInt(record[at]), record[at + 1], record[at + 2],
+                Date.valueOf(record[at + 3]), record[at + 4], Long.parseLong(record[at + 5]));
+    }
+
+    private static String[] holdFields(String type, HoldRecord hold) {
+        return new String[]{type, Integer.toString(hold.getHoldId()), hold.getPatientName(), hold.getCaregiverName(),
+                hold.getDate().toString(), hold.getVaccineName(), Long.toString(hold.getExpiresAt())};
+    }
+
+    private void putHold(HoldRecord hold) {
+        holds.put(hold.getHoldId(), hold);
+        nextHoldId = Math.max(nextHoldId, hold.getHoldId() + 1);
+    }
+
+    private static void putUsers(Map<String, Credentials> users, String[] record) {
+        Base64.Decoder base64 = Base64.getDecoder();
+        for (int i = 1; i < record.length; i += 4) {
+            users.put(record[i], new Credentials(record[i], base64.decode(record[i + 1]),
+                    base64.decode(record[i + 2]), Integer.parseInt(record[i + 3])));
+        }
+    }
+
+    private static Reservation reservation(String[] record, int at) {
+        return new Reservation.ReservationBuilder(record[at + 3], record[at + 2], record[at + 1],
+                Integer.parseInt(record[at]), Date.valueOf(record[at + 4])).build();
+    }
+
+    private static void addReservationFields(List<String> record, int id, String vaccine, String patient,
+                                             String caregiver, Date date) {
+        record.add(Integer.toString(id));
+        record.add(vaccine);
+        record.add(patient);
+        record.add(caregiver);
+        record.add(date.toString());
+    }
+
+    private void addSlot(String caregiver, LocalDate date) {
+        availability.computeIfAbsent(date, d -> new TreeSet<>()).add(IdDictionary.caregivers().canonical(caregiver));
+    }
+
+    private boolean removeSlot(String caregiver, LocalDate date) {
+        TreeSet<String> caregivers = availability.get(date);
+        if (caregivers == null || !caregivers.remove(caregiver)) {
+            return false;
+        }
+        if (caregivers.isEmpty()) {
+            availability.remove(date);
+        }
+        return true;
+    }
+
+    private boolean hasSlot(String caregiver, LocalDate date) {
+        TreeSet<String> caregivers = availability.get(date);
+        return caregivers != null && caregivers.contains(caregiver);
+    }
+
+    private static long slotKey(String caregiver, Date date) {
+        return (long) IdDictionary.caregivers().intern(caregiver) << 32
+                | (date.toLocalDate().toEpochDay() & 0xFFFFFFFFL);
+    }
+
+    // The reservations of the user with the ID, created on first use
+    private static TreeMap<Integer, Reservation> reservationsOf(List<TreeMap<Integer, Reservation>> byUser, int id) {
+        while (byUser.size() <= id) {
+            byUser.add(null);
+        }
+        TreeMap<Integer, Reservation> mine = byUser.get(id);
+        if (mine == null) {
+            mine = new TreeMap<>();
+            byUser.set(id, mine);
+        }
+        return mine;
+    }
+
+    private void putReservation(Reservation reservation) {
+        int id = reservation.getAppointment_id();
+        reservations.put(id, reservation);
+        reservationsOf(byPatient, IdDictionary.patients().intern(reservation.getPatientname())).put(id, reservation);
+        reservationsOf(byCaregiver, IdDictionary.caregivers().intern(reservation.getCaregivername()))
+                .put(id, reservation);
+        bookedSlots.add(slotKey(reservation.getCaregivername(), reservation.getTime()));
+        nextAppointmentId = Math.max(nextAppointmentId, id + 1);
+    }
+
+    private Reservation removeReservation(int id) {
+        Reservation reservation = reservations.remove(id);
+        byPatient.get(IdDictionary.patients().idOf(reservation.getPatientname())).remove(id);
+        byCaregiver.get(IdDictionary.caregivers().idOf(reservation.getCaregivername())).remove(id);
+        bookedSlots.remove(slotKey(reservation.getCaregivername(), reservation.getTime()));
+        return reservation;
+    }
+
+    // The current state as log records, for compacting the log
+    private List<String[]> snapshot() {
+        List<String[]> records = new ArrayList<>();
+        for (Credentials user : patients.values()) {
+            records.add(userRecord(PATIENTS, user));
+        }
+        for (Credentials user : caregivers.values()) {
+            records.add(userRecord(CAREGIVERS, user));
+        }
+        // with the takes not flushed yet subtracted, as a flush would
+        for (String vaccine : vaccines.keySet()) {
+            records.add(new String[]{VACCINE_INSERT, vaccine, dosesLeft(vaccine).toString()});
+        }
+        for (Map.Entry<LocalDate, TreeSet<String>> entry : availability.entrySet()) {
+            for (String caregiver : entry.getValue()) {
+                records.add(new String[]{AVAILABILITY_ADD, caregiver, entry.getKey().toString()});
+            }
+        }
+        for (Reservation r : reservations.values()) {
+            List<String> record = new ArrayList<>();
+            record.add(RESERVATIONS);
+            addReservationFields(record, r.getAppointment_id(), r.getVaccinename(), r.getPatientname(),
+                    r.getCaregivername(), r.getTime());
+            records.add(record.toArray(new String[0]));
+        }
+        // appointment IDs are never reused, even those of cancelled reservations
+        records.add(new String[]{SEQUENCE, Integer.toString(nextAppointmentId)});
+        for (HoldRecord hold : holds.values()) {
+            records.add(holdFields(HOLDS, hold));
+        }
+        records.add(new String[]{HOLD_SEQUENCE, Integer.toString(nextHoldId)});
+        return records;
+    }
+
+    // The vaccine's doses less its recorded takes; null if there is no such vaccine
+    private Integer dosesLeft(String vaccine) {
+        Integer doses = vaccines.get(vaccine);
+        return doses == null ? null : doses - takes.getOrDefault(vaccine, 0);
+    }
+
+    private static String[] userRecord(String type, Credentials user) {
+        Base64.Encoder base64 = Base64.getEncoder();
+        return new String[]{type, user.getUsername(), base64.encodeToString(user.getSalt()),
+                base64.encodeToString(user.getHash()), Integer.toString(user.getHashVersion())};
+    }
+
+    private class MemoryUserStore implements PatientStore, CaregiverStore {
+        private final Map<String, Credentials> users;
+        private final String insertType;
+        private final String updateType;
+
+        private MemoryUserStore(Map<String, Credentials> users, String insertType, String updateType) {
+            this.users = users;
+            this.insertType = insertType;
+            this.updateType = updateType;
+        }
+
+        @Override
+        public boolean exists(String username) {
+            beginRead();
+            try {
+                return users.containsKey(username);
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public Credentials find(String username) {
+            beginRead();
+            try {
+                return users.get(username);
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public void insert(Credentials credentials) throws SQLException {
+            beginWrite();
+            try {
+                if (users.containsKey(credentials.getUsername())) {
+                    throw new SQLException("Username " + credentials.getUsername() + " is taken");
+                }
+                commit(userRecord(insertType, credentials));
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public void update(Credentials credentials) throws SQLException {
+            beginWrite();
+            try {
+                if (users.containsKey(credentials.getUsername())) {
+                    commit(userRecord(updateType, credentials));
+                }
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public boolean[] insertAll(List<Credentials> batch) throws SQLException {
+            boolean[] inserted = new boolean[batch.size()];
+            beginWrite();
+            try {
+                Set<String> taken = new HashSet<>(users.keySet());
+                List<String> record = new ArrayList<>();
+                record.add(insertType);
+                for (int i = 0; i < batch.size(); i++) {
+                    Credentials user = batch.get(i);
+                    if (taken.add(user.getUsername())) {
+                        String[] fields = userRecord(insertType, user);
+                        record.addAll(List.of(fields).subList(1, fields.length));
+                        inserted[i] = true;
+                    }
+                }
+                if (record.size() > 1) {
+                    commit(record.toArray(new String[0]));
+                }
+                return inserted;
+            } finally {
+                endWrite();
+            }
+        }
+    }
+
+    private class MemoryVaccineStore implements VaccineStore {
+
+        @Override
+        public Integer findDoses(String vaccineName) {
+            beginRead();
+            try {
+                return dosesLeft(vaccineName);
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public Map<String, Integer> all() {
+            beginRead();
+            try {
+                Map<String, Integer> all = new TreeMap<>();
+                for (String vaccine : vaccines.keySet()) {
+                    all.put(vaccine, dosesLeft(vaccine));
+                }
+                return all;
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public void insert(String vaccineName, int doses) throws SQLException {
+            beginWrite();
+            try {
+                if (vaccines.containsKey(vaccineName)) {
+                    throw new SQLException("Vaccine " + vaccineName + " already exists");
+                }
+                if (doses < 0) {
+                    throw new SQLException("Doses cannot be negative");
+                }
+                commit(VACCINE_INSERT, vaccineName, Integer.toString(doses));
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public void addDoses(String vaccineName, int num) throws SQLException {
+            applyDeltas(Collections.singletonMap(vaccineName, num), false);
+        }
+
+        @Override
+        public boolean takeDoses(String vaccineName, int num) throws SQLException {
+            beginWrite();
+            try {
+                Integer doses = dosesLeft(vaccineName);
+                if (doses == null || doses < num) {
+                    return false;
+                }
+                commit(VACCINE_DELTAS, vaccineName, Integer.toString(-num));
+                return true;
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public void applyDeltas(Map<String, Integer> deltas, boolean createMissing) throws SQLException {
+            beginWrite();
+            try {
+                List<String> record = new ArrayList<>();
+                record.add(VACCINE_DELTAS);
+                for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                    Integer doses = dosesLeft(delta.getKey());
+                    if (doses == null && !createMissing) {
+                        throw new SQLException("Unknown vaccine " + delta.getKey());
+                    }
+                    if ((doses == null ? 0 : doses) + delta.getValue() < 0) {
+                        throw new SQLException("Doses of " + delta.getKey() + " cannot go below zero");
+                    }
+                    record.add(delta.getKey());
+                    record.add(delta.getValue().toString());
+                }
+                if (record.size() > 1) {
+                    commit(record.toArray(new String[0]));
+                }
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public int flushTakes() throws SQLException {
+            beginWrite();
+            try {
+                if (takes.isEmpty()) {
+                    return 0;
+                }
+                List<String> record = new ArrayList<>();
+                record.add(FLUSH_TAKES);
+                int flushed = 0;
+                for (Map.Entry<String, Integer> take : new TreeMap<>(takes).entrySet()) {
+                    record.add(take.getKey());
+                    record.add(take.getValue().toString());
+                    flushed += take.getValue();
+                }
+                commit(record.toArray(new String[0]));
+                return flushed;
+            } finally {
+                endWrite();
+            }
+        }
+    }
+
+    private class MemoryAvailabilityStore implements AvailabilityStore {
+
+        @Override
+        public List<String> caregiversOn(LocalDate date) {
+            beginRead();
+            try {
+                TreeSet<String> caregivers = availability.get(date);
+                return caregivers == null ? Collections.emptyList() : new ArrayList<>(caregivers);
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public NavigableMap<LocalDate, List<String>> all() {
+            beginRead();
+            try {
+                NavigableMap<LocalDate, List<String>> rows = new TreeMap<>();
+                for (Map.Entry<LocalDate, TreeSet<String>> entry : availability.entrySet()) {
+                    rows.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+                }
+                return rows;
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public List<ScheduleSnapshot> schedule(LocalDate from, LocalDate to) {
+            beginRead();
+            try {
+                NavigableMap<LocalDate, List<String>> rows = new TreeMap<>();
+                availability.subMap(from, true, to, true).forEach((date, caregivers) ->
+                        rows.put(date, new ArrayList<>(caregivers)));
+                Map<String, Integer> inStock = new TreeMap<>();
+                vaccines.keySet().forEach(name -> {
+                    int doses = dosesLeft(name);
+                    if (doses > 0) {
+                        inStock.put(name, doses);
+                    }
+                });
+                return ScheduleSnapshot.ofRange(from, to, rows, inStock);
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public void add(String username, LocalDate date) throws SQLException {
+            beginWrite();
+            try {
+                if (!caregivers.containsKey(username)) {
+                    throw new SQLException("Unknown caregiver " + username);
+                }
+                if (hasSlot(username, date)) {
+                    throw new SQLException(username + " is already available on " + date);
+                }
+                commit(AVAILABILITY_ADD, username, date.toString());
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public boolean remove(String username, LocalDate date) throws SQLException {
+            beginWrite();
+            try {
+                if (!hasSlot(username, date)) {
+                    return false;
+                }
+                commit(AVAILABILITY_REMOVE, username, date.toString());
+                return true;
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public boolean[] addAll(List<String> usernames, List<LocalDate> dates) throws SQLException {
+            boolean[] inserted = new boolean[usernames.size()];
+            beginWrite();
+            try {
+                Set<String> added = new HashSet<>();
+                List<String> record = new ArrayList<>();
+                record.add(AVAILABILITY_ADD);
+                for (int i = 0; i < inserted.length; i++) {
+                    String username = usernames.get(i);
+                    LocalDate date = dates.get(i);
+                    if (caregivers.containsKey(username) && !hasSlot(username, date)
+                            && added.add(username + '\t' + date)) {
+                        record.add(username);
+                        record.add(date.toString());
+                        inserted[i] = true;
+                    }
+                }
+                if (record.size() > 1) {
+                    commit(record.toArray(new String[0]));
+                }
+                return inserted;
+            } finally {
+                endWrite();
+            }
+        }
+    }
+
+    // With the write lock held: the first of the candidates that is free on the date, or else the first free
+    // caregiver; null if there is none. misses[0] counts the candidates that weren't free.
+    private String claimable(String patientName, Date date, String vaccineName, List<String> candidates,
+                             int[] misses) throws SQLException {
+        if (!patients.containsKey(patientName) || !vaccines.containsKey(vaccineName)) {
+            throw new SQLException("Unknown patient " + patientName + " or vaccine " + vaccineName);
+        }
+        LocalDate day = date.toLocalDate();
+        String caregiver = null;
+        if (candidates != null) {
+            for (String candidate : candidates) {
+                if (hasSlot(candidate, day)) {
+                    caregiver = candidate;
+                    break;
+                }
+                misses[0]++;
+            }
+        }
+        if (caregiver == null) {
+            TreeSet<String> free = availability.get(day);
+            if (free == null) {
+                return null;
+            }
+            caregiver = free.first();
+        }
+        if (bookedSlots.contains(slotKey(caregiver, date))) {
+            throw new SQLException(caregiver + " already has a reservation on " + date);
+        }
+        return caregiver;
+    }
+
+    private class MemoryReservationStore implements ReservationStore {
+
+        @Override
+        public Booking book(String patientName, Date date, String vaccineName, List<String> candidates,
+                            boolean doseTaken) throws SQLException {
+            beginWrite();
+            try {
+                int[] misses = new int[1];
+                String caregiver = claimable(patientName, date, vaccineName, candidates, misses);
+                if (caregiver == null) {
+                    return Booking.failed(Booking.Outcome.NO_CAREGIVER);
+                }
+                if (!doseTaken && dosesLeft(vaccineName) < 1) {
+                    return Booking.failed(Booking.Outcome.NO_DOSES);
+                }
+                int appointmentId = nextAppointmentId;
+                List<String> record = new ArrayList<>();
+                record.add(BOOK);
+                addReservationFields(record, appointmentId, vaccineName, patientName, caregiver, date);
+                record.add(doseTaken ? "T" : "1");
+                commit(record.toArray(new String[0]));
+                return Booking.booked(appointmentId, caregiver, misses[0]);
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public List<Booking> bookAll(List<BookingRequest> requests, boolean dosesTaken) throws SQLException {
+            List<Booking> bookings = new ArrayList<>();
+            beginWrite();
+            try {
+                // nothing changes until the single commit below, so what this batch has claimed so far is tracked
+                // on the side: the caregivers still free per date and the doses taken per vaccine
+                Map<LocalDate, Deque<String>> free = new HashMap<>();
+                Map<String, Integer> taken = new HashMap<>();
+                List<String> record = new ArrayList<>();
+                record.add(BOOK_ALL);
+                int appointmentId = nextAppointmentId;
+                for (BookingRequest request : requests) {
+                    if (!patients.containsKey(request.getPatientName())) {
+                        bookings.add(Booking.failed(Booking.Outcome.UNKNOWN_PATIENT));
+                        continue;
+                    }
+                    Deque<String> caregivers = freeOn(free, request.getDate());
+                    if (caregivers.isEmpty()) {
+                        bookings.add(Booking.failed(Booking.Outcome.NO_CAREGIVER));
+                        continue;
+                    }
+                    String vaccine = request.getVaccineName();
+                    Integer doses = dosesLeft(vaccine);
+                    if (doses == null || !dosesTaken && doses - taken.getOrDefault(vaccine, 0) < 1) {
+                        bookings.add(Booking.failed(Booking.Outcome.NO_DOSES));
+                        continue;
+                    }
+                    String caregiver = caregivers.poll();
+                    taken.merge(vaccine, 1, Integer::sum);
+                    addReservationFields(record, appointmentId, vaccine, request.getPatientName(), caregiver,
+                            request.getDate());
+                    record.add(dosesTaken ? "T" : "1");
+                    bookings.add(Booking.booked(appointmentId++, caregiver));
+                }
+                if (record.size() > 1) {
+                    commit(record.toArray(new String[0]));
+                }
+                return bookings;
+            } finally {
+                endWrite();
+            }
+        }
+
+        // The caregivers free on the date, in username order, that this batch has not taken yet
+        private Deque<String> freeOn(Map<LocalDate, Deque<String>> free, Date date) {
+            return free.computeIfAbsent(date.toLocalDate(), day -> {
+                Deque<String> caregivers = new ArrayDeque<>();
+                for (String caregiver : availability.getOrDefault(day, new TreeSet<>())) {
+                    if (!bookedSlots.contains(slotKey(caregiver, date))) {
+                        caregivers.add(caregiver);
+                    }
+                }
+                return caregivers;
+            });
+        }
+
+        @Override
+        public Reservation find(int appointmentId) {
+            beginRead();
+            try {
+                return reservations.get(appointmentId);
+            } finally {
+                endRead();
+            }
+        }
+
+        @Override
+        public Reservation cancel(int appointmentId, boolean returnDose) throws SQLException {
+            beginWrite();
+            try {
+                Reservation reservation = reservations.get(appointmentId);
+                if (reservation != null) {
+                    boolean dose = returnDose && vaccines.containsKey(reservation.getVaccinename());
+                    commit(CANCEL, Integer.toString(appointmentId), dose ? "1" : "0");
+                }
+                return reservation;
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public boolean list(boolean byCaregiver, String username, int afterId, int limit, Date from, Date to,
+                            Consumer<Reservation> action) {
+            List<Reservation> page = new ArrayList<>();
+            boolean more = false;
+            beginRead();
+            try {
+                int userId = (byCaregiver ? IdDictionary.caregivers() : IdDictionary.patients()).idOf(username);
+                List<TreeMap<Integer, Reservation>> byUser = byCaregiver ? MemoryStorage.this.byCaregiver : byPatient;
+                TreeMap<Integer, Reservation> mine = userId >= 0 && userId < byUser.size() ? byUser.get(userId) : null;
+                if (mine != null) {
+                    for (Reservation reservation : mine.tailMap(afterId, false).values()) {
+                        if (from != null && (reservation.getTime().before(from) || reservation.getTime().after(to))) {
+                            continue;
+                        }
+                        if (page.size() == limit) {
+                            more = true;
+                            break;
+                        }
+                        page.add(reservation);
+                    }
+                }
+            } finally {
+                endRead();
+            }
+            // the callback runs without the lock so that a slow reader can't hold up writers
+            page.forEach(action);
+            return more;
+        }
+
+        @Override
+        public Map<String, Integer> countByCaregiver() {
+            Map<String, Integer> counts = new HashMap<>();
+            beginRead();
+            try {
+                for (int id = 0; id < MemoryStorage.this.byCaregiver.size(); id++) {
+                    TreeMap<Integer, Reservation> mine = MemoryStorage.this.byCaregiver.get(id);
+                    if (mine != null && !mine.isEmpty()) {
+                        counts.put(IdDictionary.caregivers().name(id), mine.size());
+                    }
+                }
+            } finally {
+                endRead();
+            }
+            return counts;
+        }
+
+        @Override
+        public void insertAll(List<Reservation> batch) throws SQLException {
+            beginWrite();
+            try {
+                Set<Long> slots = new HashSet<>();
+                List<String> record = new ArrayList<>();
+                record.add(RESERVATIONS);
+                int id = nextAppointmentId;
+                for (Reservation r : batch) {
+                    if (!patients.containsKey(r.getPatientname()) || !caregivers.containsKey(r.getCaregivername())
+                            || !vaccines.containsKey(r.getVaccinename())) {
+                        throw new SQLException("Reservation refers to an unknown patient, caregiver or vaccine");
+                    }
+                    long slot = slotKey(r.getCaregivername(), r.getTime());
+                    if (bookedSlots.contains(slot) || !slots.add(slot)) {
+                        throw new SQLException(r.getCaregivername() + " already has a reservation on " + r.getTime());
+                    }
+                    addReservationFields(record, id++, r.getVaccinename(), r.getPatientname(),
+                            r.getCaregivername(), r.getTime());
+                }
+                if (record.size() > 1) {
+                    commit(record.toArray(new String[0]));
+                }
+            } finally {
+                endWrite();
+            }
+        }
+    }
+
+    private class MemoryHoldStore implements HoldStore {
+
+        @Override
+        public Booking hold(String patientName, Date date, String vaccineName, List<String> candidates,
+                            long expiresAt) throws SQLException {
+            beginWrite();
+            try {
+                int[] misses = new int[1];
+                String caregiver = claimable(patientName, date, vaccineName, candidates, misses);
+                if (caregiver == null) {
+                    return Booking.failed(Booking.Outcome.NO_CAREGIVER);
+                }
+                if (dosesLeft(vaccineName) < 1) {
+                    return Booking.failed(Booking.Outcome.NO_DOSES);
+                }
+                int holdId = nextHoldId;
+                commit(holdFields(HOLD, new HoldRecord(holdId, patientName, caregiver, date, vaccineName,
+                        expiresAt)));
+                return Booking.booked(holdId, caregiver, misses[0]);
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public int confirm(int holdId) throws SQLException {
+            beginWrite();
+            try {
+                HoldRecord hold = holds.get(holdId);
+                if (hold == null) {
+                    return -1;
+                }
+                if (bookedSlots.contains(slotKey(hold.getCaregiverName(), hold.getDate()))) {
+                    throw new SQLException(hold.getCaregiverName() + " already has a reservation on "
+                            + hold.getDate());
+                }
+                int appointmentId = nextAppointmentId;
+                commit(HOLD_CONFIRM, Integer.toString(holdId), Integer.toString(appointmentId));
+                return appointmentId;
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public boolean release(int holdId) throws SQLException {
+            beginWrite();
+            try {
+                if (!holds.containsKey(holdId)) {
+                    return false;
+                }
+                commit(HOLD_RELEASE, Integer.toString(holdId));
+                return true;
+            } finally {
+                endWrite();
+            }
+        }
+
+        @Override
+        public List<HoldRecord> all() {
+            beginRead();
+            try {
+                return new ArrayList<>(holds.values());
+            } finally {
+                endRead();
+            }
+        }
+    }
+
+    private static class Change {
+        private final long position;
+        private final String kind;
+        private final String name;
+
+        private Change(long position, String kind, String name) {
+            this.position = position;
+            this.kind = kind;
+            this.name = name;
+        }
+    }
+
+    // Positions are offsets into the shared log, where every write is a record already
+    private class MemoryChangeFeed implements ChangeFeed {
+
+        // the changes are forgotten once every position before them has been read
+        @Override
+        public void prune() {
+        }
+
+        @Override
+        public long position() {
+            refresh();
+            lock.writeLock().lock();
+            try {
+                if (changes == null) {
+                    changes = new ArrayDeque<>();
+                }
+                return logEnd;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Changes before the position are forgotten, since positions only move forward
+        @Override
+        public long changesSince(long position, BiConsumer<String, String> changed) {
+            refresh();
+            List<Change> since = new ArrayList<>();
+            long end;
+            lock.writeLock().lock();
+            try {
+                if (changes == null) {
+                    changes = new ArrayDeque<>();
+                }
+                while (!changes.isEmpty() && changes.peekFirst().position <= position) {
+                    changes.pollFirst();
+                }
+                since.addAll(changes);
+                end = logEnd;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            since.forEach(change -> changed.accept(change.kind, change.name));
+            return end;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package scheduler.store.memory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of records, one per line: tab-separated fields followed by the CRC32 of the line.
+ *
+ * A record is written with a single write call, so after a crash only the last record can be incomplete; reading
+ * stops at the first record whose checksum does not match and cuts the file back to the last good record.
+ *
+ * A shared log is appended to by several processes. Each takes the file {@link #lock} around reading what the others
+ * appended and appending its own records, and is never rewritten, since the others keep it open.
+ */
+class WriteAheadLog implements Closeable {
+
+    private final Path path;
+    private final boolean sync;
+    private FileChannel channel;
+    // for reading what other processes appended; null unless shared
+    private final FileChannel reader;
+
+    private WriteAheadLog(Path path, boolean sync, boolean shared) throws IOException {
+        this.path = path;
+        this.sync = sync;
+        this.channel = openForAppend(path);
+        this.reader = shared ? FileChannel.open(path, StandardOpenOption.READ) : null;
+    }
+
+    // Reads every intact record and opens the log for appending after the last one
+    static WriteAheadLog open(Path path, boolean sync, List<String[]> records) throws IOException {
+        if (Files.exists(path)) {
+            long valid = read(path, records);
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                if (valid < file.size()) {
+                    file.truncate(valid);
+                }
+            }
+        }
+        return new WriteAheadLog(path, sync, false);
+    }
+
+    // Opens a log that other processes append to as well; read the records with readFrom(0, ...)
+    static WriteAheadLog openShared(Path path, boolean sync) throws IOException {
+        return new WriteAheadLog(path, sync, true);
+    }
+
+    // Blocks until no other process holds the lock; this process must not ask for it twice
+    FileLock lock() throws IOException {
+        return channel.lock();
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    // Adds the intact records from offset on and returns the offset after the last one. With the lock held, an
+    // incomplete record after them can only be left by a process that crashed while appending, and is cut off;
+    // without it, it may still be being written.
+    synchronized long readFrom(long offset, List<String[]> records, boolean locked) throws IOException {
+        long size = reader.size();
+        ByteBuffer content = ByteBuffer.allocate(Math.toIntExact(size - offset));
+        while (content.hasRemaining()) {
+            if (reader.read(content, offset + content.position()) < 0) {
+                break;
+            }
+        }
+        long end = offset + parse(content.array(), content.position(), records);
+        if (locked && end < size) {
+            channel.truncate(end);
+        }
+        return end;
+    }
+
+    private static FileChannel openForAppend(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // returns the length of the intact prefix of the file
+    private static long read(Path path, List<String[]> records) throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        return parse(content, content.length, records);
+    }
+
+    private static int parse(byte[] content, int length, List<String[]> records) {
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (content[i] != '\n') {
+                continue;
+            }
+            String[] record = decode(new String(content, start, i - start, StandardCharsets.UTF_8));
+            if (record == null) {
+                break;
+            }
+            records.add(record);
+            start = i + 1;
+        }
+        return start;
+    }
+
+    // returns the number of bytes appended
+    synchronized int append(String... fields) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap(encode(fields));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+        return line.limit();
+    }
+
+    // Replaces the whole log with the given records (write-then-rename, so a crash keeps the old log)
+    synchronized void rewrite(List<String[]> records) throws IOException {
+        if (reader != null) {
+            throw new IllegalStateException("A shared log is never rewritten");
+        }
+        Path tmp = Paths.get(path + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (String[] record : records) {
+                buffer.write(encode(record));
+                if (buffer.size() >= 1 << 20) {
+                    out.write(ByteBuffer.wrap(buffer.toByteArray()));
+                    buffer.reset();
+                }
+            }
+            out.write(ByteBuffer.wrap(buffer.toByteArray()));
+            out.force(true);
+        }
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = openForAppend(path);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private static byte[] encode(String[] fields) {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            escape(field, line);
+            line.append('\t');
+        }
+        line.append(Long.toHexString(checksum(line))).append('\n');
+        return line.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // null if the line is incomplete or corrupt
+    private static String[] decode(String line) {
+        int lastTab = line.lastIndexOf('\t');
+        if (lastTab < 0) {
+            return null;
+        }
+        CharSequence body = line.subSequence(0, lastTab + 1);
+        if (!Long.toHexString(checksum(body)).equals(line.substring(lastTab + 1))) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < lastTab + 1; i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < lastTab) {
+                char next = line.charAt(++i);
+                field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        return fields.toArray(new String[0]);
+    }
+
+    private static void escape(String field, StringBuilder out) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\t') {
+                out.append("\\t");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\\') {
+                out.append("\\\\");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static long checksum(CharSequence body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.toString().getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
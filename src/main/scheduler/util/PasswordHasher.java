@@ -0,0 +1,121 @@
+package scheduler.util;
+
+import scheduler.metrics.LatencyHistogram;
+import scheduler.metrics.Metrics;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PBKDF2 password hashing with versioned cost settings.
+ *
+ * Every stored hash records the version it was made with, so the current version can be raised without rehashing
+ * existing users: their old hashes still verify with the old settings, and the login path rehashes them with the
+ * current version once it knows the password.
+ *
+ * Hashing runs on a dedicated pool with one thread per core and a bounded queue; when the queue is full the caller
+ * hashes on its own thread, which throttles a login storm instead of letting it queue without limit.
+ */
+public class PasswordHasher {
+
+    // version -> PBKDF2 iterations and key length in bits; version 1 is what Util has always used.
+    // Keys are at most 128 bits because the Hash columns are BINARY(16).
+    private static final int[][] VERSIONS = {
+            {},
+            {10, 16},
+            {10000, 128},
+            {100000, 128},
+    };
+
+    private static final PasswordHasher INSTANCE = new PasswordHasher(
+            Integer.getInteger("scheduler.hash.version", 1));
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // SecretKeyFactory lookups are slow and instances are not thread-safe, so each thread keeps its own
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int currentVersion;
+    private final ThreadPoolExecutor executor;
+    private final LatencyHistogram hashTimer = Metrics.getInstance().timer("password_hash", "");
+
+    public PasswordHasher(int currentVersion) {
+        checkVersion(currentVersion);
+        this.currentVersion = currentVersion;
+        int cores = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(cores, cores, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(cores * 64), r -> {
+            Thread t = new Thread(r, "password-hasher-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public static PasswordHasher getInstance() {
+        return INSTANCE;
+    }
+
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+
+    public boolean needsRehash(int version) {
+        return version < currentVersion;
+    }
+
+    public byte[] generateSalt() {
+        byte[] salt = new byte[16];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    public byte[] hash(String password, byte[] salt, int version) {
+        checkVersion(version);
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, VERSIONS[version][0], VERSIONS[version][1]);
+        long start = System.nanoTime();
+        try {
+            return FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
+            throw new IllegalStateException();
+        } finally {
+            spec.clearPassword();
+            hashTimer.recordSince(start);
+        }
+    }
+
+    // storedHash may carry the zero padding of the BINARY column, so both sides are trimmed before comparing
+    public boolean verify(String password, byte[] salt, byte[] storedHash, int version) {
+        byte[] calculated = hash(password, salt, version);
+        return MessageDigest.isEqual(Util.trim(storedHash), Util.trim(calculated));
+    }
+
+    public CompletableFuture<byte[]> hashAsync(String password, byte[] salt) {
+        return CompletableFuture.supplyAsync(() -> hash(password, salt, currentVersion), executor);
+    }
+
+    public CompletableFuture<Boolean> verifyAsync(String password, byte[] salt, byte[] storedHash, int version) {
+        return CompletableFuture.supplyAsync(() -> verify(password, salt, storedHash, version), executor);
+    }
+
+    private static void checkVersion(int version) {
+        if (version < 1 || version >= VERSIONS.length) {
+            throw new IllegalArgumentException("Unknown hash version " + version);
+        }
+    }
+}